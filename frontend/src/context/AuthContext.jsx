@@ -3,6 +3,35 @@ import axios from 'axios'
 
 const AuthContext = createContext(null)
 
+const saveSession = ({ token, refreshToken, username, email }) => {
+  localStorage.setItem('token', token)
+  localStorage.setItem('refreshToken', refreshToken)
+  localStorage.setItem('username', username)
+  localStorage.setItem('email', email)
+  axios.defaults.headers.common['Authorization'] = `Bearer ${token}`
+}
+
+const clearSession = () => {
+  localStorage.removeItem('token')
+  localStorage.removeItem('refreshToken')
+  localStorage.removeItem('username')
+  localStorage.removeItem('email')
+  delete axios.defaults.headers.common['Authorization']
+}
+
+// 访问令牌过期（401）时用刷新令牌换取新令牌后重试一次，并发请求共用同一次刷新；403 是没有权限，不刷新
+let refreshing = null
+const refreshSession = () => {
+  if (!refreshing) {
+    const refreshToken = localStorage.getItem('refreshToken')
+    refreshing = (refreshToken
+      ? axios.post('/api/auth/refresh', { refreshToken }).then(response => saveSession(response.data.data))
+      : Promise.reject(new Error('no refresh token'))
+    ).finally(() => { refreshing = null })
+  }
+  return refreshing
+}
+
 export const AuthProvider = ({ children }) => {
   const [user, setUser] = useState(null)
   const [loading, setLoading] = useState(true)
@@ -17,37 +46,48 @@ export const AuthProvider = ({ children }) => {
       axios.defaults.headers.common['Authorization'] = `Bearer ${token}`
     }
     setLoading(false)
+
+    const interceptor = axios.interceptors.response.use(undefined, async (error) => {
+      const { config, response } = error
+      if (!response || response.status !== 401 || !config || config._retried
+          || config.url.startsWith('/api/auth/')) {
+        return Promise.reject(error)
+      }
+      try {
+        await refreshSession()
+      } catch (e) {
+        clearSession()
+        setUser(null)
+        return Promise.reject(error)
+      }
+      config._retried = true
+      config.headers['Authorization'] = axios.defaults.headers.common['Authorization']
+      return axios(config)
+    })
+    return () => axios.interceptors.response.eject(interceptor)
   }, [])
 
   const login = async (username, password) => {
     const response = await axios.post('/api/auth/login', { username, password })
-    const { token, username: user, email } = response.data.data
-    
-    localStorage.setItem('token', token)
-    localStorage.setItem('username', user)
-    localStorage.setItem('email', email)
-    
-    axios.defaults.headers.common['Authorization'] = `Bearer ${token}`
-    setUser({ username: user, email })
+    const session = response.data.data
+    saveSession(session)
+    setUser({ username: session.username, email: session.email })
   }
 
   const register = async (username, email, password) => {
     const response = await axios.post('/api/auth/register', { username, email, password })
-    const { token, username: user, email: userEmail } = response.data.data
-    
-    localStorage.setItem('token', token)
-    localStorage.setItem('username', user)
-    localStorage.setItem('email', userEmail)
-    
-    axios.defaults.headers.common['Authorization'] = `Bearer ${token}`
-    setUser({ username: user, email: userEmail })
+    const session = response.data.data
+    saveSession(session)
+    setUser({ username: session.username, email: session.email })
   }
 
-  const logout = () => {
-    localStorage.removeItem('token')
-    localStorage.removeItem('username')
-    localStorage.removeItem('email')
-    delete axios.defaults.headers.common['Authorization']
+  // 服务端使该用户的刷新令牌全部失效；请求失败（如已过期）时同样清除本地会话
+  const logout = async () => {
+    const refreshToken = localStorage.getItem('refreshToken')
+    if (refreshToken) {
+      await axios.post('/api/auth/logout', { refreshToken }).catch(() => {})
+    }
+    clearSession()
     setUser(null)
   }
 
@@ -438,8 +438,8 @@ const Dashboard = () => {
     setDropTarget(null)
   }
 
-  const handleLogout = () => {
-    logout()
+  const handleLogout = async () => {
+    await logout()
     navigate('/login')
   }
 
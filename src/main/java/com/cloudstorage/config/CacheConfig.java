@@ -0,0 +1,75 @@
+package com.cloudstorage.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存配置：
+ * - Hibernate 二级缓存（File / User 实体、查询缓存）使用 JCache + Caffeine
+ * - 文件夹列表缓存（folderListings）使用 Spring Cache + Caffeine，见 spring.cache.* 配置
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    // Hibernate 二级缓存区域名，与实体上的 @Cache(region = ...) 保持一致
+    public static final String FILE_REGION = "files";
+    public static final String USER_REGION = "users";
+    private static final String QUERY_RESULTS_REGION = "default-query-results-region";
+    private static final String UPDATE_TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+    @Value("${cache.l2.files.max-entries:100000}")
+    private long maxFileEntries;
+
+    @Value("${cache.l2.users.max-entries:10000}")
+    private long maxUserEntries;
+
+    @Value("${cache.l2.query.max-entries:10000}")
+    private long maxQueryEntries;
+
+    @Value("${cache.l2.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager() {
+        CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager(URI.create("cloud-storage-l2"), getClass().getClassLoader());
+
+        createRegion(cacheManager, FILE_REGION, maxFileEntries, true);
+        createRegion(cacheManager, USER_REGION, maxUserEntries, true);
+        createRegion(cacheManager, QUERY_RESULTS_REGION, maxQueryEntries, true);
+        // 时间戳区域不能过期，否则查询缓存可能返回过期结果
+        createRegion(cacheManager, UPDATE_TIMESTAMPS_REGION, maxQueryEntries, false);
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateSecondLevelCacheCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+    }
+
+    private void createRegion(CacheManager cacheManager, String name, long maxEntries, boolean expiring) {
+        if (cacheManager.getCache(name) != null) {
+            return;
+        }
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setMaximumSize(OptionalLong.of(maxEntries));
+        if (expiring) {
+            configuration.setExpireAfterWrite(OptionalLong.of(TimeUnit.MINUTES.toNanos(ttlMinutes)));
+        }
+        configuration.setStatisticsEnabled(true);
+        cacheManager.createCache(name, configuration);
+    }
+}
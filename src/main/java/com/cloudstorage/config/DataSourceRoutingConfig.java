@@ -0,0 +1,81 @@
+package com.cloudstorage.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * 读写分离配置，设置 datasource.replica.enabled=true 时生效（见 application-replica.properties）。
+ * 主库使用 spring.datasource.*，从库使用 datasource.replica.*。
+ */
+@Configuration
+@ConditionalOnProperty(name = "datasource.replica.enabled", havingValue = "true")
+public class DataSourceRoutingConfig {
+
+    @Value("${datasource.replica.url}")
+    private String replicaUrl;
+
+    @Value("${datasource.replica.username:}")
+    private String replicaUsername;
+
+    @Value("${datasource.replica.password:}")
+    private String replicaPassword;
+
+    @Value("${datasource.replica.driver-class-name:}")
+    private String replicaDriverClassName;
+
+    // 写操作后该用户的读请求继续走主库的时长，应大于从库的复制延迟
+    @Value("${datasource.replica.stickiness-seconds:5}")
+    private long stickinessSeconds;
+
+    // 从库故障后多久再尝试
+    @Value("${datasource.replica.retry-seconds:30}")
+    private long retrySeconds;
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("datasource.replica.hikari")
+    public HikariDataSource replicaDataSource() {
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(replicaUrl)
+                .username(replicaUsername)
+                .password(replicaPassword)
+                .driverClassName(StringUtils.hasText(replicaDriverClassName) ? replicaDriverClassName : null)
+                .build();
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);
+        // 启动时从库不可用也不阻止应用启动，由路由数据源回退到主库
+        dataSource.setInitializationFailTimeout(-1);
+        return dataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, HikariDataSource replicaDataSource) {
+        ReplicaRoutingDataSource routingDataSource = new ReplicaRoutingDataSource(
+                primaryDataSource, replicaDataSource,
+                Duration.ofSeconds(stickinessSeconds), Duration.ofSeconds(retrySeconds));
+        routingDataSource.afterPropertiesSet();
+        // 延迟获取连接，直到第一条语句执行时事务的只读属性已确定
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
@@ -0,0 +1,122 @@
+package com.cloudstorage.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * 短时有效的下载链接签名（HMAC-SHA256）。
+ * 令牌中包含文件在存储目录中的相对路径和文件名，校验时不需要查询数据库。
+ */
+@Component
+public class DownloadUrlSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    @Value("${download.signed-url.secret:${jwt.secret:mySecretKeyForJWTTokenGenerationThatIsLongEnoughToMeetTheRequirement}}")
+    private String secret;
+
+    @Value("${download.signed-url.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Getter
+    @AllArgsConstructor
+    public static class SignedDownload {
+        private final Long fileId;
+        private final String username;
+        // 相对于 file.upload-dir 的存储路径
+        private final String storagePath;
+        private final String fileName;
+        // 加密文件所属用户的ID（用于派生密钥），未加密为 null
+        private final Long encryptedFor;
+        private final long expiresAt;
+    }
+
+    public SignedDownload create(Long fileId, String username, String storagePath, String fileName, Long encryptedFor) {
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        return new SignedDownload(fileId, username, storagePath, fileName, encryptedFor, expiresAt);
+    }
+
+    public String sign(SignedDownload download) {
+        byte[] payload = encode(download);
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(hmac(payload));
+    }
+
+    /**
+     * 校验令牌签名和有效期
+     * @return 令牌无效或已过期时返回 empty
+     */
+    public Optional<SignedDownload> verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return Optional.empty();
+        }
+        try {
+            byte[] payload = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(hmac(payload), signature)) {
+                return Optional.empty();
+            }
+            SignedDownload download = decode(payload);
+            if (download.getExpiresAt() < System.currentTimeMillis() / 1000) {
+                return Optional.empty();
+            }
+            return Optional.of(download);
+        } catch (IllegalArgumentException | IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private byte[] encode(SignedDownload download) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(download.getFileId());
+            out.writeUTF(download.getUsername());
+            out.writeUTF(download.getStoragePath());
+            out.writeUTF(download.getFileName());
+            out.writeLong(download.getEncryptedFor() != null ? download.getEncryptedFor() : 0);
+            out.writeLong(download.getExpiresAt());
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private SignedDownload decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long fileId = in.readLong();
+        String username = in.readUTF();
+        String storagePath = in.readUTF();
+        String fileName = in.readUTF();
+        long encryptedFor = in.readLong();
+        return new SignedDownload(fileId, username, storagePath, fileName, encryptedFor != 0 ? encryptedFor : null, in.readLong());
+    }
+
+    private byte[] hmac(byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.cloudstorage.config;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+
+/**
+ * 主键由 IDENTITY 改为池化序列后，已有数据库中的序列（MySQL 上为序列表）从 1 开始，
+ * 会与已有记录的主键冲突。启动时把序列推进到 max(id) + 1 之后。
+ * 依赖 EntityManagerFactory，保证在 Hibernate 建表/更新表结构之后执行。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IdSequenceInitializer {
+
+    private static final String[][] SEQUENCES = {
+            {"file_seq", "files"},
+            {"user_seq", "users"}
+    };
+
+    private final DataSource dataSource;
+    private final EntityManagerFactory entityManagerFactory;
+
+    @PostConstruct
+    public void alignSequences() throws Exception {
+        String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        boolean mysql = product != null && product.toLowerCase().contains("mysql");
+
+        for (String[] sequence : SEQUENCES) {
+            String sequenceName = sequence[0];
+            Long maxId = jdbcTemplate.queryForObject("select max(id) from " + sequence[1], Long.class);
+            if (maxId == null) {
+                continue;
+            }
+            long next = maxId + 1;
+            if (mysql) {
+                // MySQL 不支持序列，Hibernate 使用单行单列(next_val)的表模拟
+                Long current = jdbcTemplate.queryForObject("select next_val from " + sequenceName, Long.class);
+                if (current != null && current < next) {
+                    jdbcTemplate.update("update " + sequenceName + " set next_val = ?", next);
+                    log.info("序列 {} 已从 {} 推进到 {}", sequenceName, current, next);
+                }
+            } else {
+                Long current = jdbcTemplate.queryForObject(
+                        "select base_value from information_schema.sequences where upper(sequence_name) = ?",
+                        Long.class, sequenceName.toUpperCase());
+                if (current != null && current < next) {
+                    jdbcTemplate.execute("alter sequence " + sequenceName + " restart with " + next);
+                    log.info("序列 {} 已从 {} 推进到 {}", sequenceName, current, next);
+                }
+            }
+        }
+    }
+}
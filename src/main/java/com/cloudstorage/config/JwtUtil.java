@@ -1,29 +1,57 @@
 package com.cloudstorage.config;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.security.Key;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Function;
 
+/**
+ * 访问令牌（jwt.expiration）和刷新令牌（jwt.refresh-expiration）。
+ * 刷新令牌带 typ=refresh 声明，只能用于 /api/auth/refresh，不能用于访问接口；
+ * 其中的 pwd 声明是签发时密码哈希的指纹，修改密码后之前签发的刷新令牌全部失效；
+ * ver 声明是签发时用户的刷新令牌版本，退出登录后之前签发的刷新令牌全部失效
+ */
 @Component
 public class JwtUtil {
 
+    public static final String TYPE_CLAIM = "typ";
+    public static final String REFRESH_TYPE = "refresh";
+    public static final String PASSWORD_CLAIM = "pwd";
+    public static final String VERSION_CLAIM = "ver";
+
     @Value("${jwt.secret:mySecretKeyForJWTTokenGenerationThatIsLongEnoughToMeetTheRequirement}")
     private String secret;
 
     @Value("${jwt.expiration:86400000}") // 24 hours
     private Long expiration;
 
+    @Value("${jwt.refresh-expiration:2592000000}") // 30 days
+    private Long refreshExpiration;
+
+    // 密钥和解析器只创建一次，每个请求都要校验令牌
+    private Key signingKey;
+    private JwtParser parser;
+
+    @PostConstruct
+    public void init() {
+        signingKey = Keys.hmacShaKeyFor(secret.getBytes());
+        parser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+    }
+
     private Key getSigningKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes());
+        return signingKey;
     }
 
     public String extractUsername(String token) {
@@ -40,11 +68,34 @@ public class JwtUtil {
     }
 
     private Claims extractAllClaims(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return parser.parseClaimsJws(token).getBody();
+    }
+
+    /**
+     * 访问令牌中的用户名：签名无效、已过期或是刷新令牌时返回空（一次解析）
+     */
+    public Optional<String> parseAccessToken(String token) {
+        try {
+            Claims claims = extractAllClaims(token);
+            if (REFRESH_TYPE.equals(claims.get(TYPE_CLAIM))) {
+                return Optional.empty();
+            }
+            return Optional.ofNullable(claims.getSubject());
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 刷新令牌的声明，签名无效、已过期或不是刷新令牌时返回空
+     */
+    public Optional<Claims> parseRefreshToken(String token) {
+        try {
+            Claims claims = extractAllClaims(token);
+            return REFRESH_TYPE.equals(claims.get(TYPE_CLAIM)) ? Optional.of(claims) : Optional.empty();
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
     }
 
     private Boolean isTokenExpired(String token) {
@@ -53,15 +104,23 @@ public class JwtUtil {
 
     public String generateToken(String username) {
         Map<String, Object> claims = new HashMap<>();
-        return createToken(claims, username);
+        return createToken(claims, username, expiration);
+    }
+
+    public String generateRefreshToken(String username, String passwordFingerprint, int version) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(TYPE_CLAIM, REFRESH_TYPE);
+        claims.put(PASSWORD_CLAIM, passwordFingerprint);
+        claims.put(VERSION_CLAIM, version);
+        return createToken(claims, username, refreshExpiration);
     }
 
-    private String createToken(Map<String, Object> claims, String subject) {
+    private String createToken(Map<String, Object> claims, String subject, long validity) {
         return Jwts.builder()
                 .setClaims(claims)
                 .setSubject(subject)
                 .setIssuedAt(new Date(System.currentTimeMillis()))
-                .setExpiration(new Date(System.currentTimeMillis() + expiration))
+                .setExpiration(new Date(System.currentTimeMillis() + validity))
                 .signWith(getSigningKey(), SignatureAlgorithm.HS256)
                 .compact();
     }
@@ -0,0 +1,159 @@
+package com.cloudstorage.config;
+
+import com.cloudstorage.util.QueryStats;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个请求的 SQL 预算：统计请求线程上执行的语句数和 JDBC 耗时（见 QueryStats）。
+ * - 超出 query-budget.max-statements 时记录警告（mode=log），或在超出的那条语句处直接失败（mode=reject，用于开发和测试）
+ * - 同一形状的 select 执行 query-budget.n-plus-one-threshold 次以上时记录疑似 N+1
+ * - 按接口路径记录 request.queries（语句数）和 request.query.time（耗时）指标
+ * - query-budget.expose-header=true 时在响应头 X-Query-Count / X-Query-Time-Ms 中返回，集成测试可以据此固定各接口的查询数
+ * 放在最外层，认证过滤器中的查询也计入；异步请求（流式导出）在其他线程上执行的查询不计入
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class QueryBudgetFilter extends OncePerRequestFilter {
+
+    public static final String COUNT_HEADER = "X-Query-Count";
+    public static final String TIME_HEADER = "X-Query-Time-Ms";
+
+    private final MeterRegistry meterRegistry;
+    private final Counter exceededCounter;
+    private final Counter nPlusOneCounter;
+
+    @Value("${query-budget.enabled:true}")
+    private boolean enabled;
+
+    @Value("${query-budget.max-statements:50}")
+    private int maxStatements;
+
+    // log 或 reject
+    @Value("${query-budget.mode:log}")
+    private String mode;
+
+    @Value("${query-budget.n-plus-one-threshold:10}")
+    private int nPlusOneThreshold;
+
+    @Value("${query-budget.expose-header:false}")
+    private boolean exposeHeader;
+
+    public QueryBudgetFilter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.exceededCounter = meterRegistry.counter("request.queries.over.budget");
+        this.nPlusOneCounter = meterRegistry.counter("request.queries.n.plus.one");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean reject = "reject".equalsIgnoreCase(mode);
+        try (QueryStats stats = QueryStats.begin(reject ? maxStatements : 0)) {
+            HttpServletResponse target = exposeHeader ? new HeaderExposingResponse(response, stats) : response;
+            try {
+                chain.doFilter(request, target);
+            } finally {
+                if (exposeHeader && !response.isCommitted()) {
+                    writeHeaders(response, stats);
+                }
+                report(request, stats);
+            }
+        }
+    }
+
+    private void report(HttpServletRequest request, QueryStats stats) {
+        if (stats.getStatements() == 0) {
+            return;
+        }
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : "UNMAPPED";
+        DistributionSummary.builder("request.queries").tag("uri", uri).register(meterRegistry)
+                .record(stats.getStatements());
+        Timer.builder("request.query.time").tag("uri", uri).register(meterRegistry)
+                .record(stats.getNanos(), TimeUnit.NANOSECONDS);
+
+        if (stats.getStatements() > maxStatements) {
+            exceededCounter.increment();
+            log.warn("{} {} 执行了 {} 条 SQL（预算 {}），JDBC 耗时 {} ms：\n{}", request.getMethod(), request.getRequestURI(),
+                    stats.getStatements(), maxStatements, TimeUnit.NANOSECONDS.toMillis(stats.getNanos()), stats.describe());
+        }
+        List<Map.Entry<String, Integer>> repeated = stats.repeatedSelects(nPlusOneThreshold);
+        for (Map.Entry<String, Integer> entry : repeated) {
+            nPlusOneCounter.increment();
+            log.warn("{} {} 疑似 N+1：同一查询执行了 {} 次：{}", request.getMethod(), request.getRequestURI(),
+                    entry.getValue(), entry.getKey());
+        }
+    }
+
+    private static void writeHeaders(HttpServletResponse response, QueryStats stats) {
+        response.setHeader(COUNT_HEADER, String.valueOf(stats.getStatements()));
+        response.setHeader(TIME_HEADER, String.valueOf(TimeUnit.NANOSECONDS.toMillis(stats.getNanos())));
+    }
+
+    /**
+     * 响应头必须在响应体开始写出之前设置：在第一次获取输出流时写入当时的统计值
+     */
+    private static class HeaderExposingResponse extends HttpServletResponseWrapper {
+
+        private final QueryStats stats;
+        private boolean written;
+
+        HeaderExposingResponse(HttpServletResponse response, QueryStats stats) {
+            super(response);
+            this.stats = stats;
+        }
+
+        private void writeOnce() {
+            if (!written && !isCommitted()) {
+                written = true;
+                writeHeaders((HttpServletResponse) getResponse(), stats);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            writeOnce();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            writeOnce();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            writeOnce();
+            super.flushBuffer();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.cloudstorage.config;
+
+import com.cloudstorage.util.QueryStats;
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 把 Hibernate 执行的 SQL 计入当前线程的 QueryStats：
+ * - StatementInspector 在准备每条语句时记录语句和形状（不修改 SQL）
+ * - SessionEventListener 记录 JDBC 执行耗时（单条执行和批量执行）
+ * 没有开启统计范围的线程（如后台任务）只多一次 ThreadLocal 读取
+ */
+@Configuration
+public class QueryStatsConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer queryStatsCustomizer() {
+        return properties -> {
+            properties.put(AvailableSettings.STATEMENT_INSPECTOR, (StatementInspector) sql -> {
+                QueryStats.recordStatement(sql);
+                return sql;
+            });
+            properties.put(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER, TimingListener.class.getName());
+        };
+    }
+
+    // 每个 Session 一个实例，由 Hibernate 通过无参构造创建
+    public static class TimingListener extends BaseSessionEventListener {
+
+        private long executeStart;
+        private long batchStart;
+
+        @Override
+        public void jdbcExecuteStatementStart() {
+            executeStart = System.nanoTime();
+        }
+
+        @Override
+        public void jdbcExecuteStatementEnd() {
+            QueryStats.recordTime(System.nanoTime() - executeStart);
+        }
+
+        @Override
+        public void jdbcExecuteBatchStart() {
+            batchStart = System.nanoTime();
+        }
+
+        @Override
+        public void jdbcExecuteBatchEnd() {
+            QueryStats.recordTime(System.nanoTime() - batchStart);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.cloudstorage.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按用户等级的限流配置，见 application.properties 中的 ratelimit.*
+ * 数值为 0 表示不限制。
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "ratelimit")
+public class RateLimitProperties {
+
+    private boolean enabled = true;
+
+    // 用户未设置等级时使用的等级
+    private String defaultTier = "standard";
+
+    private Map<String, Tier> tiers = new HashMap<>();
+
+    @Data
+    public static class Tier {
+        // 每秒请求数及允许的突发请求数
+        private long requestsPerSecond;
+        private long requestBurst;
+        // 上传/下载带宽（字节/秒），突发量为一秒的流量
+        private long uploadBytesPerSecond;
+        private long downloadBytesPerSecond;
+    }
+
+    public Tier tier(String name) {
+        Tier tier = name != null ? tiers.get(name) : null;
+        return tier != null ? tier : tiers.getOrDefault(defaultTier, new Tier());
+    }
+}
@@ -0,0 +1,130 @@
+package com.cloudstorage.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 读写分离路由数据源：
+ * - 只读事务（@Transactional(readOnly = true)）路由到从库
+ * - 其他情况（写事务、无事务）路由到主库
+ * - 用户自己的写事务提交后的一段时间内，该用户的读请求仍走主库（读己之写）
+ * - 从库获取连接失败时自动回退到主库，并在一段时间内不再尝试从库
+ *
+ * 需要配合 LazyConnectionDataSourceProxy 使用，保证在事务属性确定之后才真正获取连接。
+ * 指标注册到全局 MeterRegistry（数据源先于 MeterRegistry 创建，不能直接注入）。
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+    static final String REPLICA = "replica";
+
+    private final DataSource primary;
+    private final DataSource replica;
+    private final long replicaRetryMillis;
+    private final Cache<String, Boolean> recentWriters;
+    private final Counter primaryRoutes;
+    private final Counter replicaRoutes;
+    private final Counter replicaFallbacks;
+
+    private volatile long replicaDownUntil = 0;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, Duration stickiness,
+                                    Duration replicaRetry) {
+        this.primary = primary;
+        this.replica = replica;
+        this.replicaRetryMillis = replicaRetry.toMillis();
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(stickiness)
+                .maximumSize(100_000)
+                .build();
+        this.primaryRoutes = Metrics.counter("datasource.routing", "target", PRIMARY);
+        this.replicaRoutes = Metrics.counter("datasource.routing", "target", REPLICA);
+        this.replicaFallbacks = Metrics.counter("datasource.replica.fallbacks");
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        targets.put(REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String username = currentUsername();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            rememberWriter(username);
+            return PRIMARY;
+        }
+        if (System.currentTimeMillis() < replicaDownUntil) {
+            return PRIMARY;
+        }
+        if (username != null && recentWriters.getIfPresent(username) != null) {
+            return PRIMARY;
+        }
+        return REPLICA;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!REPLICA.equals(determineCurrentLookupKey())) {
+            primaryRoutes.increment();
+            return primary.getConnection();
+        }
+        try {
+            Connection connection = replica.getConnection();
+            replicaRoutes.increment();
+            return connection;
+        } catch (SQLException e) {
+            markReplicaDown(e);
+            primaryRoutes.increment();
+            return primary.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        // 连接池已配置好凭据，忽略传入的用户名密码
+        return getConnection();
+    }
+
+    private void markReplicaDown(SQLException e) {
+        replicaDownUntil = System.currentTimeMillis() + replicaRetryMillis;
+        replicaFallbacks.increment();
+        log.warn("从库不可用，{} 毫秒内回退到主库: {}", replicaRetryMillis, e.getMessage());
+    }
+
+    // 写事务提交后记录该用户，之后一段时间内他的读请求走主库
+    private void rememberWriter(String username) {
+        if (username == null || !TransactionSynchronizationManager.isActualTransactionActive()
+                || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                recentWriters.put(username, Boolean.TRUE);
+            }
+        });
+    }
+
+    private String currentUsername() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null ? authentication.getName() : null;
+    }
+}
@@ -0,0 +1,101 @@
+package com.cloudstorage.config;
+
+import com.cloudstorage.dto.ApiResponse;
+import com.cloudstorage.model.User;
+import com.cloudstorage.repository.UserRepository;
+import com.cloudstorage.service.StorageUsageService;
+import com.cloudstorage.service.UploadAdmissionService;
+import com.cloudstorage.service.UploadRejectedException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 上传请求的准入控制。在请求体被解析（multipart 写入临时文件）之前执行，
+ * 节点繁忙或磁盘空间不足时直接返回 503 + Retry-After，超出用户配额时返回 413，都不读取请求体。
+ */
+@Component
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+
+    private static final List<String> UPLOAD_PATHS = Arrays.asList("/api/files/upload", "/upload");
+    
+    // Content-Length 包含 multipart 的边界和头部，预检查时允许的余量；精确检查在 FileService 中
+    private static final long MULTIPART_OVERHEAD_BYTES = 64 * 1024;
+
+    private final UploadAdmissionService admissionService;
+    private final StorageUsageService storageUsageService;
+    private final UserRepository userRepository;
+    private final ObjectMapper objectMapper;
+    private final long maxRequestBytes;
+
+    public UploadAdmissionFilter(UploadAdmissionService admissionService, StorageUsageService storageUsageService,
+                                 UserRepository userRepository, ObjectMapper objectMapper,
+                                 @Value("${spring.servlet.multipart.max-request-size:100MB}") DataSize maxRequestSize) {
+        this.admissionService = admissionService;
+        this.storageUsageService = storageUsageService;
+        this.userRepository = userRepository;
+        this.objectMapper = objectMapper;
+        this.maxRequestBytes = maxRequestSize.toBytes();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"POST".equals(request.getMethod()) || !UPLOAD_PATHS.contains(request.getServletPath());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        // 分块传输没有 Content-Length 时按最大请求大小预留
+        long contentLength = request.getContentLengthLong();
+        long expectedBytes = contentLength >= 0 ? Math.min(contentLength, maxRequestBytes) : maxRequestBytes;
+        
+        if (contentLength > 0) {
+            Long userId = userRepository.findByUsername(authentication.getName()).map(User::getId).orElse(null);
+            if (userId != null && contentLength > storageUsageService.remainingBytes(userId) + MULTIPART_OVERHEAD_BYTES) {
+                writeError(response, HttpStatus.PAYLOAD_TOO_LARGE, "存储空间不足，请清理回收站或删除不需要的文件");
+                return;
+            }
+        }
+
+        UploadAdmissionService.Admission admission;
+        try {
+            admission = admissionService.admit(authentication.getName(), expectedBytes);
+        } catch (UploadRejectedException e) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+            writeError(response, HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+            return;
+        }
+        try (admission) {
+            chain.doFilter(request, response);
+        }
+    }
+    
+    private void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        objectMapper.writeValue(response.getWriter(), new ApiResponse(false, message));
+    }
+}
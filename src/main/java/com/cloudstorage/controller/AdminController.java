@@ -0,0 +1,164 @@
+package com.cloudstorage.controller;
+
+import com.cloudstorage.dto.ApiResponse;
+import com.cloudstorage.dto.IntegrityIssueDTO;
+import com.cloudstorage.model.File;
+import com.cloudstorage.model.FileIntegrity;
+import com.cloudstorage.model.IntegrityStatus;
+import com.cloudstorage.model.UserStorage;
+import com.cloudstorage.repository.FileRepository;
+import com.cloudstorage.service.ClusterLeaseService;
+import com.cloudstorage.service.ClusterNodeRegistry;
+import com.cloudstorage.service.IntegrityScrubber;
+import com.cloudstorage.service.PackStorageService;
+import com.cloudstorage.service.StorageAnalyticsService;
+import com.cloudstorage.service.StorageReconciler;
+import com.cloudstorage.service.StorageUsageService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 管理接口，仅 admin.usernames 中配置的用户可以访问
+ */
+@RestController
+@RequestMapping("/api/admin")
+@RequiredArgsConstructor
+public class AdminController {
+
+    private final IntegrityScrubber integrityScrubber;
+    private final FileRepository fileRepository;
+    private final StorageReconciler storageReconciler;
+    private final StorageUsageService storageUsageService;
+    private final StorageAnalyticsService storageAnalyticsService;
+    private final ClusterNodeRegistry clusterNodeRegistry;
+    private final ClusterLeaseService clusterLeaseService;
+    private final PackStorageService packStorageService;
+
+    // 完整性校验概况及损坏/丢失的文件列表
+    @GetMapping("/integrity")
+    public ResponseEntity<?> integrityReport(
+            @RequestParam(defaultValue = "CORRUPT") IntegrityStatus status,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            List<FileIntegrity> issues = integrityScrubber.findIssues(status, Math.min(limit, 1000));
+            Map<Long, File> files = fileRepository.findAllById(
+                    issues.stream().map(FileIntegrity::getFileId).collect(Collectors.toList()))
+                .stream().collect(Collectors.toMap(File::getId, Function.identity()));
+            
+            List<IntegrityIssueDTO> dtos = new ArrayList<>();
+            for (FileIntegrity issue : issues) {
+                File file = files.get(issue.getFileId());
+                if (file == null) {
+                    continue;
+                }
+                IntegrityIssueDTO dto = new IntegrityIssueDTO();
+                dto.setFileId(file.getId());
+                dto.setUserId(file.getUser().getId());
+                dto.setPath(file.getPath());
+                dto.setFilePath(file.getFilePath());
+                dto.setStatus(issue.getStatus().name());
+                dto.setExpectedChecksum(file.getChecksum());
+                dto.setActualChecksum(issue.getActualChecksum());
+                dto.setVerifiedAt(issue.getVerifiedAt());
+                dtos.add(dto);
+            }
+            
+            Map<String, Object> data = integrityScrubber.summary();
+            data.put("issues", dtos);
+            return ResponseEntity.ok(new ApiResponse(true, "获取完整性报告成功", data));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new ApiResponse(false, "获取完整性报告失败: " + e.getMessage()));
+        }
+    }
+
+    // 重新计算存储用量和文件夹汇总，不指定 userId 时处理所有用户
+    @PostMapping("/storage/repair")
+    public ResponseEntity<?> repairStorage(@RequestParam(required = false) Long userId) {
+        if (userId != null) {
+            storageUsageService.recompute(userId);
+        } else {
+            storageUsageService.repairAll();
+        }
+        return ResponseEntity.ok(new ApiResponse(true, "重新计算完成"));
+    }
+    
+    // 设置用户配额（字节），不传 quotaBytes 时恢复默认配额
+    @PutMapping("/storage/quota/{userId}")
+    public ResponseEntity<?> setQuota(@PathVariable Long userId, @RequestParam(required = false) Long quotaBytes) {
+        UserStorage storage = storageUsageService.setQuota(userId, quotaBytes);
+        return ResponseEntity.ok(new ApiResponse(true, "配额已更新", storage));
+    }
+
+    // 最近一次磁盘/数据库对账结果
+    @GetMapping("/reconcile")
+    public ResponseEntity<?> reconcileReport() {
+        return ResponseEntity.ok(new ApiResponse(true, "获取对账结果成功", storageReconciler.lastReport()));
+    }
+
+    // 立即执行一轮对账
+    @PostMapping("/reconcile")
+    public ResponseEntity<?> reconcile() {
+        return ResponseEntity.ok(new ApiResponse(true, "对账完成", storageReconciler.run()));
+    }
+
+    // 存储分析：按类型、大小区间和每日增长汇总，不指定 userId 时为全局数据及增长最多的用户
+    @GetMapping("/analytics")
+    public ResponseEntity<?> analytics(@RequestParam(required = false) Long userId,
+                                       @RequestParam(defaultValue = "30") int days,
+                                       @RequestParam(defaultValue = "10") int top) {
+        Map<String, Object> data = storageAnalyticsService.report(userId, Math.min(days, 366), Math.min(top, 100));
+        return ResponseEntity.ok(new ApiResponse(true, "获取存储分析成功", data));
+    }
+
+    // 按 files 表重建类型和大小区间汇总，不指定 userId 时处理所有用户
+    @PostMapping("/analytics/rebuild")
+    public ResponseEntity<?> rebuildAnalytics(@RequestParam(required = false) Long userId) {
+        if (userId != null) {
+            storageAnalyticsService.rebuild(userId);
+        } else {
+            storageAnalyticsService.rebuildAll();
+        }
+        return ResponseEntity.ok(new ApiResponse(true, "重建完成"));
+    }
+
+    // 小文件打包存储概况：打包文件数、总大小、仍被引用的条目和字节数
+    @GetMapping("/packs")
+    public ResponseEntity<?> packs() {
+        return ResponseEntity.ok(new ApiResponse(true, "获取打包存储状态成功", packStorageService.stats()));
+    }
+
+    // 立即执行一轮打包文件压缩
+    @PostMapping("/packs/compact")
+    public ResponseEntity<?> compactPacks() {
+        Map<String, Object> data = packStorageService.compactNow();
+        if (data == null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(new ApiResponse(false, "其他节点正在执行压缩"));
+        }
+        return ResponseEntity.ok(new ApiResponse(true, "压缩完成", data));
+    }
+
+    // 集群节点（心跳）及租约概况
+    @GetMapping("/cluster")
+    public ResponseEntity<?> cluster() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("enabled", clusterNodeRegistry.isEnabled());
+        data.put("nodeId", clusterNodeRegistry.getNodeId());
+        if (clusterNodeRegistry.isEnabled()) {
+            data.put("nodes", clusterNodeRegistry.nodes());
+            data.put("heldLeases", clusterLeaseService.heldCount());
+            data.put("activeLeases", clusterLeaseService.activeCount());
+        }
+        return ResponseEntity.ok(new ApiResponse(true, "获取集群状态成功", data));
+    }
+}
@@ -1,104 +1,142 @@
 package com.cloudstorage.controller;
 
-import com.cloudstorage.config.JwtUtil;
 import com.cloudstorage.dto.AuthResponse;
 import com.cloudstorage.dto.LoginRequest;
+import com.cloudstorage.dto.RefreshRequest;
 import com.cloudstorage.dto.RegisterRequest;
 import com.cloudstorage.dto.ApiResponse;
 import com.cloudstorage.model.User;
 import com.cloudstorage.repository.UserRepository;
-import lombok.RequiredArgsConstructor;
-import javax.persistence.EntityManager;
+import com.cloudstorage.service.AuthBusyException;
+import com.cloudstorage.service.AuthService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.authentication.AuthenticationManager;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.security.core.AuthenticationException;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
 @Slf4j
 @RestController
 @RequestMapping("/api/auth")
-@RequiredArgsConstructor
 public class AuthController {
 
-    private final AuthenticationManager authenticationManager;
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
-    private final JwtUtil jwtUtil;
-    private final EntityManager entityManager;
+    private final AuthService authService;
+    // 注册时插入用户：不能放在哈希线程上，数据库变慢时会阻塞 BCrypt 线程池，登录跟着返回 503
+    private final Executor taskExecutor;
+
+    public AuthController(UserRepository userRepository,
+                          AuthService authService,
+                          @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor taskExecutor) {
+        this.userRepository = userRepository;
+        this.authService = authService;
+        this.taskExecutor = taskExecutor;
+    }
 
-    @Transactional
+    // 异步返回：密码哈希在 AuthService 的线程池上完成后，在 Spring 的任务线程池上开启事务插入，哈希期间不占用 Tomcat 线程和数据库连接
     @PostMapping("/register")
-    public ResponseEntity<?> register(@RequestBody RegisterRequest request) {
-        try {
-            log.info("收到注册请求: username={}, email={}", request.getUsername(), request.getEmail());
-            
-            if (userRepository.existsByUsername(request.getUsername())) {
-                log.warn("用户名已存在: {}", request.getUsername());
-                return ResponseEntity.badRequest()
-                    .body(new ApiResponse(false, "用户名已存在"));
-            }
-            
-            if (userRepository.existsByEmail(request.getEmail())) {
-                log.warn("邮箱已被注册: {}", request.getEmail());
-                return ResponseEntity.badRequest()
-                    .body(new ApiResponse(false, "邮箱已被注册"));
-            }
+    public CompletableFuture<ResponseEntity<?>> register(@RequestBody RegisterRequest request) {
+        log.info("收到注册请求: username={}, email={}", request.getUsername(), request.getEmail());
+        
+        if (userRepository.existsByUsername(request.getUsername())) {
+            log.warn("用户名已存在: {}", request.getUsername());
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                .body(new ApiResponse(false, "用户名已存在")));
+        }
+        
+        if (userRepository.existsByEmail(request.getEmail())) {
+            log.warn("邮箱已被注册: {}", request.getEmail());
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                .body(new ApiResponse(false, "邮箱已被注册")));
+        }
 
-            User user = new User();
-            user.setUsername(request.getUsername());
-            user.setEmail(request.getEmail());
-            user.setPassword(passwordEncoder.encode(request.getPassword()));
-            
-            log.info("保存用户到数据库: {}", request.getUsername());
-            User savedUser = userRepository.save(user);
-            entityManager.flush(); // 强制刷新到数据库
-            log.info("用户保存成功，ID: {}", savedUser.getId());
-            
-            // 验证用户确实已保存
-            User verifyUser = userRepository.findByUsername(request.getUsername()).orElse(null);
-            if (verifyUser == null) {
-                log.error("验证失败：用户未保存到数据库！");
-                throw new RuntimeException("数据保存失败");
-            }
-            log.info("验证成功：用户已存在于数据库，ID: {}", verifyUser.getId());
+        return authService.encodePassword(request.getPassword())
+            .<ResponseEntity<?>>thenApplyAsync(hash -> {
+                User user = new User();
+                user.setUsername(request.getUsername());
+                user.setEmail(request.getEmail());
+                user.setPassword(hash);
+                
+                // save 在自己的事务中提交，唯一约束冲突（并发注册）在这里抛出
+                User savedUser = userRepository.save(user);
+                log.info("用户保存成功，ID: {}", savedUser.getId());
 
-            String token = jwtUtil.generateToken(user.getUsername());
-            AuthResponse response = new AuthResponse(token, user.getUsername(), user.getEmail());
-            
-            log.info("注册成功: {}", request.getUsername());
-            return ResponseEntity.ok(new ApiResponse(true, "注册成功", response));
-        } catch (Exception e) {
-            log.error("注册失败: username={}, error={}", request.getUsername(), e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body(new ApiResponse(false, "注册失败: " + e.getMessage()));
-        }
+                AuthResponse response = authService.issue(savedUser);
+                
+                log.info("注册成功: {}", request.getUsername());
+                return ResponseEntity.ok(new ApiResponse(true, "注册成功", response));
+            }, taskExecutor)
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof AuthBusyException) {
+                    return busy((AuthBusyException) cause);
+                }
+                if (cause instanceof DataIntegrityViolationException) {
+                    log.warn("注册冲突: username={}", request.getUsername());
+                    return ResponseEntity.badRequest()
+                        .body(new ApiResponse(false, "用户名或邮箱已被注册"));
+                }
+                log.error("注册失败: username={}, error={}", request.getUsername(), cause.getMessage(), cause);
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse(false, "注册失败: " + cause.getMessage()));
+            });
     }
 
+    // 异步返回：BCrypt 比较在哈希线程池上执行期间释放 Tomcat 线程
     @PostMapping("/login")
-    public ResponseEntity<?> login(@RequestBody LoginRequest request) {
-        try {
-            log.info("收到登录请求: username={}", request.getUsername());
-            
-            authenticationManager.authenticate(
-                new UsernamePasswordAuthenticationToken(request.getUsername(), request.getPassword())
-            );
+    public CompletableFuture<ResponseEntity<?>> login(@RequestBody LoginRequest request) {
+        log.info("收到登录请求: username={}", request.getUsername());
+        return authService.login(request.getUsername(), request.getPassword())
+            .<ResponseEntity<?>>thenApply(response -> {
+                log.info("登录成功: {}", request.getUsername());
+                return ResponseEntity.ok(new ApiResponse(true, "登录成功", response));
+            })
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof AuthBusyException) {
+                    log.warn("登录被拒绝（繁忙）: username={}", request.getUsername());
+                    return busy((AuthBusyException) cause);
+                }
+                log.error("登录失败: username={}, error={}", request.getUsername(), cause.getMessage());
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(new ApiResponse(false, "用户名或密码错误"));
+            });
+    }
 
-            User user = userRepository.findByUsername(request.getUsername())
-                .orElseThrow(() -> new RuntimeException("用户不存在"));
+    // 用刷新令牌换取新的访问令牌和刷新令牌，不需要密码，也不计算 BCrypt
+    @PostMapping("/refresh")
+    public ResponseEntity<?> refresh(@RequestBody RefreshRequest request) {
+        try {
+            return ResponseEntity.ok(new ApiResponse(true, "刷新成功", authService.refresh(request.getRefreshToken())));
+        } catch (AuthenticationException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .body(new ApiResponse(false, e.getMessage()));
+        }
+    }
 
-            String token = jwtUtil.generateToken(user.getUsername());
-            AuthResponse response = new AuthResponse(token, user.getUsername(), user.getEmail());
-            
-            log.info("登录成功: {}", request.getUsername());
-            return ResponseEntity.ok(new ApiResponse(true, "登录成功", response));
-        } catch (Exception e) {
-            log.error("登录失败: username={}, error={}", request.getUsername(), e.getMessage());
+    // 退出登录：使该用户之前签发的刷新令牌全部失效
+    @PostMapping("/logout")
+    public ResponseEntity<?> logout(@RequestBody RefreshRequest request) {
+        try {
+            authService.logout(request.getRefreshToken());
+            return ResponseEntity.ok(new ApiResponse(true, "已退出登录"));
+        } catch (AuthenticationException e) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                .body(new ApiResponse(false, "用户名或密码错误"));
+                .body(new ApiResponse(false, e.getMessage()));
         }
     }
+
+    private static ResponseEntity<?> busy(AuthBusyException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+            .body(new ApiResponse(false, e.getMessage()));
+    }
 }
@@ -1,13 +1,13 @@
 package com.cloudstorage.controller;
 
+import com.cloudstorage.dto.FileDTO;
 import com.cloudstorage.model.File;
 import com.cloudstorage.model.User;
 import com.cloudstorage.repository.UserRepository;
 import com.cloudstorage.service.FileService;
+import com.cloudstorage.service.FileDownloadService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
@@ -17,7 +17,6 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.io.IOException;
-import java.nio.file.Path;
 import java.util.List;
 
 @Controller
@@ -26,11 +25,12 @@ public class DashboardController {
 
     private final FileService fileService;
     private final UserRepository userRepository;
+    private final FileDownloadService fileDownloadService;
 
     @GetMapping("/dashboard")
     public String dashboard(Model model, Authentication authentication) {
         User user = userRepository.findByUsername(authentication.getName()).orElseThrow();
-        List<File> files = fileService.getUserFiles(user);
+        List<FileDTO> files = fileService.getUserFiles(user);
         model.addAttribute("files", files);
         return "dashboard";
     }
@@ -52,18 +52,13 @@ public class DashboardController {
     @GetMapping("/download/{id}")
     public ResponseEntity<Resource> downloadFile(@PathVariable Long id, Authentication authentication) {
         User user = userRepository.findByUsername(authentication.getName()).orElseThrow();
-        Path filePath = fileService.getFilePath(id, user);
+        File file = fileService.getFileById(id, user).orElse(null);
         
-        if (filePath == null) {
+        if (file == null || file.getIsFolder()) {
             return ResponseEntity.notFound().build();
         }
         
-        Resource resource = new FileSystemResource(filePath);
-        File file = fileService.getFileById(id, user).orElseThrow();
-        
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFileName() + "\"")
-                .body(resource);
+        return fileDownloadService.download(file, user.getUsername());
     }
 
     @GetMapping("/delete/{id}")
@@ -1,26 +1,36 @@
 package com.cloudstorage.controller;
 
+import com.cloudstorage.config.DownloadUrlSigner;
 import com.cloudstorage.dto.ApiResponse;
+import com.cloudstorage.dto.BulkRequest;
 import com.cloudstorage.dto.FileDTO;
+import com.cloudstorage.dto.FileTree;
 import com.cloudstorage.model.File;
+import com.cloudstorage.model.FolderStats;
 import com.cloudstorage.model.User;
+import com.cloudstorage.model.UserStorage;
 import com.cloudstorage.repository.UserRepository;
+import com.cloudstorage.service.ArchiveExtractor;
+import com.cloudstorage.service.BulkFileService;
 import com.cloudstorage.service.FileService;
+import com.cloudstorage.service.FileDownloadService;
+import com.cloudstorage.service.FileExportService;
+import com.cloudstorage.service.QuotaExceededException;
+import com.cloudstorage.service.StorageUsageService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/files")
@@ -29,6 +39,12 @@ public class FileController {
 
     private final FileService fileService;
     private final UserRepository userRepository;
+    private final FileDownloadService fileDownloadService;
+    private final DownloadUrlSigner downloadUrlSigner;
+    private final FileExportService fileExportService;
+    private final StorageUsageService storageUsageService;
+    private final ArchiveExtractor archiveExtractor;
+    private final BulkFileService bulkFileService;
 
     @GetMapping
     public ResponseEntity<?> getUserFiles(
@@ -38,27 +54,54 @@ public class FileController {
             User user = userRepository.findByUsername(authentication.getName())
                 .orElseThrow(() -> new RuntimeException("用户不存在"));
             
-            List<File> files = fileService.getFilesInFolder(user, parentId);
-            List<FileDTO> fileDTOs = files.stream().map(file -> {
-                FileDTO dto = new FileDTO();
-                dto.setId(file.getId());
-                dto.setFileName(file.getFileName());
-                dto.setFileType(file.getFileType());
-                dto.setFileSize(file.getFileSize());
-                dto.setUploadedAt(file.getUploadedAt());
-                dto.setIsFolder(file.getIsFolder());
-                dto.setParentId(file.getParentId());
-                dto.setPath(file.getPath());
-                return dto;
-            }).collect(Collectors.toList());
-            
-            return ResponseEntity.ok(new ApiResponse(true, "获取文件列表成功", fileDTOs));
+            List<FileDTO> files = fileService.getFilesInFolder(user, parentId);
+            return ResponseEntity.ok(new ApiResponse(true, "获取文件列表成功", files));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(new ApiResponse(false, "获取文件列表失败: " + e.getMessage()));
         }
     }
 
+    // 目录树：从 rootId（为空时为根目录）开始展开 depth 层，foldersOnly=true 时只包含文件夹
+    @GetMapping("/tree")
+    public ResponseEntity<?> getTree(
+            @RequestParam(required = false) Long rootId,
+            @RequestParam(defaultValue = "5") int depth,
+            @RequestParam(defaultValue = "false") boolean foldersOnly,
+            Authentication authentication) {
+        try {
+            User user = userRepository.findByUsername(authentication.getName())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+            
+            FileTree tree = fileService.getTree(user, rootId, depth, foldersOnly);
+            return ResponseEntity.ok(new ApiResponse(true, "获取目录树成功", tree));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(new ApiResponse(false, e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new ApiResponse(false, "获取目录树失败: " + e.getMessage()));
+        }
+    }
+    
+    // 流式输出：parentId 为空且 all=true 时导出整个账户，否则输出单个文件夹；format 为 json 或 ndjson
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportFiles(
+            @RequestParam(required = false) Long parentId,
+            @RequestParam(defaultValue = "false") boolean all,
+            @RequestParam(defaultValue = "JSON") FileExportService.Format format,
+            Authentication authentication) {
+        User user = userRepository.findByUsername(authentication.getName())
+            .orElseThrow(() -> new RuntimeException("用户不存在"));
+        
+        StreamingResponseBody body = all
+            ? fileExportService.exportAccount(user, format)
+            : fileExportService.streamFolder(user, parentId, format);
+        return ResponseEntity.ok()
+            .contentType(fileExportService.contentType(format))
+            .body(body);
+    }
+
     @PostMapping("/upload")
     public ResponseEntity<?> uploadFile(
             @RequestParam("file") MultipartFile file,
@@ -70,17 +113,12 @@ public class FileController {
             
             File uploadedFile = fileService.uploadFile(file, user, parentId);
             
-            FileDTO dto = new FileDTO();
-            dto.setId(uploadedFile.getId());
-            dto.setFileName(uploadedFile.getFileName());
-            dto.setFileType(uploadedFile.getFileType());
-            dto.setFileSize(uploadedFile.getFileSize());
-            dto.setUploadedAt(uploadedFile.getUploadedAt());
-            dto.setIsFolder(uploadedFile.getIsFolder());
-            dto.setParentId(uploadedFile.getParentId());
-            dto.setPath(uploadedFile.getPath());
+            FileDTO dto = FileDTO.from(uploadedFile);
             
             return ResponseEntity.ok(new ApiResponse(true, "文件上传成功", dto));
+        } catch (QuotaExceededException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(new ApiResponse(false, e.getMessage()));
         } catch (Exception e) {
             e.printStackTrace(); // 打印完整堆栈信息
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -88,27 +126,96 @@ public class FileController {
         }
     }
 
+    // 已用空间和配额
+    @GetMapping("/usage")
+    public ResponseEntity<?> getStorageUsage(Authentication authentication) {
+        User user = userRepository.findByUsername(authentication.getName())
+            .orElseThrow(() -> new RuntimeException("用户不存在"));
+        
+        UserStorage storage = fileService.getStorageUsage(user);
+        Map<String, Object> data = new HashMap<>();
+        data.put("usedBytes", storage.getUsedBytes());
+        data.put("fileCount", storage.getFileCount());
+        data.put("quotaBytes", storageUsageService.quotaBytes(storage));
+        return ResponseEntity.ok(new ApiResponse(true, "获取存储用量成功", data));
+    }
+    
+    // 文件夹大小（子树总字节数和文件数，不含回收站）
+    @GetMapping("/{id}/stats")
+    public ResponseEntity<?> getFolderStats(@PathVariable Long id, Authentication authentication) {
+        try {
+            User user = userRepository.findByUsername(authentication.getName())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+            
+            FolderStats stats = fileService.getFolderStats(id, user);
+            Map<String, Object> data = new HashMap<>();
+            data.put("id", stats.getFolderId());
+            data.put("totalBytes", stats.getTotalBytes());
+            data.put("fileCount", stats.getFileCount());
+            return ResponseEntity.ok(new ApiResponse(true, "获取文件夹大小成功", data));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(new ApiResponse(false, e.getMessage()));
+        }
+    }
+
     @GetMapping("/download/{id}")
     public ResponseEntity<?> downloadFile(@PathVariable Long id, Authentication authentication) {
         try {
             User user = userRepository.findByUsername(authentication.getName())
                 .orElseThrow(() -> new RuntimeException("用户不存在"));
             
-            Path filePath = fileService.getFilePath(id, user);
+            Optional<File> file = fileService.getFileById(id, user);
             
-            if (filePath == null) {
+            if (!file.isPresent() || file.get().getIsFolder()) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body(new ApiResponse(false, "文件不存在"));
             }
             
-            Resource resource = new FileSystemResource(filePath);
-            File file = fileService.getFileById(id, user).orElseThrow();
+            return fileDownloadService.download(file.get(), user.getUsername());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new ApiResponse(false, "文件下载失败: " + e.getMessage()));
+        }
+    }
+    
+    // 生成短时有效的签名下载链接，使用该链接下载时不需要登录和查询数据库
+    @PostMapping("/download-url/{id}")
+    public ResponseEntity<?> createDownloadUrl(@PathVariable Long id, Authentication authentication) {
+        try {
+            User user = userRepository.findByUsername(authentication.getName())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+            
+            Optional<File> file = fileService.getFileById(id, user);
+            if (!file.isPresent() || file.get().getIsFolder()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ApiResponse(false, "文件不存在"));
+            }
             
-            return ResponseEntity.ok()
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .header(HttpHeaders.CONTENT_DISPOSITION, 
-                    "attachment; filename=\"" + file.getFileName() + "\"")
-                .body(resource);
+            DownloadUrlSigner.SignedDownload download = downloadUrlSigner.create(id, user.getUsername(),
+                fileDownloadService.storageLocator(file.get()), file.get().getFileName(),
+                Boolean.TRUE.equals(file.get().getEncrypted()) ? user.getId() : null);
+            
+            Map<String, Object> data = new HashMap<>();
+            data.put("url", "/api/files/signed/" + downloadUrlSigner.sign(download));
+            data.put("expiresAt", download.getExpiresAt());
+            return ResponseEntity.ok(new ApiResponse(true, "获取下载链接成功", data));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new ApiResponse(false, "获取下载链接失败: " + e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/signed/{token}")
+    public ResponseEntity<?> downloadSigned(@PathVariable String token) {
+        Optional<DownloadUrlSigner.SignedDownload> download = downloadUrlSigner.verify(token);
+        if (!download.isPresent()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                .body(new ApiResponse(false, "下载链接无效或已过期"));
+        }
+        try {
+            return fileDownloadService.downloadStored(download.get().getStoragePath(), download.get().getFileName(),
+                download.get().getUsername(), download.get().getEncryptedFor());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(new ApiResponse(false, "文件下载失败: " + e.getMessage()));
@@ -123,13 +230,65 @@ public class FileController {
             
             fileService.deleteFile(id, user);
             
-            return ResponseEntity.ok(new ApiResponse(true, "文件删除成功"));
+            return ResponseEntity.ok(new ApiResponse(true, "已移入回收站"));
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(new ApiResponse(false, "文件删除失败: " + e.getMessage()));
         }
     }
     
+    @GetMapping("/trash")
+    public ResponseEntity<?> getTrash(Authentication authentication) {
+        try {
+            User user = userRepository.findByUsername(authentication.getName())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+            
+            List<FileDTO> files = fileService.getTrash(user);
+            return ResponseEntity.ok(new ApiResponse(true, "获取回收站成功", files));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new ApiResponse(false, "获取回收站失败: " + e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/trash/{id}/restore")
+    public ResponseEntity<?> restoreFile(@PathVariable Long id, Authentication authentication) {
+        try {
+            User user = userRepository.findByUsername(authentication.getName())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+            
+            File restored = fileService.restoreFile(id, user);
+            
+            FileDTO dto = FileDTO.from(restored);
+            
+            return ResponseEntity.ok(new ApiResponse(true, "恢复成功", dto));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ApiResponse(false, e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new ApiResponse(false, "恢复失败: " + e.getMessage()));
+        }
+    }
+    
+    @DeleteMapping("/trash/{id}")
+    public ResponseEntity<?> purgeFile(@PathVariable Long id, Authentication authentication) {
+        try {
+            User user = userRepository.findByUsername(authentication.getName())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+            
+            fileService.purgeFromTrash(id, user);
+            
+            return ResponseEntity.ok(new ApiResponse(true, "已彻底删除"));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ApiResponse(false, e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new ApiResponse(false, "彻底删除失败: " + e.getMessage()));
+        }
+    }
+    
     @PostMapping("/folder")
     public ResponseEntity<?> createFolder(
             @RequestParam String folderName,
@@ -141,17 +300,13 @@ public class FileController {
             
             File folder = fileService.createFolder(folderName, user, parentId);
             
-            FileDTO dto = new FileDTO();
-            dto.setId(folder.getId());
-            dto.setFileName(folder.getFileName());
-            dto.setFileType(folder.getFileType());
-            dto.setFileSize(folder.getFileSize());
-            dto.setUploadedAt(folder.getUploadedAt());
-            dto.setIsFolder(folder.getIsFolder());
-            dto.setParentId(folder.getParentId());
-            dto.setPath(folder.getPath());
+            FileDTO dto = FileDTO.from(folder);
             
             return ResponseEntity.ok(new ApiResponse(true, "文件夹创建成功", dto));
+        } catch (IOException e) {
+            // 同名项目已存在，或集群模式下等待名称占用超时
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ApiResponse(false, "文件夹创建失败: " + e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(new ApiResponse(false, "文件夹创建失败: " + e.getMessage()));
@@ -187,15 +342,7 @@ public class FileController {
             
             File movedFile = fileService.moveFile(id, targetFolderId, user);
             
-            FileDTO dto = new FileDTO();
-            dto.setId(movedFile.getId());
-            dto.setFileName(movedFile.getFileName());
-            dto.setFileType(movedFile.getFileType());
-            dto.setFileSize(movedFile.getFileSize());
-            dto.setUploadedAt(movedFile.getUploadedAt());
-            dto.setIsFolder(movedFile.getIsFolder());
-            dto.setParentId(movedFile.getParentId());
-            dto.setPath(movedFile.getPath());
+            FileDTO dto = FileDTO.from(movedFile);
             
             return ResponseEntity.ok(new ApiResponse(true, "移动成功", dto));
         } catch (IOException e) {
@@ -207,6 +354,56 @@ public class FileController {
         }
     }
     
+    @PostMapping("/copy/{id}")
+    public ResponseEntity<?> copyFile(
+            @PathVariable Long id,
+            @RequestParam(required = false) Long targetFolderId,
+            Authentication authentication) {
+        try {
+            User user = userRepository.findByUsername(authentication.getName())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+            
+            File copiedFile = fileService.copyFile(id, targetFolderId, user);
+            
+            FileDTO dto = FileDTO.from(copiedFile);
+            
+            return ResponseEntity.ok(new ApiResponse(true, "复制成功", dto));
+        } catch (QuotaExceededException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(new ApiResponse(false, e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ApiResponse(false, e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new ApiResponse(false, "复制失败: " + e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/extract/{id}")
+    public ResponseEntity<?> extractArchive(
+            @PathVariable Long id,
+            @RequestParam(required = false) Long targetFolderId,
+            Authentication authentication) {
+        try {
+            User user = userRepository.findByUsername(authentication.getName())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+            
+            ArchiveExtractor.ExtractionResult result = archiveExtractor.extract(id, targetFolderId, user);
+            
+            return ResponseEntity.ok(new ApiResponse(true, "解压成功", result));
+        } catch (QuotaExceededException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(new ApiResponse(false, e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ApiResponse(false, e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new ApiResponse(false, "解压失败: " + e.getMessage()));
+        }
+    }
+    
     @PutMapping("/rename/{id}")
     public ResponseEntity<?> renameFile(
             @PathVariable Long id,
@@ -218,15 +415,7 @@ public class FileController {
             
             File renamedFile = fileService.renameFile(id, newName, user);
             
-            FileDTO dto = new FileDTO();
-            dto.setId(renamedFile.getId());
-            dto.setFileName(renamedFile.getFileName());
-            dto.setFileType(renamedFile.getFileType());
-            dto.setFileSize(renamedFile.getFileSize());
-            dto.setUploadedAt(renamedFile.getUploadedAt());
-            dto.setIsFolder(renamedFile.getIsFolder());
-            dto.setParentId(renamedFile.getParentId());
-            dto.setPath(renamedFile.getPath());
+            FileDTO dto = FileDTO.from(renamedFile);
             
             return ResponseEntity.ok(new ApiResponse(true, "重命名成功", dto));
         } catch (IOException e) {
@@ -237,4 +426,42 @@ public class FileController {
                 .body(new ApiResponse(false, "重命名失败: " + e.getMessage()));
         }
     }
+    
+    // 批量操作：请求体 {"ids": [...], "targetFolderId": ...} 或 {"renames": [{"id": ..., "newName": ...}]}，逐项返回结果
+    @PostMapping("/bulk/move")
+    public ResponseEntity<?> bulkMove(@RequestBody BulkRequest request, Authentication authentication) {
+        return bulk("批量移动", authentication, user -> bulkFileService.move(request.getIds(), request.getTargetFolderId(), user));
+    }
+    
+    @PostMapping("/bulk/delete")
+    public ResponseEntity<?> bulkDelete(@RequestBody BulkRequest request, Authentication authentication) {
+        return bulk("批量删除", authentication, user -> bulkFileService.delete(request.getIds(), user));
+    }
+    
+    @PostMapping("/bulk/rename")
+    public ResponseEntity<?> bulkRename(@RequestBody BulkRequest request, Authentication authentication) {
+        return bulk("批量重命名", authentication, user -> bulkFileService.rename(request.getRenames(), user));
+    }
+    
+    private interface BulkOperation {
+        BulkFileService.BulkResult apply(User user) throws IOException;
+    }
+    
+    private ResponseEntity<?> bulk(String operation, Authentication authentication, BulkOperation action) {
+        try {
+            User user = userRepository.findByUsername(authentication.getName())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+            
+            BulkFileService.BulkResult result = action.apply(user);
+            
+            String message = operation + "完成: 成功 " + result.getSucceeded() + " 项，失败 " + result.getFailed() + " 项";
+            return ResponseEntity.ok(new ApiResponse(true, message, result));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ApiResponse(false, e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new ApiResponse(false, operation + "失败: " + e.getMessage()));
+        }
+    }
 }
@@ -7,6 +7,8 @@ import lombok.Data;
 @AllArgsConstructor
 public class AuthResponse {
     private String token;
+    // 访问令牌过期后通过 /api/auth/refresh 换取新令牌，不需要重新输入密码
+    private String refreshToken;
     private String username;
     private String email;
 }
@@ -0,0 +1,19 @@
+package com.cloudstorage.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+// 批量移动、删除（ids）和批量重命名（renames）
+@Data
+public class BulkRequest {
+    private List<Long> ids;
+    private Long targetFolderId;
+    private List<Rename> renames;
+
+    @Data
+    public static class Rename {
+        private Long id;
+        private String newName;
+    }
+}
@@ -1,9 +1,16 @@
 package com.cloudstorage.dto;
 
+import com.cloudstorage.model.File;
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
+
 import java.time.LocalDateTime;
 
+// 列表查询直接投影为 FileDTO（见 FileRepository.FILE_DTO），字段顺序与构造参数一致
 @Data
+@NoArgsConstructor
+@AllArgsConstructor
 public class FileDTO {
     private Long id;
     private String fileName;
@@ -13,4 +20,10 @@ public class FileDTO {
     private Boolean isFolder;
     private Long parentId;
     private String path;
+    private LocalDateTime deletedAt;
+    
+    public static FileDTO from(File file) {
+        return new FileDTO(file.getId(), file.getFileName(), file.getFileType(), file.getFileSize(),
+                file.getUploadedAt(), file.getIsFolder(), file.getParentId(), file.getPath(), file.getDeletedAt());
+    }
 }
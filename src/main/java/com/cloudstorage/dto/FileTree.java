@@ -0,0 +1,18 @@
+package com.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// 子树查询结果。truncated 为 true 时超出 file.tree.max-nodes，最深一层可能不完整
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileTree {
+    private Long rootId;
+    private int depth;
+    private boolean truncated;
+    private List<FileTreeNode> children;
+}
@@ -0,0 +1,25 @@
+package com.cloudstorage.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 子树中的一项：FileDTO 的字段加上子项（文件没有 children，超出深度的文件夹 children 为空）
+@Data
+@NoArgsConstructor
+public class FileTreeNode {
+    @JsonUnwrapped
+    private FileDTO file;
+    
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<FileTreeNode> children;
+    
+    public FileTreeNode(FileDTO file) {
+        this.file = file;
+        this.children = Boolean.TRUE.equals(file.getIsFolder()) ? new ArrayList<>() : null;
+    }
+}
@@ -0,0 +1,16 @@
+package com.cloudstorage.dto;
+
+import lombok.Data;
+import java.time.LocalDateTime;
+
+@Data
+public class IntegrityIssueDTO {
+    private Long fileId;
+    private Long userId;
+    private String path;
+    private String filePath;
+    private String status;
+    private String expectedChecksum;
+    private String actualChecksum;
+    private LocalDateTime verifiedAt;
+}
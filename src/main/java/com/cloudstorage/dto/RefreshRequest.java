@@ -0,0 +1,8 @@
+package com.cloudstorage.dto;
+
+import lombok.Data;
+
+@Data
+public class RefreshRequest {
+    private String refreshToken;
+}
@@ -0,0 +1,15 @@
+package com.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RollupEntryDTO {
+    // 文件类型、大小区间或日期；按用户汇总时为用户ID
+    private String key;
+    private Long bytes;
+    private Long files;
+}
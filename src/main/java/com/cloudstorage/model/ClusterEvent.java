@@ -0,0 +1,33 @@
+package com.cloudstorage.model;
+
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 跨节点的缓存失效消息（发件箱）。事务提交后写入，其他节点按 ID 轮询并在本地失效，
+ * 过期的消息由清理任务删除
+ */
+@Data
+@Entity
+@Table(name = "cluster_events", indexes = @Index(name = "idx_cluster_events_created_at", columnList = "createdAt"))
+public class ClusterEvent {
+
+    // 自增主键，轮询时按 ID 递增读取
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 64)
+    private String origin;
+
+    // 失效键，每行一个（见 ClusterEventBus）
+    @Lob
+    @Column(nullable = false)
+    private String payload;
+
+    @CreationTimestamp
+    private LocalDateTime createdAt;
+}
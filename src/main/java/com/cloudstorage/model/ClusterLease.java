@@ -0,0 +1,26 @@
+package com.cloudstorage.model;
+
+import lombok.Data;
+
+import javax.persistence.*;
+
+/**
+ * 基于数据库的租约（分布式锁）。持有者在到期前续期，节点崩溃后租约到期即可被其他节点接管。
+ * 到期时间为持有节点的时钟（毫秒），各节点需要时钟同步
+ */
+@Data
+@Entity
+@Table(name = "cluster_leases")
+public class ClusterLease {
+
+    @Id
+    @Column(length = 191)
+    private String name;
+
+    // 持有者令牌：节点 ID + 序号，同一节点的不同线程也互斥
+    @Column(nullable = false, length = 100)
+    private String owner;
+
+    @Column(nullable = false)
+    private Long expiresAt;
+}
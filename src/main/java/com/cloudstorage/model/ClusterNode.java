@@ -0,0 +1,28 @@
+package com.cloudstorage.model;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 集群节点注册表，每个节点定期更新心跳，超过三个心跳周期未更新视为离线
+ */
+@Data
+@Entity
+@Table(name = "cluster_nodes")
+public class ClusterNode {
+
+    @Id
+    @Column(length = 64)
+    private String nodeId;
+
+    // 其他节点或负载均衡访问该节点的地址
+    private String advertisedUrl;
+
+    @Column(nullable = false)
+    private LocalDateTime startedAt;
+
+    @Column(nullable = false)
+    private LocalDateTime heartbeatAt;
+}
@@ -1,7 +1,13 @@
 package com.cloudstorage.model;
 
+import com.cloudstorage.config.CacheConfig;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.DynamicUpdate;
 import org.hibernate.annotations.UpdateTimestamp;
 
 import javax.persistence.*;
@@ -9,11 +15,22 @@ import java.time.LocalDateTime;
 
 @Data
 @Entity
-@Table(name = "files")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CacheConfig.FILE_REGION)
+// 只更新修改过的列：重命名、移动等不会用读取时的旧值覆盖压缩任务同时更新的打包位置
+@DynamicUpdate
+// parent_id 索引供文件夹列表和子树查询（递归 CTE 的每一层都按 parent_id 连接）使用
+@Table(name = "files", indexes = {
+        @Index(name = "idx_files_deleted_at", columnList = "deletedAt"),
+        @Index(name = "idx_files_parent_id", columnList = "parentId"),
+        @Index(name = "idx_files_pack_id", columnList = "packId")
+})
 public class File {
     
+    // 使用池化序列（MySQL 上由 Hibernate 以序列表模拟），保留 JDBC 批量插入能力
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "file_seq")
+    @SequenceGenerator(name = "file_seq", sequenceName = "file_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false)
@@ -23,8 +40,27 @@ public class File {
     
     private Long fileSize;
     
+    // 内容的 SHA-256 校验和，上传时边写入边计算
+    @Column(length = 64)
+    private String checksum;
+    
     private String filePath;
     
+    // 磁盘上的内容是否按 ChunkedAesGcm 格式加密（null 视为未加密）
+    private Boolean encrypted;
+    
+    // 打包存储的小文件（见 PackStorageService）：所在打包文件的ID、偏移和存储长度（加密文件为密文长度）。
+    // 未打包时为 null；打包的文件 filePath 仍按层级维护，但磁盘上没有对应的文件
+    private Long packId;
+    
+    private Long packOffset;
+    
+    private Long packLength;
+    
+    // 集群模式下接收上传的节点（cluster.node-id），下载时在 X-Storage-Node 响应头中返回，供负载均衡就近路由
+    @Column(length = 64)
+    private String storageNode;
+    
     // 文件夹支持
     @Column(nullable = false)
     private Boolean isFolder = false;
@@ -35,8 +71,11 @@ public class File {
     // 文件路径（用于显示层级结构，如：/folder1/folder2）
     private String path;
     
-    @ManyToOne
+    // 读取路径只需要 user_id，不加载 User
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private User user;
     
     @CreationTimestamp
@@ -44,4 +83,7 @@ public class File {
     
     @UpdateTimestamp
     private LocalDateTime updatedAt;
+    
+    // 移入回收站的时间（null 表示未删除）。只标记被删除的那一项，其后代随之不可见
+    private LocalDateTime deletedAt;
 }
@@ -0,0 +1,28 @@
+package com.cloudstorage.model;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 文件完整性校验结果，与 files 表一对一。
+ * 单独建表，避免后台校验频繁更新 File 导致其二级缓存失效。
+ */
+@Data
+@Entity
+@Table(name = "file_integrity", indexes = @Index(columnList = "status"))
+public class FileIntegrity {
+
+    @Id
+    private Long fileId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private IntegrityStatus status;
+
+    // 最近一次校验时计算出的校验和
+    private String actualChecksum;
+
+    private LocalDateTime verifiedAt;
+}
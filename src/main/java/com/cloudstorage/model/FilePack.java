@@ -0,0 +1,37 @@
+package com.cloudstorage.model;
+
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 小文件的打包文件（file.upload-dir/.packs/{id}.pack），只追加写入。
+ * 每个节点同一时间只向自己打开的一个打包文件追加；写满或节点重启后封存，只有封存的打包文件参与压缩。
+ * 压缩后的打包文件先标记为退役，超过宽限期后才删除，正在读取旧位置的请求不受影响
+ */
+@Data
+@Entity
+@Table(name = "file_packs")
+public class FilePack {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // 写入该打包文件的节点（cluster.node-id）
+    @Column(nullable = false, length = 64)
+    private String node;
+
+    // 封存时的文件长度，打开期间为 0
+    @Column(nullable = false)
+    private Long sizeBytes = 0L;
+
+    @CreationTimestamp
+    private LocalDateTime createdAt;
+
+    private LocalDateTime sealedAt;
+
+    private LocalDateTime retiredAt;
+}
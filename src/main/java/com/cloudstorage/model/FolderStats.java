@@ -0,0 +1,32 @@
+package com.cloudstorage.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+/**
+ * 文件夹子树的汇总（不含回收站中的项目）：总字节数和文件数。
+ * 与 files 表分开存放，频繁的增量更新不会使 File 的二级缓存失效
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "folder_stats")
+public class FolderStats {
+
+    @Id
+    private Long folderId;
+
+    @Column(nullable = false)
+    private Long totalBytes = 0L;
+
+    @Column(nullable = false)
+    private Long fileCount = 0L;
+
+    public FolderStats(Long folderId, long totalBytes, long fileCount) {
+        this.folderId = folderId;
+        this.totalBytes = totalBytes;
+        this.fileCount = fileCount;
+    }
+}
@@ -0,0 +1,10 @@
+package com.cloudstorage.model;
+
+public enum IntegrityStatus {
+    // 内容与记录的校验和一致
+    OK,
+    // 内容与校验和不一致（位衰减、被截断或被改写）
+    CORRUPT,
+    // 数据库中有记录，但磁盘上找不到文件
+    MISSING
+}
@@ -0,0 +1,30 @@
+package com.cloudstorage.model;
+
+import lombok.Data;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 后台任务的进度游标（如完整性校验扫描到的文件ID），重启后从这里继续
+ */
+@Data
+@Entity
+@Table(name = "maintenance_cursors")
+public class MaintenanceCursor {
+
+    @Id
+    @Column(length = 64)
+    private String name;
+
+    @Column(nullable = false)
+    private Long position = 0L;
+
+    // 已完成的完整扫描轮数
+    @Column(nullable = false)
+    private Long passes = 0L;
+
+    @UpdateTimestamp
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,10 @@
+package com.cloudstorage.model;
+
+public enum RollupDimension {
+    // 按文件类型（Content-Type）
+    TYPE,
+    // 按文件大小区间
+    SIZE,
+    // 按日期（yyyy-MM-dd）的净增长
+    DAY
+}
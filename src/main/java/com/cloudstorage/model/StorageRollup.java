@@ -0,0 +1,33 @@
+package com.cloudstorage.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+/**
+ * 存储分析汇总：每个用户在每个维度取值上的字节数和文件数。
+ * 行数只与用户数 × 类型/区间/天数有关，全局汇总在这张表上分组即可，不需要扫描 files 表。
+ * DAY 维度记录的是当天的净增长（删除为负数）
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "storage_rollups", indexes = @Index(name = "idx_storage_rollups_dimension", columnList = "dimension, bucket"))
+public class StorageRollup {
+
+    @EmbeddedId
+    private StorageRollupId id;
+
+    @Column(nullable = false)
+    private Long bytes = 0L;
+
+    @Column(nullable = false)
+    private Long files = 0L;
+
+    public StorageRollup(StorageRollupId id, long bytes, long files) {
+        this.id = id;
+        this.bytes = bytes;
+        this.files = files;
+    }
+}
@@ -0,0 +1,28 @@
+package com.cloudstorage.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import java.io.Serializable;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Embeddable
+public class StorageRollupId implements Serializable {
+
+    private Long userId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 8)
+    private RollupDimension dimension;
+
+    // 维度取值：文件类型、大小区间名称或日期
+    @Column(length = 128)
+    private String bucket;
+}
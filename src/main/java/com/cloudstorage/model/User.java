@@ -1,6 +1,9 @@
 package com.cloudstorage.model;
 
+import com.cloudstorage.config.CacheConfig;
 import lombok.Data;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -9,11 +12,15 @@ import java.time.LocalDateTime;
 
 @Data
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CacheConfig.USER_REGION)
 @Table(name = "users")
 public class User {
     
+    // 使用池化序列（MySQL 上由 Hibernate 以序列表模拟），保留 JDBC 批量插入能力
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_seq")
+    @SequenceGenerator(name = "user_seq", sequenceName = "user_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false, unique = true)
@@ -25,6 +32,12 @@ public class User {
     @Column(nullable = false, unique = true)
     private String email;
     
+    // 限流等级（对应 ratelimit.tiers.*），为空时使用默认等级
+    private String tier;
+    
+    // 刷新令牌版本，写入刷新令牌；退出登录时加一，之前签发的刷新令牌全部失效（null 视为 0）
+    private Integer tokenVersion;
+    
     @CreationTimestamp
     private LocalDateTime createdAt;
     
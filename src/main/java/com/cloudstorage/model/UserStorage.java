@@ -0,0 +1,26 @@
+package com.cloudstorage.model;
+
+import lombok.Data;
+
+import javax.persistence.*;
+
+/**
+ * 用户已用空间（含回收站，彻底删除后才释放）和配额
+ */
+@Data
+@Entity
+@Table(name = "user_storage")
+public class UserStorage {
+
+    @Id
+    private Long userId;
+
+    @Column(nullable = false)
+    private Long usedBytes = 0L;
+
+    @Column(nullable = false)
+    private Long fileCount = 0L;
+
+    // 为空时使用 storage.quota.default-bytes
+    private Long quotaBytes;
+}
@@ -0,0 +1,33 @@
+package com.cloudstorage.repository;
+
+import com.cloudstorage.model.ClusterEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ClusterEventRepository extends JpaRepository<ClusterEvent, Long> {
+    
+    @Query("select coalesce(max(e.id), 0) from ClusterEvent e")
+    long findMaxId();
+    
+    // 其他节点发出的消息，按 ID 递增
+    @Query("select e from ClusterEvent e where e.id > :after and e.origin <> :origin order by e.id")
+    List<ClusterEvent> findAfter(@Param("after") long after, @Param("origin") String origin, Pageable pageable);
+    
+    // 同上，并补读之前跳过的 ID（事务较晚提交的消息）
+    @Query("select e from ClusterEvent e where (e.id > :after or e.id in :missing) and e.origin <> :origin order by e.id")
+    List<ClusterEvent> findAfterOrIn(@Param("after") long after, @Param("missing") Collection<Long> missing,
+                                     @Param("origin") String origin, Pageable pageable);
+    
+    @Modifying
+    @Query("delete from ClusterEvent e where e.createdAt < :before")
+    int deleteBefore(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,33 @@
+package com.cloudstorage.repository;
+
+import com.cloudstorage.model.ClusterLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ClusterLeaseRepository extends JpaRepository<ClusterLease, String> {
+    
+    // 接管已到期的租约，返回 0 表示仍被其他持有者持有（或记录不存在）
+    @Modifying
+    @Query("update ClusterLease l set l.owner = :owner, l.expiresAt = :expiresAt where l.name = :name and l.expiresAt <= :now")
+    int takeOver(@Param("name") String name, @Param("owner") String owner,
+                 @Param("expiresAt") long expiresAt, @Param("now") long now);
+    
+    @Modifying
+    @Query("update ClusterLease l set l.expiresAt = :expiresAt where l.name = :name and l.owner = :owner")
+    int renew(@Param("name") String name, @Param("owner") String owner, @Param("expiresAt") long expiresAt);
+    
+    // 释放时只把到期时间改为当前时间，记录保留下来，下次获取时直接接管（不需要插入）
+    @Modifying
+    @Query("update ClusterLease l set l.expiresAt = :now where l.name = :name and l.owner = :owner")
+    int release(@Param("name") String name, @Param("owner") String owner, @Param("now") long now);
+    
+    @Modifying
+    @Query("delete from ClusterLease l where l.expiresAt < :before")
+    int deleteExpiredBefore(@Param("before") long before);
+    
+    long countByExpiresAtGreaterThan(long now);
+}
@@ -0,0 +1,23 @@
+package com.cloudstorage.repository;
+
+import com.cloudstorage.model.ClusterNode;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface ClusterNodeRepository extends JpaRepository<ClusterNode, String> {
+    
+    @Modifying
+    @Query("update ClusterNode n set n.heartbeatAt = :now, n.advertisedUrl = :url where n.nodeId = :nodeId")
+    int heartbeat(@Param("nodeId") String nodeId, @Param("url") String url, @Param("now") LocalDateTime now);
+    
+    // 清理长时间离线的节点
+    @Modifying
+    @Query("delete from ClusterNode n where n.heartbeatAt < :before")
+    int deleteStale(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,15 @@
+package com.cloudstorage.repository;
+
+import com.cloudstorage.model.FileIntegrity;
+import com.cloudstorage.model.IntegrityStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface FileIntegrityRepository extends JpaRepository<FileIntegrity, Long> {
+    List<FileIntegrity> findByStatusOrderByVerifiedAtDesc(IntegrityStatus status, Pageable pageable);
+    long countByStatus(IntegrityStatus status);
+}
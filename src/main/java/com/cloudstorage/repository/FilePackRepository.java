@@ -0,0 +1,31 @@
+package com.cloudstorage.repository;
+
+import com.cloudstorage.model.FilePack;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface FilePackRepository extends JpaRepository<FilePack, Long> {
+    
+    // 节点上次运行时打开的打包文件（重启后封存）
+    List<FilePack> findByNodeAndSealedAtIsNull(String node);
+    
+    // 压缩候选：封存超过一段时间、尚未退役的打包文件
+    List<FilePack> findBySealedAtBeforeAndRetiredAtIsNullOrderByIdAsc(LocalDateTime before);
+    
+    List<FilePack> findByRetiredAtBefore(LocalDateTime before);
+    
+    @Modifying
+    @Query("update FilePack p set p.sizeBytes = :size, p.sealedAt = :now where p.id = :id")
+    int seal(@Param("id") Long id, @Param("size") long size, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("update FilePack p set p.retiredAt = :now where p.id = :id")
+    int retire(@Param("id") Long id, @Param("now") LocalDateTime now);
+}
@@ -1,23 +1,208 @@
 package com.cloudstorage.repository;
 
+import com.cloudstorage.dto.FileDTO;
 import com.cloudstorage.model.File;
 import com.cloudstorage.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface FileRepository extends JpaRepository<File, Long> {
-    List<File> findByUserOrderByUploadedAtDesc(User user);
+    
+    String FILE_DTO = "select new com.cloudstorage.dto.FileDTO(f.id, f.fileName, f.fileType, f.fileSize, "
+            + "f.uploadedAt, f.isFolder, f.parentId, f.path, f.deletedAt) from File f ";
+    String LISTING_ORDER = "order by f.isFolder desc, f.uploadedAt desc";
+    int STREAM_FETCH_SIZE = 500;
+    
     Optional<File> findByIdAndUser(Long id, User user);
     boolean existsByFileNameAndUser(String fileName, User user);
     
-    // 文件夹相关查询
-    List<File> findByUserAndParentIdIsNullOrderByIsFolderDescUploadedAtDesc(User user);
-    List<File> findByUserAndParentIdOrderByIsFolderDescUploadedAtDesc(User user, Long parentId);
+    // 列表查询只选取 FileDTO 需要的列，按 user_id 过滤，不连接 users 表，也不创建托管实体
+    @Query(FILE_DTO + "where f.user.id = :userId order by f.uploadedAt desc")
+    List<FileDTO> findListingByUser(@Param("userId") Long userId);
+    
+    // 文件夹相关查询（不含回收站中的项目）
+    @Query(FILE_DTO + "where f.user.id = :userId and f.parentId is null and f.deletedAt is null " + LISTING_ORDER)
+    List<FileDTO> findRootListing(@Param("userId") Long userId);
+    
+    @Query(FILE_DTO + "where f.user.id = :userId and f.parentId = :parentId and f.deletedAt is null " + LISTING_ORDER)
+    List<FileDTO> findFolderListing(@Param("userId") Long userId, @Param("parentId") Long parentId);
+    
+    // 查找指定用户、父文件夹和文件名的文件（不含回收站中的项目）
+    Optional<File> findByUserAndParentIdAndFileNameAndDeletedAtIsNull(User user, Long parentId, String fileName);
+    boolean existsByUserAndParentIdAndFileNameAndDeletedAtIsNull(User user, Long parentId, String fileName);
+    
+    // 回收站：用户删除的项目，以及超过保留期待清理的项目
+    @Query(FILE_DTO + "where f.user.id = :userId and f.deletedAt is not null order by f.deletedAt desc")
+    List<FileDTO> findTrashListing(@Param("userId") Long userId);
+    List<File> findByDeletedAtBeforeOrderByDeletedAtAsc(LocalDateTime cutoff, Pageable pageable);
+    
+    // 按层级批量查询子项（用于子树操作）
+    List<File> findByUserAndParentIdIn(User user, Collection<Long> parentIds);
+    
+    // 批量操作：目标文件夹中与给定名称同名的项目。回收站中的项目在调用方过滤：
+    // 条件中带 deleted_at is null 时 H2 会选择 deleted_at 索引，每个块都扫描整张表
+    @Query("select f.fileName as fileName, f.deletedAt as deletedAt from File f "
+            + "where f.user.id = :userId and f.parentId is null and f.fileName in :names")
+    List<NameNode> findRootNamesIn(@Param("userId") Long userId, @Param("names") Collection<String> names);
+    
+    @Query("select f.fileName as fileName, f.deletedAt as deletedAt from File f "
+            + "where f.user.id = :userId and f.parentId = :parentId and f.fileName in :names")
+    List<NameNode> findFolderNamesIn(@Param("userId") Long userId, @Param("parentId") Long parentId,
+                                     @Param("names") Collection<String> names);
+    
+    // 批量移动：同一目标下的路径只差文件名，一条 UPDATE 改写一组项目（不经过持久化上下文，updatedAt 需显式设置）
+    @Modifying
+    @Query("update File f set f.parentId = :parentId, f.path = concat(:pathPrefix, f.fileName), "
+            + "f.filePath = concat(:filePathPrefix, f.fileName), f.updatedAt = :now where f.id in :ids")
+    int moveAll(@Param("ids") Collection<Long> ids, @Param("parentId") Long parentId, @Param("pathPrefix") String pathPrefix,
+                @Param("filePathPrefix") String filePathPrefix, @Param("now") LocalDateTime now);
+    
+    // 批量移入回收站：回收站中的物理路径是 回收站目录/ID
+    @Modifying
+    @Query("update File f set f.deletedAt = :now, f.filePath = concat(:trashPrefix, str(f.id)), f.updatedAt = :now "
+            + "where f.id in :ids")
+    int trashAll(@Param("ids") Collection<Long> ids, @Param("trashPrefix") String trashPrefix, @Param("now") LocalDateTime now);
+    
+    // 打包存储：每个打包文件中仍被引用的条目数和字节数（回收站中的文件也算），以及按偏移排列的条目
+    @Query("select f.packId as packId, count(f) as entries, sum(f.packLength) as liveBytes from File f "
+            + "where f.packId is not null group by f.packId")
+    List<PackUsage> findPackUsage();
+    
+    @Query("select f.id as id, f.packOffset as packOffset, f.packLength as packLength from File f "
+            + "where f.packId = :packId order by f.packOffset")
+    List<PackEntryNode> findPackEntries(@Param("packId") Long packId);
+    
+    // 按主键查询当前的打包位置（不经过二级缓存）
+    @Query("select f.id as id, f.packId as packId, f.packOffset as packOffset, f.packLength as packLength from File f "
+            + "where f.id = :id")
+    Optional<PackEntryNode> findPackLocation(@Param("id") Long id);
+    
+    // 压缩：一段连续区间整体复制到新的打包文件后，区间内的条目偏移相差同一个值
+    @Modifying
+    @Query("update File f set f.packId = :toPackId, f.packOffset = f.packOffset + :shift "
+            + "where f.packId = :fromPackId and f.packOffset >= :start and f.packOffset < :end")
+    int relocatePackRange(@Param("fromPackId") Long fromPackId, @Param("start") long start, @Param("end") long end,
+                          @Param("toPackId") Long toPackId, @Param("shift") long shift);
+    
+    // 按主键顺序分页扫描所有文件（后台任务使用）
+    List<File> findByIdGreaterThanAndIsFolderFalseOrderByIdAsc(Long id, Pageable pageable);
+    List<File> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+    
+    // 流式读取（导出、超大文件夹列表）：只向前读取，按 fetch size 分批拉取
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    @Query(FILE_DTO + "where f.user.id = :userId order by f.id")
+    Stream<FileDTO> streamListingByUser(@Param("userId") Long userId);
+    
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    @Query(FILE_DTO + "where f.user.id = :userId and f.parentId is null and f.deletedAt is null " + LISTING_ORDER)
+    Stream<FileDTO> streamRootListing(@Param("userId") Long userId);
+    
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    @Query(FILE_DTO + "where f.user.id = :userId and f.parentId = :parentId and f.deletedAt is null " + LISTING_ORDER)
+    Stream<FileDTO> streamFolderListing(@Param("userId") Long userId, @Param("parentId") Long parentId);
+    
+    // 子树查询：递归 CTE 逐层沿 parent_id 向下展开（H2 和 MySQL 8 通用），回收站中的项目及其后代不展开。
+    // 结果按层级排序，截断时保留的总是完整的上层。递归部分显式使用 parent_id 索引（H2 和 MySQL 都支持 USE INDEX），
+    // 否则 H2 会因 deleted_at is null 选择 deleted_at 索引，每一层都扫描整张表
+    String TREE_COLUMNS = "id, file_name, file_type, file_size, uploaded_at, is_folder, parent_id, path, depth";
+    String TREE_FILTER = "f.deleted_at is null and (f.is_folder = true or :foldersOnly = false)";
+    String TREE_CHILDREN = "select f.id, f.file_name, f.file_type, f.file_size, f.uploaded_at, f.is_folder, f.parent_id, f.path, t.depth + 1 "
+            + "from files f use index (idx_files_parent_id) join tree t on f.parent_id = t.id where t.depth < :depth and " + TREE_FILTER;
+    String TREE_SELECT = ") select id, file_name as fileName, file_type as fileType, file_size as fileSize, uploaded_at as uploadedAt, "
+            + "is_folder as isFolder, parent_id as parentId, path, depth from tree "
+            + "order by depth, is_folder desc, uploaded_at desc limit :limit";
+    
+    @Query(nativeQuery = true, value = "with recursive tree (" + TREE_COLUMNS + ") as ("
+            + "select f.id, f.file_name, f.file_type, f.file_size, f.uploaded_at, f.is_folder, f.parent_id, f.path, 1 "
+            + "from files f where f.user_id = :userId and f.parent_id is null and " + TREE_FILTER
+            + " union all " + TREE_CHILDREN + TREE_SELECT)
+    List<TreeRow> findRootTree(@Param("userId") Long userId, @Param("depth") int depth,
+                               @Param("foldersOnly") boolean foldersOnly, @Param("limit") int limit);
+    
+    @Query(nativeQuery = true, value = "with recursive tree (" + TREE_COLUMNS + ") as ("
+            + "select f.id, f.file_name, f.file_type, f.file_size, f.uploaded_at, f.is_folder, f.parent_id, f.path, 1 "
+            + "from files f where f.user_id = :userId and f.parent_id = :rootId and " + TREE_FILTER
+            + " union all " + TREE_CHILDREN + TREE_SELECT)
+    List<TreeRow> findFolderTree(@Param("userId") Long userId, @Param("rootId") Long rootId, @Param("depth") int depth,
+                                 @Param("foldersOnly") boolean foldersOnly, @Param("limit") int limit);
+    
+    // 用户的所有文件夹（只取层级相关的列），用于判断哪些文件夹位于回收站中、重新计算文件夹汇总
+    List<FolderNode> findByUserIdAndIsFolderTrue(Long userId);
+    
+    // 用户所有文件的大小（重新计算文件夹汇总和已用空间时使用）
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    @Query("select f.parentId as parentId, f.fileSize as fileSize, f.deletedAt as deletedAt "
+            + "from File f where f.user.id = :userId and f.isFolder = false")
+    Stream<FileSizeNode> streamSizesByUser(@Param("userId") Long userId);
+    
+    // 用户所有文件的类型和大小，用于重建存储分析汇总
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    @Query("select f.fileType as fileType, f.fileSize as fileSize from File f where f.user.id = :userId and f.isFolder = false")
+    Stream<FileTypeNode> streamTypesByUser(@Param("userId") Long userId);
+    
+    interface FolderNode {
+        Long getId();
+        Long getParentId();
+        LocalDateTime getDeletedAt();
+    }
+    
+    interface TreeRow {
+        Long getId();
+        String getFileName();
+        String getFileType();
+        Long getFileSize();
+        LocalDateTime getUploadedAt();
+        Boolean getIsFolder();
+        Long getParentId();
+        String getPath();
+        Integer getDepth();
+    }
+    
+    interface PackUsage {
+        Long getPackId();
+        Long getEntries();
+        Long getLiveBytes();
+    }
+    
+    interface PackEntryNode {
+        Long getId();
+        Long getPackId();
+        Long getPackOffset();
+        Long getPackLength();
+    }
+    
+    interface NameNode {
+        String getFileName();
+        LocalDateTime getDeletedAt();
+    }
+    
+    interface FileTypeNode {
+        String getFileType();
+        Long getFileSize();
+    }
+    
+    interface FileSizeNode {
+        Long getParentId();
+        Long getFileSize();
+        LocalDateTime getDeletedAt();
+    }
     
-    // 查找指定用户、父文件夹和文件名的文件
-    Optional<File> findByUserAndParentIdAndFileName(User user, Long parentId, String fileName);
+    // 给定的物理路径中，数据库里存在记录的那些
+    @Query("select f.filePath from File f where f.filePath in :paths")
+    List<String> findExistingFilePaths(@Param("paths") Collection<String> paths);
 }
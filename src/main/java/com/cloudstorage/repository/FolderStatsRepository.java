@@ -0,0 +1,20 @@
+package com.cloudstorage.repository;
+
+import com.cloudstorage.model.FolderStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+
+@Repository
+public interface FolderStatsRepository extends JpaRepository<FolderStats, Long> {
+    
+    // 原子增量更新一组文件夹（通常是某个文件夹及其所有上级）
+    @Modifying
+    @Query("update FolderStats s set s.totalBytes = s.totalBytes + :bytes, s.fileCount = s.fileCount + :files "
+            + "where s.folderId in :folderIds")
+    int adjust(@Param("folderIds") Collection<Long> folderIds, @Param("bytes") long bytes, @Param("files") long files);
+}
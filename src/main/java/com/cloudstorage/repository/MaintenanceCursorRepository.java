@@ -0,0 +1,9 @@
+package com.cloudstorage.repository;
+
+import com.cloudstorage.model.MaintenanceCursor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface MaintenanceCursorRepository extends JpaRepository<MaintenanceCursor, String> {
+}
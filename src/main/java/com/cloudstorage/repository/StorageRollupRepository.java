@@ -0,0 +1,52 @@
+package com.cloudstorage.repository;
+
+import com.cloudstorage.dto.RollupEntryDTO;
+import com.cloudstorage.model.RollupDimension;
+import com.cloudstorage.model.StorageRollup;
+import com.cloudstorage.model.StorageRollupId;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface StorageRollupRepository extends JpaRepository<StorageRollup, StorageRollupId> {
+    
+    String ROLLUP_ENTRY = "select new com.cloudstorage.dto.RollupEntryDTO(";
+    
+    // 原子累加，返回 0 表示记录还不存在
+    @Modifying
+    @Query("update StorageRollup r set r.bytes = r.bytes + :bytes, r.files = r.files + :files "
+            + "where r.id.userId = :userId and r.id.dimension = :dimension and r.id.bucket = :bucket")
+    int increment(@Param("userId") Long userId, @Param("dimension") RollupDimension dimension,
+                  @Param("bucket") String bucket, @Param("bytes") long bytes, @Param("files") long files);
+    
+    @Query(ROLLUP_ENTRY + "r.id.bucket, r.bytes, r.files) from StorageRollup r "
+            + "where r.id.userId = :userId and r.id.dimension = :dimension and r.id.bucket >= :from order by r.id.bucket")
+    List<RollupEntryDTO> findByUser(@Param("userId") Long userId, @Param("dimension") RollupDimension dimension,
+                                    @Param("from") String from);
+    
+    // 全局汇总：在汇总表上按维度取值分组
+    @Query(ROLLUP_ENTRY + "r.id.bucket, sum(r.bytes), sum(r.files)) from StorageRollup r "
+            + "where r.id.dimension = :dimension and r.id.bucket >= :from group by r.id.bucket order by r.id.bucket")
+    List<RollupEntryDTO> findGlobal(@Param("dimension") RollupDimension dimension, @Param("from") String from);
+    
+    // 指定日期以来净增长最多的用户
+    @Query(ROLLUP_ENTRY + "concat(r.id.userId, ''), sum(r.bytes), sum(r.files)) from StorageRollup r "
+            + "where r.id.dimension = com.cloudstorage.model.RollupDimension.DAY and r.id.bucket >= :from "
+            + "group by r.id.userId order by sum(r.bytes) desc")
+    List<RollupEntryDTO> findTopGrowth(@Param("from") String from, Pageable pageable);
+    
+    @Modifying
+    @Query("delete from StorageRollup r where r.id.userId = :userId and r.id.dimension in :dimensions")
+    int deleteByUser(@Param("userId") Long userId, @Param("dimensions") Collection<RollupDimension> dimensions);
+    
+    @Modifying
+    @Query("delete from StorageRollup r where r.id.dimension = com.cloudstorage.model.RollupDimension.DAY and r.id.bucket < :before")
+    int deleteDaysBefore(@Param("before") String before);
+}
@@ -2,14 +2,26 @@ package com.cloudstorage.repository;
 
 import com.cloudstorage.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
+    // 每个请求都会按用户名查询用户（JWT 过滤器 + 控制器），使用查询缓存
+    @QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.CACHEABLE, value = "true"))
     Optional<User> findByUsername(String username);
     Optional<User> findByEmail(String email);
     boolean existsByUsername(String username);
     boolean existsByEmail(String email);
+    
+    // 退出登录：只修改版本列，不用合并整个实体覆盖并发的其他修改
+    @Modifying
+    @Query("update User u set u.tokenVersion = coalesce(u.tokenVersion, 0) + 1 where u.id = :id")
+    int incrementTokenVersion(@Param("id") Long id);
 }
@@ -0,0 +1,33 @@
+package com.cloudstorage.repository;
+
+import com.cloudstorage.model.UserStorage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.Optional;
+
+@Repository
+public interface UserStorageRepository extends JpaRepository<UserStorage, Long> {
+    
+    // 条件更新：只有不超过配额时才增加已用空间，返回 0 表示超出配额（或记录不存在）
+    @Modifying
+    @Query("update UserStorage u set u.usedBytes = u.usedBytes + :bytes, u.fileCount = u.fileCount + :files "
+            + "where u.userId = :userId and (:bytes <= 0 or u.usedBytes + :bytes <= coalesce(u.quotaBytes, :defaultQuota))")
+    int reserve(@Param("userId") Long userId, @Param("bytes") long bytes, @Param("files") long files,
+                @Param("defaultQuota") long defaultQuota);
+    
+    @Modifying
+    @Query("update UserStorage u set u.usedBytes = u.usedBytes + :bytes, u.fileCount = u.fileCount + :files "
+            + "where u.userId = :userId")
+    int adjust(@Param("userId") Long userId, @Param("bytes") long bytes, @Param("files") long files);
+    
+    // 重新计算时锁定，期间该用户的上传在配额预占处等待
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select u from UserStorage u where u.userId = :userId")
+    Optional<UserStorage> lockById(@Param("userId") Long userId);
+}
@@ -0,0 +1,637 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.dto.FileDTO;
+import com.cloudstorage.model.File;
+import com.cloudstorage.model.FolderStats;
+import com.cloudstorage.model.User;
+import com.cloudstorage.repository.FileRepository;
+import com.cloudstorage.util.Checksums;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端解压：把已上传的 ZIP / TAR（可带 gzip、bzip2 压缩）解压到与压缩包同名的新文件夹中。
+ * - 逐条目流式读取压缩包，不先解压到临时目录；文件夹层级通过内存中的 路径 → 文件夹 映射建立
+ * - 小条目读入内存后交给有界的写入线程池并行写盘（队列满时由读取线程自己写），大条目由读取线程直接流式写盘；
+ *   不超过打包阈值的条目由读取线程追加到打包文件（见 PackStorageService）
+ * - File 记录按批保存并刷新，使用 JDBC 批量插入；文件夹汇总、已用空间和分析数据在最后一次性更新
+ * - 条目数、总大小、单个条目大小、压缩比和目录深度都有上限，防止压缩炸弹；路径中的 .. 和绝对路径被忽略
+ */
+@Slf4j
+@Service
+public class ArchiveExtractor {
+
+    private static final int WRITE_BATCH = 500;
+
+    private final FileService fileService;
+    private final FileRepository fileRepository;
+    private final StorageUsageService storageUsageService;
+    private final StorageAnalyticsService storageAnalyticsService;
+    private final FileEncryptionService fileEncryptionService;
+    private final PackStorageService packStorageService;
+    private final FolderListingCache folderListingCache;
+    private final ClusterLeaseService clusterLeaseService;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor writers;
+    private final Counter entriesCounter;
+
+    @Value("${file.upload-dir:./uploads}")
+    private String uploadDir;
+
+    @Value("${archive.extract.max-entries:100000}")
+    private int maxEntries;
+
+    @Value("${archive.extract.max-total-bytes:10737418240}")
+    private long maxTotalBytes;
+
+    @Value("${archive.extract.max-entry-bytes:4294967296}")
+    private long maxEntryBytes;
+
+    // 解压后总大小与压缩包大小之比的上限
+    @Value("${archive.extract.max-ratio:100}")
+    private long maxRatio;
+
+    @Value("${archive.extract.max-depth:32}")
+    private int maxDepth;
+
+    // 不超过该大小的条目读入内存后并行写盘
+    @Value("${archive.extract.buffered-entry-bytes:1048576}")
+    private int bufferedEntryBytes;
+
+    public ArchiveExtractor(FileService fileService,
+                            FileRepository fileRepository,
+                            StorageUsageService storageUsageService,
+                            StorageAnalyticsService storageAnalyticsService,
+                            FileEncryptionService fileEncryptionService,
+                            PackStorageService packStorageService,
+                            FolderListingCache folderListingCache,
+                            ClusterLeaseService clusterLeaseService,
+                            EntityManager entityManager,
+                            TransactionTemplate transactionTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${archive.extract.threads:4}") int threads) {
+        this.fileService = fileService;
+        this.fileRepository = fileRepository;
+        this.storageUsageService = storageUsageService;
+        this.storageAnalyticsService = storageAnalyticsService;
+        this.fileEncryptionService = fileEncryptionService;
+        this.packStorageService = packStorageService;
+        this.folderListingCache = folderListingCache;
+        this.clusterLeaseService = clusterLeaseService;
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        // 所有解压请求共享，队列长度限制了内存中待写入的条目数
+        this.writers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 8), runnable -> {
+                    Thread thread = new Thread(runnable, "archive-extract");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.entriesCounter = meterRegistry.counter("archive.extracted.entries");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writers.shutdownNow();
+    }
+
+    @Data
+    public static class ExtractionResult {
+        private FileDTO folder;
+        private int files;
+        private int folders;
+        private long bytes;
+        // 被跳过的条目：链接、设备文件、非法路径、重复条目、加密条目
+        private int skipped;
+    }
+
+    /**
+     * 解压到 targetFolderId 下（为 null 时解压到压缩包所在的文件夹），新文件夹重名时自动改名。
+     * 条目先在事务之外写入 file.upload-dir/.tmp 下的暂存目录；全部写完后才在一个事务中持有目录树租约、
+     * 重新解析目标文件夹、选定名称、把暂存目录移到目标位置并保存记录，解压期间不阻塞同一用户的其他目录操作
+     */
+    public ExtractionResult extract(Long archiveId, Long targetFolderId, User user) throws IOException {
+        File archive = fileService.findOwnedFile(archiveId, user)
+                .filter(file -> !file.getIsFolder())
+                .orElseThrow(() -> new IOException("文件不存在"));
+        Long parentId = targetFolderId != null ? targetFolderId : archive.getParentId();
+        resolveParent(parentId, user);
+
+        long archiveSize = archive.getFileSize() != null ? archive.getFileSize() : 0;
+        long byteLimit = Math.min(Math.min(maxTotalBytes, storageUsageService.remainingBytes(user.getId())),
+                Math.max(archiveSize, 1) * maxRatio);
+        String baseName = baseName(archive.getFileName());
+        Path staging = Files.createTempDirectory(fileService.tempDir(), "extract-");
+        Extraction extraction = new Extraction(user, byteLimit, staging);
+        boolean reserved = false;
+        try {
+            boolean encrypted = Boolean.TRUE.equals(archive.getEncrypted());
+            try (InputStream content = packStorageService.isPacked(archive) ? packStorageService.open(archive)
+                    : fileEncryptionService.open(Paths.get(archive.getFilePath()), user.getId(), encrypted);
+                 ArchiveInputStream in = openArchive(content)) {
+                extraction.run(in);
+            }
+            // 在保存记录的事务之外预占配额（独立事务），失败时在下面归还
+            storageUsageService.reserve(user, extraction.totalBytes, extraction.fileCount);
+            reserved = true;
+            return transactionTemplate.execute(status -> {
+                try {
+                    return extraction.save(parentId, baseName);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            cleanUp(extraction, reserved);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            cleanUp(extraction, reserved);
+            throw e;
+        } finally {
+            // 记录已提交或已放弃，打包文件中的条目不再计为未结束的写入
+            extraction.packed.forEach(packStorageService::release);
+        }
+    }
+
+    // 失败时不留下解压了一半的文件：记录已回滚，暂存目录（或已移到目标位置的目录）整体删除，归还预占的配额
+    private void cleanUp(Extraction extraction, boolean reserved) throws IOException {
+        extraction.cancel();
+        fileService.deleteTree(extraction.movedTo != null ? extraction.movedTo : extraction.staging);
+        if (reserved) {
+            storageUsageService.adjustUser(extraction.user.getId(), -extraction.totalBytes, -extraction.fileCount);
+        }
+    }
+
+    // 目标文件夹的逻辑路径（带结尾的 /），根目录为 /；不存在或不是文件夹时抛出 IOException
+    private String resolveParent(Long parentId, User user) throws IOException {
+        if (parentId == null) {
+            return "/";
+        }
+        Optional<File> parent = fileService.findOwnedFile(parentId, user);
+        if (!parent.isPresent() || !parent.get().getIsFolder()) {
+            throw new IOException("目标文件夹不存在");
+        }
+        return parent.get().getPath() + "/";
+    }
+
+    private ArchiveInputStream openArchive(InputStream content) throws IOException {
+        InputStream in = new BufferedInputStream(content, 64 * 1024);
+        try {
+            String compressor = CompressorStreamFactory.detect(in);
+            in = new BufferedInputStream(new CompressorStreamFactory().createCompressorInputStream(compressor, in), 64 * 1024);
+        } catch (CompressorException e) {
+            // 没有外层压缩
+        }
+        String format;
+        try {
+            format = ArchiveStreamFactory.detect(in);
+        } catch (ArchiveException e) {
+            throw new IOException("无法识别的压缩包格式，仅支持 ZIP 和 TAR");
+        }
+        if (ArchiveStreamFactory.ZIP.equals(format)) {
+            // 允许带数据描述符的 STORED 条目（部分工具流式生成的 ZIP）
+            return new ZipArchiveInputStream(in, StandardCharsets.UTF_8.name(), true, true);
+        }
+        if (ArchiveStreamFactory.TAR.equals(format)) {
+            return new TarArchiveInputStream(in, StandardCharsets.UTF_8.name());
+        }
+        throw new IOException("不支持的压缩包格式: " + format);
+    }
+
+    private static String baseName(String fileName) {
+        String lower = fileName.toLowerCase();
+        for (String extension : new String[] {".tar.gz", ".tar.bz2", ".tgz", ".zip", ".tar"}) {
+            if (lower.endsWith(extension) && lower.length() > extension.length()) {
+                return fileName.substring(0, fileName.length() - extension.length());
+            }
+        }
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName + " (extracted)";
+    }
+
+    /**
+     * 条目路径规范化：统一分隔符，去掉 . 段；绝对路径（/ 开头或带盘符）、含 .. 或为空时返回 null
+     */
+    private static String normalize(String entryName) {
+        String name = entryName.replace('\\', '/');
+        if (name.startsWith("/") || (name.length() >= 2 && name.charAt(1) == ':' && Character.isLetter(name.charAt(0)))) {
+            return null;
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : name.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..") || segment.indexOf('\0') >= 0) {
+                return null;
+            }
+            segments.add(segment);
+        }
+        return segments.isEmpty() ? null : String.join("/", segments);
+    }
+
+    private static boolean isRegularEntry(ArchiveEntry entry) {
+        if (entry instanceof TarArchiveEntry) {
+            return ((TarArchiveEntry) entry).isFile();
+        }
+        if (entry instanceof ZipArchiveEntry) {
+            // 流式读取 ZIP 时拿不到中央目录中的属性，链接通常会被当作内容为目标路径的普通文件
+            return !((ZipArchiveEntry) entry).isUnixSymlink();
+        }
+        return true;
+    }
+
+    private static class PendingFile {
+        private final File file;
+        private final Future<String> checksum;
+
+        PendingFile(File file, Future<String> checksum) {
+            this.file = file;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * 一次解压的状态，只在请求线程中使用（写入线程只负责写盘和计算校验和）。
+     * 写入阶段的记录还没有主键，逻辑路径相对于解压根目录、物理路径位于暂存目录，上级关系保存在 parents 中；
+     * 保存时再补上上级ID并改为最终路径
+     */
+    private class Extraction {
+
+        private final User user;
+        private final long byteLimit;
+        private final Long encryptFor;
+        private final Path staging;
+        // 压缩包内的目录路径 → 文件夹（按创建顺序，上级总在下级之前），"" 为解压根目录
+        private final Map<String, File> folders = new LinkedHashMap<>();
+        private final Set<String> filePaths = new HashSet<>();
+        // 文件或文件夹 → 所在的文件夹，解压根目录不在其中
+        private final Map<File, File> parents = new IdentityHashMap<>();
+        private final Map<File, long[]> folderTotals = new IdentityHashMap<>();
+        private final List<PendingFile> pending = new ArrayList<>();
+        private final List<File> written = new ArrayList<>();
+        // 追加到打包文件的条目，结束后释放
+        private final List<File> packed = new ArrayList<>();
+        private Path movedTo;
+        private int entries;
+        private int fileCount;
+        private int skipped;
+        private long totalBytes;
+
+        Extraction(User user, long byteLimit, Path staging) {
+            this.user = user;
+            this.byteLimit = byteLimit;
+            this.staging = staging;
+            this.encryptFor = fileEncryptionService.isEnabled() ? user.getId() : null;
+            File root = newFolder("", staging);
+            folders.put("", root);
+            folderTotals.put(root, new long[2]);
+        }
+
+        void run(ArchiveInputStream in) throws IOException {
+            ArchiveEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (++entries > maxEntries) {
+                    throw new IOException("压缩包中的条目超过上限 " + maxEntries);
+                }
+                String path = normalize(entry.getName());
+                if (path == null || !in.canReadEntryData(entry)) {
+                    skipped++;
+                    continue;
+                }
+                if (path.split("/").length > maxDepth) {
+                    throw new IOException("压缩包中的目录层级超过上限 " + maxDepth);
+                }
+                if (entry.isDirectory()) {
+                    if (ensureFolder(path) == null) {
+                        skipped++;
+                    }
+                    continue;
+                }
+                if (!isRegularEntry(entry) || folders.containsKey(path) || !filePaths.add(path)) {
+                    skipped++;
+                    continue;
+                }
+                int slash = path.lastIndexOf('/');
+                File parent = ensureFolder(slash < 0 ? "" : path.substring(0, slash));
+                if (parent == null) {
+                    skipped++;
+                    continue;
+                }
+                extractFile(in, parent, path.substring(slash + 1));
+                if (pending.size() >= WRITE_BATCH) {
+                    awaitPending();
+                }
+            }
+            awaitPending();
+        }
+
+        private void extractFile(InputStream in, File parent, String fileName) throws IOException {
+            long limit = Math.min(maxEntryBytes, byteLimit - totalBytes);
+            LimitedInputStream content = new LimitedInputStream(in, limit);
+            Path target = Paths.get(parent.getFilePath(), fileName);
+
+            File file = new File();
+            file.setFileName(fileName);
+            String contentType = URLConnection.guessContentTypeFromName(fileName);
+            file.setFileType(contentType != null ? contentType : "application/octet-stream");
+            file.setFilePath(target.toString());
+            file.setIsFolder(false);
+            file.setPath(parent.getPath() + "/" + fileName);
+            file.setUser(user);
+            file.setEncrypted(encryptFor != null);
+            parents.put(file, parent);
+
+            // 先读入至多 bufferedEntryBytes + 1 字节，能完整放下的交给写入线程，否则由当前线程继续流式写入
+            byte[] head = content.readNBytes(bufferedEntryBytes + 1);
+            Future<String> checksum;
+            long size;
+            if (head.length <= bufferedEntryBytes && packStorageService.accepts(head.length)) {
+                size = head.length;
+                MessageDigest digest = Checksums.newDigest();
+                digest.update(head);
+                packStorageService.store(file, new ByteArrayInputStream(head), encryptFor);
+                packed.add(file);
+                checksum = CompletableFuture.completedFuture(Checksums.toHex(digest));
+            } else if (head.length <= bufferedEntryBytes) {
+                size = head.length;
+                checksum = writers.submit(() -> write(target, head, null));
+            } else {
+                String digest = write(target, head, content);
+                size = content.count;
+                checksum = CompletableFuture.completedFuture(digest);
+            }
+            file.setFileSize(size);
+            totalBytes += size;
+            fileCount++;
+            entriesCounter.increment();
+            pending.add(new PendingFile(file, checksum));
+        }
+
+        // 写入一个条目并返回明文的校验和；rest 不为 null 时在 head 之后继续写入 rest 的剩余内容
+        private String write(Path target, byte[] head, InputStream rest) throws IOException {
+            MessageDigest digest = Checksums.newDigest();
+            OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            if (encryptFor != null) {
+                out = fileEncryptionService.encrypt(out, encryptFor);
+            }
+            try (OutputStream stream = new DigestOutputStream(out, digest)) {
+                stream.write(head);
+                if (rest != null) {
+                    rest.transferTo(stream);
+                }
+            }
+            return Checksums.toHex(digest);
+        }
+
+        /**
+         * 目录路径对应的文件夹，不存在时逐级创建；路径与已有的文件冲突时返回 null
+         */
+        private File ensureFolder(String path) throws IOException {
+            File folder = folders.get(path);
+            if (folder != null) {
+                return folder;
+            }
+            if (filePaths.contains(path)) {
+                return null;
+            }
+            int slash = path.lastIndexOf('/');
+            File parent = ensureFolder(slash < 0 ? "" : path.substring(0, slash));
+            if (parent == null) {
+                return null;
+            }
+            String name = path.substring(slash + 1);
+            Path physicalPath = Paths.get(parent.getFilePath(), name);
+            Files.createDirectory(physicalPath);
+            folder = newFolder(name, physicalPath);
+            folder.setPath(parent.getPath() + "/" + name);
+            parents.put(folder, parent);
+            folders.put(path, folder);
+            folderTotals.put(folder, new long[2]);
+            return folder;
+        }
+
+        private File newFolder(String name, Path physicalPath) {
+            File folder = new File();
+            folder.setFileName(name);
+            folder.setFileType("folder");
+            folder.setFileSize(0L);
+            folder.setFilePath(physicalPath.toString());
+            folder.setUser(user);
+            folder.setIsFolder(true);
+            folder.setPath("");
+            return folder;
+        }
+
+        // 等待本批条目写盘完成，记下校验和
+        private void awaitPending() throws IOException {
+            for (PendingFile item : pending) {
+                item.file.setChecksum(await(item.checksum));
+                written.add(item.file);
+            }
+            pending.clear();
+        }
+
+        private String await(Future<String> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("解压被中断");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("写入文件失败: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        // 失败时取消尚未开始的写入，并等待进行中的写入结束，之后才能删除解压目录
+        void cancel() {
+            for (PendingFile item : pending) {
+                item.checksum.cancel(false);
+            }
+            for (PendingFile item : pending) {
+                try {
+                    item.checksum.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException | CancellationException e) {
+                    // 已在外层处理
+                }
+            }
+        }
+
+        /**
+         * 保存阶段（在事务中）：持有目录树租约，重新解析目标文件夹并选定名称，把暂存目录移到目标位置，
+         * 补上上级ID和最终路径后按批保存记录，再更新文件夹汇总、上级文件夹链和分析数据
+         */
+        ExtractionResult save(Long parentId, String baseName) throws IOException {
+            // 与重命名、移动等子树修改互斥（集群模式下跨节点）
+            clusterLeaseService.lockTree(user.getId());
+            // 解压之前读到的实体可能已过期（open-in-view 下整个请求共用一个持久化上下文），清空后重新读取
+            entityManager.clear();
+            String relativePath = resolveParent(parentId, user);
+            String name = fileService.uniqueName(user, parentId, baseName);
+            Path rootPath = Paths.get(uploadDir + "/" + user.getId() + "/" + relativePath.substring(1) + name);
+            if (Files.exists(rootPath)) {
+                throw new IOException("目标位置已存在同名文件");
+            }
+            Files.createDirectories(rootPath.getParent());
+            Files.move(staging, rootPath, StandardCopyOption.ATOMIC_MOVE);
+            movedTo = rootPath;
+
+            String stagingPrefix = staging.toString();
+            String pathPrefix = relativePath + name;
+            File root = folders.get("");
+            root.setFileName(name);
+            int unflushed = 0;
+            for (File folder : folders.values()) {
+                File parent = parents.get(folder);
+                folder.setParentId(parent != null ? parent.getId() : parentId);
+                relocate(folder, stagingPrefix, rootPath, pathPrefix);
+                // 主键由池化序列分配，save 时不会立即插入
+                fileRepository.save(folder);
+                if (++unflushed % WRITE_BATCH == 0) {
+                    entityManager.flush();
+                }
+            }
+            for (File file : written) {
+                file.setParentId(parents.get(file).getId());
+                relocate(file, stagingPrefix, rootPath, pathPrefix);
+                fileRepository.save(file);
+                // 刷新后清空持久化上下文，避免大量托管实体拖慢脏检查
+                if (++unflushed % WRITE_BATCH == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+            entityManager.flush();
+            entityManager.clear();
+
+            for (File file : written) {
+                long size = file.getFileSize();
+                for (File folder = parents.get(file); folder != null; folder = parents.get(folder)) {
+                    long[] totals = folderTotals.get(folder);
+                    totals[0] += size;
+                    totals[1]++;
+                }
+                storageAnalyticsService.recordAdded(user.getId(), file.getFileType(), size);
+            }
+            List<FolderStats> stats = new ArrayList<>();
+            folderTotals.forEach((folder, totals) -> stats.add(new FolderStats(folder.getId(), totals[0], totals[1])));
+            storageUsageService.initFolders(stats);
+            storageUsageService.adjustFolders(fileService.folderChain(parentId), totalBytes, fileCount);
+            folderListingCache.evict(user.getId(), parentId);
+
+            ExtractionResult result = new ExtractionResult();
+            result.setFolder(FileDTO.from(root));
+            result.setFiles(fileCount);
+            result.setFolders(folders.size());
+            result.setBytes(totalBytes);
+            result.setSkipped(skipped);
+            return result;
+        }
+
+        // 暂存目录中的物理路径和相对于解压根目录的逻辑路径改为最终位置
+        private void relocate(File item, String stagingPrefix, Path rootPath, String pathPrefix) {
+            item.setFilePath(rootPath + item.getFilePath().substring(stagingPrefix.length()));
+            item.setPath(pathPrefix + item.getPath());
+        }
+    }
+
+    /**
+     * 读取超过 limit 字节时抛出异常，用于限制单个条目和解压总量
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                check(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                check(n);
+            }
+            return n;
+        }
+
+        private void check(int n) throws IOException {
+            count += n;
+            if (count > limit) {
+                throw new IOException("解压后的数据量超出限制（单个文件、总大小、压缩比或剩余配额）");
+            }
+        }
+
+        @Override
+        public void close() {
+            // 不关闭压缩包流，后续条目还要继续读取
+        }
+    }
+}
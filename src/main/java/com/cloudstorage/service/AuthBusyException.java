@@ -0,0 +1,17 @@
+package com.cloudstorage.service;
+
+import lombok.Getter;
+
+/**
+ * 密码哈希线程池已满或排队超时，对应 503 + Retry-After
+ */
+@Getter
+public class AuthBusyException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public AuthBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
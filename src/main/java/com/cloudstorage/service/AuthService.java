@@ -0,0 +1,209 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.config.JwtUtil;
+import com.cloudstorage.dto.AuthResponse;
+import com.cloudstorage.model.User;
+import com.cloudstorage.repository.UserRepository;
+import com.cloudstorage.util.Checksums;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 登录、注册和令牌刷新。
+ * - BCrypt 哈希在有界线程池（auth.hash.threads，默认等于 CPU 核数）上执行，不占用 Tomcat 线程；
+ *   队列（auth.hash.queue-capacity）满时立即拒绝，排队超过 auth.hash.queue-timeout-ms 的任务不再执行（客户端多半已超时），
+ *   都返回 503 + Retry-After。部署后的集中登录最多占满哈希线程，其他请求不受影响
+ * - 刷新令牌只校验签名、密码指纹和令牌版本（用户按用户名查询命中查询缓存），不计算 BCrypt，客户端在访问令牌过期前后用它续期；
+ *   退出登录时令牌版本加一，该用户之前签发的刷新令牌全部失效（访问令牌无状态，在过期前仍然有效）
+ * 指标：auth.hash（哈希耗时，按 op）、auth.hash.queue.wait（排队时间）、auth.hash.rejected（按 reason）、auth.refreshed
+ */
+@Slf4j
+@Service
+public class AuthService {
+
+    private final UserRepository userRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final JwtUtil jwtUtil;
+    private final ClusterEventBus clusterEventBus;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor hashers;
+    private final long queueTimeoutNanos;
+    private final long retryAfterSeconds;
+
+    private final Timer queueWaitTimer;
+    private final Counter rejectedQueueFull;
+    private final Counter rejectedQueueTimeout;
+    private final Counter refreshedCounter;
+
+    // 用户不存在时也比较一次哈希，响应时间不会暴露用户名是否存在；启动时计算，不在请求线程上执行 BCrypt
+    private final String dummyHash;
+
+    public AuthService(UserRepository userRepository,
+                       PasswordEncoder passwordEncoder,
+                       JwtUtil jwtUtil,
+                       ClusterEventBus clusterEventBus,
+                       MeterRegistry meterRegistry,
+                       @Value("${auth.hash.threads:0}") int threads,
+                       @Value("${auth.hash.queue-capacity:64}") int queueCapacity,
+                       @Value("${auth.hash.queue-timeout-ms:2000}") long queueTimeoutMs,
+                       @Value("${auth.hash.retry-after-seconds:2}") long retryAfterSeconds) {
+        this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.jwtUtil = jwtUtil;
+        this.clusterEventBus = clusterEventBus;
+        this.meterRegistry = meterRegistry;
+        // 0 表示与 CPU 核数相同：BCrypt 是纯计算，更多线程只会增加排队
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs);
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.hashers = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(queueCapacity, 1)), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("auth.hash.active", hashers, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+        Gauge.builder("auth.hash.queued", hashers, executor -> executor.getQueue().size()).register(meterRegistry);
+        this.queueWaitTimer = meterRegistry.timer("auth.hash.queue.wait");
+        this.rejectedQueueFull = meterRegistry.counter("auth.hash.rejected", "reason", "queue_full");
+        this.rejectedQueueTimeout = meterRegistry.counter("auth.hash.rejected", "reason", "queue_timeout");
+        this.refreshedCounter = meterRegistry.counter("auth.refreshed");
+        this.dummyHash = passwordEncoder.encode("dummy-password-for-unknown-users");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hashers.shutdownNow();
+    }
+
+    /**
+     * 校验用户名和密码，成功时签发访问令牌和刷新令牌。
+     * 用户查询在调用线程上执行，BCrypt 比较在哈希线程池上执行；密码错误时以 BadCredentialsException 完成，繁忙时以 AuthBusyException 完成
+     */
+    public CompletableFuture<AuthResponse> login(String username, String password) {
+        Optional<User> user = username != null ? userRepository.findByUsername(username) : Optional.empty();
+        String hash = user.map(User::getPassword).orElse(dummyHash);
+        String raw = password != null ? password : "";
+        return submit("matches", () -> passwordEncoder.matches(raw, hash)).thenApply(matched -> {
+            if (!matched || !user.isPresent()) {
+                throw new BadCredentialsException("用户名或密码错误");
+            }
+            return issue(user.get());
+        });
+    }
+
+    /**
+     * 用刷新令牌换取新的访问令牌和刷新令牌。令牌无效、已过期、已退出登录、用户不存在或密码已修改时抛出 BadCredentialsException
+     */
+    public AuthResponse refresh(String refreshToken) {
+        User user = verifyRefreshToken(refreshToken);
+        refreshedCounter.increment();
+        return issue(user);
+    }
+
+    /**
+     * 退出登录：令牌版本加一，该用户之前签发的刷新令牌（包括其他设备上的）全部失效。
+     * 刷新令牌无效时抛出 BadCredentialsException
+     */
+    @Transactional
+    public void logout(String refreshToken) {
+        User user = verifyRefreshToken(refreshToken);
+        userRepository.incrementTokenVersion(user.getId());
+        // 批量 UPDATE 只清空本地的缓存区域，其他节点按实体驱逐
+        clusterEventBus.publishEntities(User.class, Collections.singletonList(user.getId()));
+    }
+
+    private User verifyRefreshToken(String refreshToken) {
+        Claims claims = Optional.ofNullable(refreshToken)
+                .flatMap(jwtUtil::parseRefreshToken)
+                .orElseThrow(() -> new BadCredentialsException("刷新令牌无效或已过期"));
+        // 没有 ver 声明的是令牌版本上线前签发的，视为 0
+        Integer version = claims.get(JwtUtil.VERSION_CLAIM, Integer.class);
+        return userRepository.findByUsername(claims.getSubject())
+                .filter(found -> fingerprint(found.getPassword()).equals(claims.get(JwtUtil.PASSWORD_CLAIM)))
+                .filter(found -> tokenVersion(found) == (version != null ? version : 0))
+                .orElseThrow(() -> new BadCredentialsException("刷新令牌无效或已过期"));
+    }
+
+    /**
+     * 在哈希线程池上计算密码哈希（注册时使用），繁忙时以 AuthBusyException 完成。
+     * 后续的数据库操作应切换到其他线程池（thenApplyAsync），不要占用哈希线程
+     */
+    public CompletableFuture<String> encodePassword(String password) {
+        return submit("encode", () -> passwordEncoder.encode(password));
+    }
+
+    public AuthResponse issue(User user) {
+        return new AuthResponse(
+                jwtUtil.generateToken(user.getUsername()),
+                jwtUtil.generateRefreshToken(user.getUsername(), fingerprint(user.getPassword()), tokenVersion(user)),
+                user.getUsername(),
+                user.getEmail());
+    }
+
+    private static int tokenVersion(User user) {
+        return user.getTokenVersion() != null ? user.getTokenVersion() : 0;
+    }
+
+    // 密码哈希的指纹（哈希中含随机盐，修改密码后一定变化），写入刷新令牌
+    private static String fingerprint(String passwordHash) {
+        MessageDigest digest = Checksums.newDigest();
+        digest.update(passwordHash.getBytes(StandardCharsets.UTF_8));
+        return Checksums.toHex(digest).substring(0, 16);
+    }
+
+    private <T> CompletableFuture<T> submit(String op, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        Timer timer = meterRegistry.timer("auth.hash", "op", op);
+        try {
+            hashers.execute(() -> {
+                long waited = System.nanoTime() - queuedAt;
+                queueWaitTimer.record(waited, TimeUnit.NANOSECONDS);
+                if (waited > queueTimeoutNanos) {
+                    rejectedQueueTimeout.increment();
+                    future.completeExceptionally(busy());
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    future.complete(task.get());
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedQueueFull.increment();
+            future.completeExceptionally(busy());
+        }
+        return future;
+    }
+
+    private AuthBusyException busy() {
+        return new AuthBusyException("登录请求过多，请稍后重试", retryAfterSeconds);
+    }
+}
@@ -0,0 +1,556 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.dto.BulkRequest;
+import com.cloudstorage.dto.FileDTO;
+import com.cloudstorage.model.File;
+import com.cloudstorage.model.FolderStats;
+import com.cloudstorage.model.User;
+import com.cloudstorage.repository.FileRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 批量移动、删除和重命名：一个请求、一个事务处理多个项目，逐项返回结果。
+ * - 选中的项目按块一次查询加载；目标文件夹的上级链只取一次（祖先检查按目标做一次，而不是每个项目一次），
+ *   同名检查是每个目标文件夹一次 IN 查询，批次内部的重名也会被拒绝
+ * - 上级文件夹也被选中的项目：删除时随上级一起进入回收站，移动时报告失败；重命名先处理层级深的项目
+ * - 移动和删除对选中的项目执行按块的批量 UPDATE，文件夹汇总按原上级分组调整；文件夹的后代路径与单项操作一样逐层改写
+ * - 单个项目校验失败或物理移动失败只记为该项失败；数据库出错时整个事务回滚，已完成的物理移动按相反顺序移回
+ * 集群模式下每个目标名称仍需占用一次名称租约
+ */
+@Slf4j
+@Service
+public class BulkFileService {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final FileService fileService;
+    private final FileRepository fileRepository;
+    private final StorageUsageService storageUsageService;
+    private final FolderListingCache folderListingCache;
+    private final FileContentCache fileContentCache;
+    private final ClusterLeaseService clusterLeaseService;
+    private final ClusterEventBus clusterEventBus;
+    private final PackStorageService packStorageService;
+    private final EntityManager entityManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.upload-dir:./uploads}")
+    private String uploadDir;
+
+    @Value("${file.bulk.max-items:10000}")
+    private int maxItems;
+
+    public BulkFileService(FileService fileService,
+                           FileRepository fileRepository,
+                           StorageUsageService storageUsageService,
+                           FolderListingCache folderListingCache,
+                           FileContentCache fileContentCache,
+                           ClusterLeaseService clusterLeaseService,
+                           ClusterEventBus clusterEventBus,
+                           PackStorageService packStorageService,
+                           EntityManager entityManager,
+                           MeterRegistry meterRegistry) {
+        this.fileService = fileService;
+        this.fileRepository = fileRepository;
+        this.storageUsageService = storageUsageService;
+        this.folderListingCache = folderListingCache;
+        this.fileContentCache = fileContentCache;
+        this.clusterLeaseService = clusterLeaseService;
+        this.clusterEventBus = clusterEventBus;
+        this.packStorageService = packStorageService;
+        this.entityManager = entityManager;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Data
+    public static class BulkResult {
+        private int succeeded;
+        private int failed;
+        // 与请求中的顺序一致（重复的 ID 只保留一次）
+        private List<ItemResult> results = new ArrayList<>();
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class ItemResult {
+        private Long id;
+        private boolean success;
+        private String message;
+        // 成功时为操作后的项目
+        private FileDTO file;
+    }
+
+    /**
+     * 把选中的项目移动到 targetFolderId（为 null 时移动到根目录）。目标文件夹不存在时抛出 IOException，其余问题逐项报告
+     */
+    @Transactional(rollbackFor = IOException.class)
+    public BulkResult move(List<Long> ids, Long targetFolderId, User user) throws IOException {
+        Results results = new Results(checkIds(ids));
+        clusterLeaseService.lockTree(user.getId());
+        String pathPrefix = "/";
+        if (targetFolderId != null) {
+            File target = fileService.findOwnedFile(targetFolderId, user)
+                    .filter(File::getIsFolder)
+                    .orElseThrow(() -> new IOException("目标文件夹不存在"));
+            pathPrefix = target.getPath() + "/";
+        }
+        String filePathPrefix = userDir(user) + pathPrefix.substring(1);
+        // 目标及其所有上级：选中的文件夹在其中，就是要移动到它自己或它的子文件夹中
+        List<Long> targetChain = fileService.folderChain(targetFolderId);
+        Set<Long> targetAncestors = new LinkedHashSet<>(targetChain);
+
+        Map<Long, File> items = load(results, user);
+        Chains chains = new Chains();
+        List<File> candidates = new ArrayList<>();
+        for (File item : items.values()) {
+            if (targetAncestors.contains(item.getId())) {
+                results.fail(item.getId(), "不能将文件夹移动到它自己或它的子文件夹中");
+            } else if (chains.hasSelectedAncestor(item, items.keySet())) {
+                results.fail(item.getId(), "上级文件夹也在所选项目中");
+            } else if (Objects.equals(item.getParentId(), targetFolderId)) {
+                results.succeed(item, "已在目标文件夹中");
+            } else {
+                candidates.add(item);
+            }
+        }
+        List<File> accepted = claimNames(candidates, targetFolderId, File::getFileName, user, results,
+                "目标文件夹中已存在同名文件");
+
+        List<Path[]> moves = undoOnRollback();
+        List<File> moved = new ArrayList<>();
+        Files.createDirectories(Paths.get(filePathPrefix));
+        for (File item : accepted) {
+            Path oldPath = Paths.get(item.getFilePath());
+            Path newPath = Paths.get(filePathPrefix + item.getFileName());
+            // 打包存储的文件只修改记录
+            if (!packStorageService.isPacked(item)) {
+                try {
+                    Files.move(oldPath, newPath);
+                } catch (IOException e) {
+                    results.fail(item.getId(), "移动失败: " + e.getMessage());
+                    continue;
+                }
+                moves.add(new Path[] {oldPath, newPath});
+            }
+            fileContentCache.evict(oldPath);
+            moved.add(item);
+        }
+        if (moved.isEmpty()) {
+            return results.build();
+        }
+
+        // 从各个原上级的汇总中减去，合计加到目标及其上级
+        long[] total = adjustParents(moved, chains, user, -1);
+        storageUsageService.adjustFolders(targetChain, total[0], total[1]);
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> movedIds = idsOf(moved);
+        // 批量 UPDATE 不同步持久化上下文：先分离这些实体，再在内存中写入新值用于响应和后代路径改写
+        moved.forEach(entityManager::detach);
+        for (List<Long> chunk : chunks(movedIds)) {
+            fileRepository.moveAll(chunk, targetFolderId, pathPrefix, filePathPrefix, now);
+        }
+        clusterEventBus.publishEntities(File.class, movedIds);
+        Set<Long> oldParents = new LinkedHashSet<>();
+        for (File item : moved) {
+            oldParents.add(item.getParentId());
+            item.setParentId(targetFolderId);
+            item.setPath(pathPrefix + item.getFileName());
+            item.setFilePath(filePathPrefix + item.getFileName());
+            item.setUpdatedAt(now);
+            if (item.getIsFolder()) {
+                fileService.updateChildrenPaths(item, user);
+            }
+            results.succeed(item, "移动成功");
+        }
+        oldParents.forEach(parentId -> folderListingCache.evict(user.getId(), parentId));
+        folderListingCache.evict(user.getId(), targetFolderId);
+        meterRegistry.counter("file.bulk.items", "op", "move").increment(moved.size());
+        return results.build();
+    }
+
+    /**
+     * 把选中的项目移入回收站
+     */
+    @Transactional(rollbackFor = IOException.class)
+    public BulkResult delete(List<Long> ids, User user) throws IOException {
+        Results results = new Results(checkIds(ids));
+        clusterLeaseService.lockTree(user.getId());
+        Map<Long, File> items = load(results, user);
+        Chains chains = new Chains();
+        List<File> accepted = new ArrayList<>();
+        for (File item : items.values()) {
+            if (chains.hasSelectedAncestor(item, items.keySet())) {
+                results.succeed(item, "随上级文件夹一起删除");
+            } else {
+                accepted.add(item);
+            }
+        }
+
+        Path trashDir = fileService.trashDir(user);
+        Files.createDirectories(trashDir);
+        List<Path[]> moves = undoOnRollback();
+        List<File> trashed = new ArrayList<>();
+        for (File item : accepted) {
+            Path oldPath = Paths.get(item.getFilePath());
+            Path trashPath = trashDir.resolve(String.valueOf(item.getId()));
+            // 打包存储的文件没有对应的物理文件；物理文件已丢失时只标记删除
+            if (!packStorageService.isPacked(item) && Files.exists(oldPath)) {
+                try {
+                    Files.move(oldPath, trashPath, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    results.fail(item.getId(), "删除失败: " + e.getMessage());
+                    continue;
+                }
+                moves.add(new Path[] {oldPath, trashPath});
+            }
+            fileContentCache.evict(oldPath);
+            trashed.add(item);
+        }
+        if (trashed.isEmpty()) {
+            return results.build();
+        }
+
+        // 从上级文件夹的汇总中减去（用户已用空间在彻底删除时才释放）
+        adjustParents(trashed, chains, user, -1);
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> trashedIds = idsOf(trashed);
+        String trashPrefix = trashDir.toString() + trashDir.getFileSystem().getSeparator();
+        trashed.forEach(entityManager::detach);
+        for (List<Long> chunk : chunks(trashedIds)) {
+            fileRepository.trashAll(chunk, trashPrefix, now);
+        }
+        clusterEventBus.publishEntities(File.class, trashedIds);
+        Set<Long> parents = new LinkedHashSet<>();
+        for (File item : trashed) {
+            parents.add(item.getParentId());
+            item.setFilePath(trashPrefix + item.getId());
+            item.setDeletedAt(now);
+            item.setUpdatedAt(now);
+            results.succeed(item, "已移入回收站");
+        }
+        parents.forEach(parentId -> folderListingCache.evict(user.getId(), parentId));
+        meterRegistry.counter("file.bulk.items", "op", "delete").increment(trashed.size());
+        return results.build();
+    }
+
+    /**
+     * 逐项重命名。新名称只在各自的文件夹中检查重名；先处理层级深的项目，上级文件夹改名时后代路径随之改写
+     */
+    @Transactional(rollbackFor = IOException.class)
+    public BulkResult rename(List<BulkRequest.Rename> renames, User user) throws IOException {
+        if (renames == null) {
+            throw new IOException("请选择要重命名的项目");
+        }
+        Map<Long, String> newNames = new LinkedHashMap<>();
+        for (BulkRequest.Rename rename : renames) {
+            if (rename.getId() != null) {
+                newNames.putIfAbsent(rename.getId(), rename.getNewName());
+            }
+        }
+        Results results = new Results(checkIds(new ArrayList<>(newNames.keySet())));
+        clusterLeaseService.lockTree(user.getId());
+        Map<Long, File> items = load(results, user);
+
+        Map<Long, List<File>> byParent = new LinkedHashMap<>();
+        for (File item : items.values()) {
+            String newName = newNames.get(item.getId());
+            if (!isValidName(newName)) {
+                results.fail(item.getId(), "文件名无效");
+            } else if (newName.equals(item.getFileName())) {
+                results.succeed(item, "名称未改变");
+            } else {
+                byParent.computeIfAbsent(item.getParentId(), key -> new ArrayList<>()).add(item);
+            }
+        }
+        List<File> accepted = new ArrayList<>();
+        for (Map.Entry<Long, List<File>> entry : byParent.entrySet()) {
+            accepted.addAll(claimNames(entry.getValue(), entry.getKey(), item -> newNames.get(item.getId()), user, results,
+                    "同一文件夹中已存在同名文件"));
+        }
+        accepted.sort(Comparator.comparingInt((File item) -> depth(item.getPath())).reversed());
+
+        List<Path[]> moves = undoOnRollback();
+        Set<Long> parents = new LinkedHashSet<>();
+        int renamed = 0;
+        for (File item : accepted) {
+            String newName = newNames.get(item.getId());
+            Path oldPath = Paths.get(item.getFilePath());
+            Path newPath = oldPath.getParent().resolve(newName);
+            if (!packStorageService.isPacked(item)) {
+                try {
+                    Files.move(oldPath, newPath);
+                } catch (IOException e) {
+                    results.fail(item.getId(), "重命名失败: " + e.getMessage());
+                    continue;
+                }
+                moves.add(new Path[] {oldPath, newPath});
+            }
+            fileContentCache.evict(oldPath);
+
+            // 各项的新值不同，由脏检查生成 UPDATE（JDBC 批量执行）
+            item.setFileName(newName);
+            item.setFilePath(newPath.toString());
+            item.setPath(item.getPath().substring(0, item.getPath().lastIndexOf('/') + 1) + newName);
+            if (item.getIsFolder()) {
+                fileService.updateChildrenPaths(item, user);
+            }
+            parents.add(item.getParentId());
+            renamed++;
+        }
+        entityManager.flush();
+        for (File item : accepted) {
+            if (results.isPending(item.getId())) {
+                results.succeed(item, "重命名成功");
+            }
+        }
+        parents.forEach(parentId -> folderListingCache.evict(user.getId(), parentId));
+        meterRegistry.counter("file.bulk.items", "op", "rename").increment(renamed);
+        return results.build();
+    }
+
+    private List<Long> checkIds(List<Long> ids) throws IOException {
+        List<Long> distinct = ids == null ? new ArrayList<>()
+                : ids.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        if (distinct.isEmpty()) {
+            throw new IOException("请选择要操作的项目");
+        }
+        if (distinct.size() > maxItems) {
+            throw new IOException("一次最多处理 " + maxItems + " 项");
+        }
+        return distinct;
+    }
+
+    // 按主键分块加载选中的项目；不存在、不属于该用户或已在回收站中的记为失败
+    private Map<Long, File> load(Results results, User user) {
+        Map<Long, File> found = new HashMap<>();
+        for (List<Long> chunk : chunks(results.ids())) {
+            for (File file : fileRepository.findAllById(chunk)) {
+                if (file.getUser().getId().equals(user.getId()) && file.getDeletedAt() == null) {
+                    found.put(file.getId(), file);
+                }
+            }
+        }
+        // 与单项操作的 findOwnedFile 一致：位于回收站中的文件夹下的项目不可见（按上级文件夹记忆，各查一次）
+        Map<Long, Boolean> trashedParents = new HashMap<>();
+        Map<Long, File> items = new LinkedHashMap<>();
+        for (Long id : results.ids()) {
+            File file = found.get(id);
+            if (file != null && file.getParentId() != null && trashedParents.computeIfAbsent(file.getParentId(),
+                    parentId -> fileRepository.findById(parentId).map(fileService::isInTrash).orElse(true))) {
+                file = null;
+            }
+            if (file != null) {
+                items.put(id, file);
+            } else {
+                results.fail(id, "文件不存在");
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 为同一文件夹下的一组项目占用新名称：先占用名称租约（集群模式），再一次查询已存在的同名项目。
+     * 比较不区分大小写（与 MySQL 默认排序规则一致），批次内部的重名也算冲突
+     */
+    private List<File> claimNames(List<File> candidates, Long parentId, Function<File, String> nameOf,
+                                  User user, Results results, String conflictMessage) throws IOException {
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (File item : candidates) {
+            names.add(nameOf.apply(item));
+        }
+        for (String name : names) {
+            clusterLeaseService.lockName(user.getId(), parentId, name);
+        }
+        Set<String> taken = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (List<String> chunk : chunks(new ArrayList<>(names))) {
+            List<FileRepository.NameNode> existing = parentId == null
+                    ? fileRepository.findRootNamesIn(user.getId(), chunk)
+                    : fileRepository.findFolderNamesIn(user.getId(), parentId, chunk);
+            for (FileRepository.NameNode node : existing) {
+                if (node.getDeletedAt() == null) {
+                    taken.add(node.getFileName());
+                }
+            }
+        }
+        List<File> accepted = new ArrayList<>();
+        for (File item : candidates) {
+            if (taken.add(nameOf.apply(item))) {
+                accepted.add(item);
+            } else {
+                results.fail(item.getId(), conflictMessage);
+            }
+        }
+        return accepted;
+    }
+
+    // 按原上级分组调整文件夹汇总，文件夹的汇总一次查询取得；返回合计（未乘 sign）
+    private long[] adjustParents(List<File> items, Chains chains, User user, int sign) {
+        List<Long> folderIds = items.stream().filter(File::getIsFolder).map(File::getId).collect(Collectors.toList());
+        Map<Long, FolderStats> folderStats = folderIds.isEmpty() ? new HashMap<>()
+                : storageUsageService.folderStats(folderIds, user.getId());
+        Map<Long, long[]> byParent = new HashMap<>();
+        long[] total = new long[2];
+        for (File item : items) {
+            long bytes;
+            long files;
+            if (item.getIsFolder()) {
+                FolderStats stats = folderStats.get(item.getId());
+                bytes = stats.getTotalBytes();
+                files = stats.getFileCount();
+            } else {
+                bytes = item.getFileSize() != null ? item.getFileSize() : 0;
+                files = 1;
+            }
+            long[] sums = byParent.computeIfAbsent(item.getParentId(), key -> new long[2]);
+            sums[0] += bytes;
+            sums[1] += files;
+            total[0] += bytes;
+            total[1] += files;
+        }
+        byParent.forEach((parentId, sums) ->
+                storageUsageService.adjustFolders(chains.of(parentId), sign * sums[0], sign * sums[1]));
+        return total;
+    }
+
+    // 已完成的物理移动（原路径, 新路径），事务回滚时按相反顺序移回
+    private List<Path[]> undoOnRollback() {
+        List<Path[]> moves = new ArrayList<>();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_ROLLED_BACK) {
+                    return;
+                }
+                for (int i = moves.size() - 1; i >= 0; i--) {
+                    try {
+                        Files.move(moves.get(i)[1], moves.get(i)[0]);
+                    } catch (IOException e) {
+                        log.warn("回滚时移回文件失败: {} -> {}, {}", moves.get(i)[1], moves.get(i)[0], e.getMessage());
+                    }
+                }
+            }
+        });
+        return moves;
+    }
+
+    private String userDir(User user) {
+        return uploadDir + "/" + user.getId() + "/";
+    }
+
+    private static boolean isValidName(String name) {
+        return name != null && !name.isBlank() && !name.equals(".") && !name.equals("..")
+                && name.indexOf('/') < 0 && name.indexOf('\\') < 0;
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    private static List<Long> idsOf(List<File> items) {
+        return items.stream().map(File::getId).collect(Collectors.toList());
+    }
+
+    private static <T> List<List<T>> chunks(List<T> list) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < list.size(); from += CHUNK_SIZE) {
+            chunks.add(list.subList(from, Math.min(from + CHUNK_SIZE, list.size())));
+        }
+        return chunks;
+    }
+
+    // 文件夹的上级链（含自身），按文件夹缓存：同一文件夹下的项目只查一次
+    private class Chains {
+        private final Map<Long, List<Long>> chains = new HashMap<>();
+
+        List<Long> of(Long folderId) {
+            return chains.computeIfAbsent(folderId, fileService::folderChain);
+        }
+
+        boolean hasSelectedAncestor(File item, Collection<Long> selected) {
+            for (Long ancestor : of(item.getParentId())) {
+                if (selected.contains(ancestor)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // 逐项结果，按请求顺序输出
+    private static class Results {
+        private final Map<Long, ItemResult> results = new LinkedHashMap<>();
+
+        Results(List<Long> ids) {
+            ids.forEach(id -> results.put(id, null));
+        }
+
+        List<Long> ids() {
+            return new ArrayList<>(results.keySet());
+        }
+
+        boolean isPending(Long id) {
+            return results.get(id) == null;
+        }
+
+        void succeed(File item, String message) {
+            results.put(item.getId(), new ItemResult(item.getId(), true, message, FileDTO.from(item)));
+        }
+
+        void fail(Long id, String message) {
+            results.put(id, new ItemResult(id, false, message, null));
+        }
+
+        BulkResult build() {
+            BulkResult result = new BulkResult();
+            for (ItemResult item : results.values()) {
+                result.getResults().add(item);
+                if (item.isSuccess()) {
+                    result.setSucceeded(result.getSucceeded() + 1);
+                } else {
+                    result.setFailed(result.getFailed() + 1);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.model.ClusterEvent;
+import com.cloudstorage.repository.ClusterEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 跨节点缓存失效（集群模式）。不依赖外部消息中间件，通过数据库中的发件箱表传递：
+ * - 本地缓存失效时调用 publish，事务中的键合并后在提交后写入一条 cluster_events 记录
+ * - 每个节点按 ID 轮询其他节点写入的记录，交给订阅者在本地失效（失效是幂等的）
+ * - Hibernate 二级缓存：已缓存实体的更新、删除在提交后发布，其他节点逐个驱逐；任何插入都使其他节点的查询缓存失效
+ * 自增 ID 按插入顺序分配、按提交顺序可见，轮询时记录跳过的 ID，在 cluster.events.gap-timeout-ms 内继续补读。
+ * 获取租约后立即轮询一次：持有同一租约的上一个操作的失效消息已经写入，之后的读取不会命中旧缓存
+ */
+@Slf4j
+@Service
+public class ClusterEventBus {
+
+    public static final char LISTING = 'L';
+    public static final char CONTENT = 'C';
+    private static final char ENTITY = 'E';
+    private static final char QUERIES = 'Q';
+    private static final int KEYS_PER_EVENT = 1000;
+    private static final int POLL_PAGE = 200;
+    // 一次最多登记的 ID 空洞，更大的跳跃（如数据库重启后的自增跳跃）直接越过
+    private static final int MAX_GAP = 1000;
+
+    private final ClusterEventRepository eventRepository;
+    private final ClusterNodeRegistry nodeRegistry;
+    private final ClusterLeaseService leaseService;
+    private final EntityManagerFactory entityManagerFactory;
+    private final TransactionTemplate requiresNew;
+    private final Map<Character, Consumer<String>> subscribers = new ConcurrentHashMap<>();
+    private final Counter publishedCounter;
+    private final Counter appliedCounter;
+
+    // 轮询状态，只在 poll 中访问（定时任务，以及获取租约后的请求线程）
+    private long cursor;
+    private final Map<Long, Long> missing = new HashMap<>();
+    // 本节点写入的 ID，轮询不会读到，计算空洞时跳过
+    private final Set<Long> ownIds = ConcurrentHashMap.newKeySet();
+
+    @Value("${cluster.events.gap-timeout-ms:10000}")
+    private long gapTimeoutMs;
+
+    @Value("${cluster.events.retention-minutes:60}")
+    private long retentionMinutes;
+
+    public ClusterEventBus(ClusterEventRepository eventRepository,
+                           ClusterNodeRegistry nodeRegistry,
+                           ClusterLeaseService leaseService,
+                           EntityManagerFactory entityManagerFactory,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry) {
+        this.eventRepository = eventRepository;
+        this.nodeRegistry = nodeRegistry;
+        this.leaseService = leaseService;
+        this.entityManagerFactory = entityManagerFactory;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.publishedCounter = meterRegistry.counter("cluster.events.published");
+        this.appliedCounter = meterRegistry.counter("cluster.events.applied");
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!nodeRegistry.isEnabled()) {
+            return;
+        }
+        // 启动前的消息不需要处理，本地缓存是空的
+        cursor = eventRepository.findMaxId();
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        EntityCacheListener listener = new EntityCacheListener();
+        EventListenerRegistry registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, listener);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+        subscribe(ENTITY, this::evictEntity);
+        subscribe(QUERIES, key -> sessionFactory().getCache().evictQueryRegions());
+        leaseService.setAfterAcquire(this::poll);
+    }
+
+    /**
+     * 订阅一类失效消息，收到其他节点发出的消息时调用（只做本地失效，不能再发布）
+     */
+    public void subscribe(char type, Consumer<String> subscriber) {
+        subscribers.put(type, subscriber);
+    }
+
+    public boolean isEnabled() {
+        return nodeRegistry.isEnabled();
+    }
+
+    /**
+     * 发布一个失效键。在事务中时合并到提交后一次写入，回滚时丢弃（修改未生效）
+     */
+    public void publish(char type, String key) {
+        if (!nodeRegistry.isEnabled()) {
+            return;
+        }
+        String entry = type + key;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            write(List.of(entry));
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> pending = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            Set<String> keys = new LinkedHashSet<>();
+            pending = keys;
+            TransactionSynchronizationManager.bindResource(this, keys);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    write(new ArrayList<>(keys));
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ClusterEventBus.this);
+                }
+            });
+        }
+        pending.add(entry);
+    }
+
+    /**
+     * 批量 UPDATE 不经过持久化上下文，不会触发实体监听器（Hibernate 只在本地清空整个缓存区域），
+     * 由执行方发布被修改的实体，其他节点逐个驱逐
+     */
+    public void publishEntities(Class<?> entityClass, Collection<Long> ids) {
+        if (!nodeRegistry.isEnabled() || ids.isEmpty()) {
+            return;
+        }
+        for (Long id : ids) {
+            publish(ENTITY, entityClass.getName() + "#" + id);
+        }
+        publish(QUERIES, "");
+    }
+
+    private void write(List<String> keys) {
+        try {
+            for (int from = 0; from < keys.size(); from += KEYS_PER_EVENT) {
+                ClusterEvent event = new ClusterEvent();
+                event.setOrigin(nodeRegistry.getNodeId());
+                event.setPayload(String.join("\n", keys.subList(from, Math.min(from + KEYS_PER_EVENT, keys.size()))));
+                ClusterEvent saved = requiresNew.execute(status -> eventRepository.save(event));
+                ownIds.add(saved.getId());
+                publishedCounter.increment();
+            }
+        } catch (RuntimeException e) {
+            // 其他节点的缓存在各自的过期时间后恢复一致
+            log.warn("写入集群失效消息失败: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cluster.events.poll-interval-ms:1000}")
+    public synchronized void poll() {
+        if (!nodeRegistry.isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<ClusterEvent> events;
+        do {
+            events = requiresNew.execute(status -> missing.isEmpty()
+                    ? eventRepository.findAfter(cursor, nodeRegistry.getNodeId(), PageRequest.of(0, POLL_PAGE))
+                    : eventRepository.findAfterOrIn(cursor, missing.keySet(), nodeRegistry.getNodeId(), PageRequest.of(0, POLL_PAGE)));
+            for (ClusterEvent event : events) {
+                long id = event.getId();
+                if (id <= cursor) {
+                    // 之前跳过的 ID，事务提交较晚
+                    if (missing.remove(id) != null) {
+                        apply(event);
+                    }
+                    continue;
+                }
+                if (id - cursor - 1 <= MAX_GAP) {
+                    for (long gap = cursor + 1; gap < id; gap++) {
+                        if (!ownIds.remove(gap)) {
+                            missing.put(gap, now);
+                        }
+                    }
+                }
+                cursor = id;
+                apply(event);
+            }
+        } while (events.size() == POLL_PAGE);
+        // 本节点写入的 ID 紧接在游标之后时直接越过
+        while (ownIds.remove(cursor + 1)) {
+            cursor++;
+        }
+        ownIds.removeIf(id -> id <= cursor);
+        missing.values().removeIf(noticed -> now - noticed > gapTimeoutMs);
+    }
+
+    private void apply(ClusterEvent event) {
+        for (String entry : event.getPayload().split("\n")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            Consumer<String> subscriber = subscribers.get(entry.charAt(0));
+            if (subscriber == null) {
+                continue;
+            }
+            try {
+                subscriber.accept(entry.substring(1));
+            } catch (RuntimeException e) {
+                log.warn("处理集群失效消息失败: {}, {}", entry, e.getMessage());
+            }
+        }
+        appliedCounter.increment();
+    }
+
+    // 清理过期的消息，由一个节点执行
+    @Scheduled(fixedDelayString = "${cluster.events.prune-interval-ms:300000}")
+    public void prune() {
+        if (!nodeRegistry.isEnabled()) {
+            return;
+        }
+        leaseService.runExclusive("cluster-events-prune", () -> {
+            LocalDateTime before = LocalDateTime.now().minusMinutes(retentionMinutes);
+            Integer removed = requiresNew.execute(status -> eventRepository.deleteBefore(before));
+            log.debug("清理集群失效消息 {} 条", removed);
+        });
+    }
+
+    private SessionFactory sessionFactory() {
+        return entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    private void evictEntity(String key) {
+        int separator = key.lastIndexOf('#');
+        sessionFactory().getCache().evictEntityData(key.substring(0, separator), Long.valueOf(key.substring(separator + 1)));
+    }
+
+    /**
+     * 已缓存实体提交后的更新、删除发布为实体失效；插入只需要使查询缓存失效（其他节点不会缓存尚不存在的实体）
+     */
+    private class EntityCacheListener implements PostCommitUpdateEventListener, PostCommitDeleteEventListener,
+            PostCommitInsertEventListener {
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            publishEntity(event.getPersister(), event.getId());
+        }
+
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            publishEntity(event.getPersister(), event.getId());
+        }
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            if (event.getPersister().canWriteToCache()) {
+                publish(QUERIES, "");
+            }
+        }
+
+        private void publishEntity(EntityPersister persister, Serializable id) {
+            if (persister.canWriteToCache() && id instanceof Long) {
+                publish(ENTITY, persister.getEntityName() + "#" + id);
+                publish(QUERIES, "");
+            }
+        }
+
+        @Override
+        public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        }
+
+        @Override
+        public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        }
+
+        @Override
+        public void onPostInsertCommitFailed(PostInsertEvent event) {
+        }
+
+        @Override
+        public boolean requiresPostCommitHandling(EntityPersister persister) {
+            return persister.canWriteToCache();
+        }
+
+        // Hibernate 5.x 中仍是抽象方法，只转发到新方法
+        @Override
+        @Deprecated
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return requiresPostCommitHandling(persister);
+        }
+    }
+}
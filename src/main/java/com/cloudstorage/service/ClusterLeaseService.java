@@ -0,0 +1,241 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.model.ClusterLease;
+import com.cloudstorage.repository.ClusterLeaseRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据库租约，集群模式下用于：
+ * - 名称占用（同一文件夹下创建同名文件夹、上传同名文件），键为 用户 + 父文件夹 + 名称
+ * - 子树修改（重命名、移动、删除、恢复、复制、解压、彻底删除），每个用户一个键，跨节点串行执行
+ * - 后台任务（回收站清理、完整性校验、对账、重建汇总），同一时间只有一个节点执行
+ * 获取和释放都在独立事务中立即提交；持有期间定期续期，节点崩溃后租约在 cluster.lease.ttl-ms 后到期。
+ * 未开启集群模式时所有方法直接返回（任务直接执行）
+ */
+@Slf4j
+@Service
+public class ClusterLeaseService {
+
+    private final ClusterLeaseRepository leaseRepository;
+    private final ClusterNodeRegistry nodeRegistry;
+    private final EntityManager entityManager;
+    private final TransactionTemplate requiresNew;
+    private final AtomicLong sequence = new AtomicLong();
+    // 本节点持有的租约：持有者令牌 → 租约名，用于续期和关闭时释放
+    private final Map<String, String> held = new ConcurrentHashMap<>();
+    // 当前线程在事务中已持有的租约名，同一事务中重复获取时直接返回
+    private final ThreadLocal<Set<String>> heldByThread = ThreadLocal.withInitial(HashSet::new);
+    // 获取租约后执行，由 ClusterEventBus 注册为立即处理积压的失效消息
+    private volatile Runnable afterAcquire = () -> { };
+
+    @Value("${cluster.lease.ttl-ms:30000}")
+    private long ttlMs;
+
+    @Value("${cluster.lease.wait-ms:10000}")
+    private long waitMs;
+
+    // 释放后保留记录的时间，期间再次获取同名租约只需要一次 UPDATE
+    @Value("${cluster.lease.idle-retention-ms:3600000}")
+    private long idleRetentionMs;
+
+    public ClusterLeaseService(ClusterLeaseRepository leaseRepository,
+                               ClusterNodeRegistry nodeRegistry,
+                               EntityManager entityManager,
+                               PlatformTransactionManager transactionManager) {
+        this.leaseRepository = leaseRepository;
+        this.nodeRegistry = nodeRegistry;
+        this.entityManager = entityManager;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    // 占用 父文件夹 + 名称（名称不区分大小写，与 MySQL 默认排序规则一致）
+    public void lockName(Long userId, Long parentId, String name) throws IOException {
+        lockUntilCompletion("name:" + userId + ":" + parentId + ":"
+                + Integer.toHexString(name.toLowerCase(Locale.ROOT).hashCode()));
+    }
+
+    // 用户的目录树结构
+    public void lockTree(Long userId) throws IOException {
+        lockUntilCompletion("tree:" + userId);
+    }
+
+    /**
+     * 获取租约并持有到当前事务结束（提交或回滚后释放），等待超过 cluster.lease.wait-ms 时失败
+     */
+    public void lockUntilCompletion(String name) throws IOException {
+        if (!nodeRegistry.isEnabled() || heldByThread.get().contains(name)) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("租约需要在事务中获取: " + name);
+        }
+        String owner = acquire(name);
+        heldByThread.get().add(name);
+        afterAcquire.run();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                Set<String> names = heldByThread.get();
+                names.remove(name);
+                if (names.isEmpty()) {
+                    heldByThread.remove();
+                }
+                release(name, owner);
+            }
+        });
+    }
+
+    /**
+     * 上一个持有者在提交后、释放租约前写入失效消息，获取租约后先处理这些消息，
+     * 之后从本地缓存（包括二级缓存）读到的都是上一个持有者修改后的数据
+     */
+    public void setAfterAcquire(Runnable afterAcquire) {
+        this.afterAcquire = afterAcquire;
+    }
+
+    /**
+     * 后台任务：其他节点正在执行时跳过本次，返回是否执行了
+     */
+    public boolean runExclusive(String job, Runnable task) {
+        if (!nodeRegistry.isEnabled()) {
+            task.run();
+            return true;
+        }
+        String name = "job:" + job;
+        String owner = newOwner();
+        if (!tryAcquire(name, owner)) {
+            log.debug("任务 {} 正在其他节点执行，跳过", job);
+            return false;
+        }
+        try {
+            task.run();
+            return true;
+        } finally {
+            release(name, owner);
+        }
+    }
+
+    private String acquire(String name) throws IOException {
+        String owner = newOwner();
+        long deadline = System.currentTimeMillis() + waitMs;
+        long backoff = 10;
+        while (!tryAcquire(name, owner)) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IOException("资源正被其他操作占用，请稍后重试");
+            }
+            try {
+                Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待租约被中断");
+            }
+            backoff = Math.min(backoff * 2, 200);
+        }
+        return owner;
+    }
+
+    private String newOwner() {
+        return nodeRegistry.getNodeId() + "#" + sequence.incrementAndGet();
+    }
+
+    private boolean tryAcquire(String name, String owner) {
+        long now = System.currentTimeMillis();
+        // 先尝试接管到期（或已释放）的租约；记录不存在时再插入，并发插入时主键冲突的一方失败
+        Boolean acquired = requiresNew.execute(status -> {
+            if (leaseRepository.takeOver(name, owner, now + ttlMs, now) > 0) {
+                return true;
+            }
+            return leaseRepository.existsById(name) ? false : null;
+        });
+        if (acquired == null) {
+            try {
+                requiresNew.executeWithoutResult(status -> {
+                    ClusterLease lease = new ClusterLease();
+                    lease.setName(name);
+                    lease.setOwner(owner);
+                    lease.setExpiresAt(now + ttlMs);
+                    entityManager.persist(lease);
+                    entityManager.flush();
+                });
+                acquired = true;
+            } catch (DataAccessException | PersistenceException e) {
+                acquired = false;
+            }
+        }
+        if (acquired) {
+            held.put(owner, name);
+        }
+        return acquired;
+    }
+
+    private void release(String name, String owner) {
+        held.remove(owner);
+        try {
+            requiresNew.executeWithoutResult(status -> leaseRepository.release(name, owner, System.currentTimeMillis()));
+        } catch (RuntimeException e) {
+            // 释放失败时租约到期后自动失效
+            log.warn("释放租约失败: {}, {}", name, e.getMessage());
+        }
+    }
+
+    // 长时间的上传或任务在到期前续期
+    @Scheduled(fixedDelayString = "${cluster.lease.renew-interval-ms:10000}")
+    public void renewHeld() {
+        if (held.isEmpty()) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + ttlMs;
+        requiresNew.executeWithoutResult(status ->
+                held.forEach((owner, name) -> leaseRepository.renew(name, owner, expiresAt)));
+    }
+
+    // 清理长时间未使用的租约记录
+    @Scheduled(fixedDelayString = "${cluster.lease.prune-interval-ms:3600000}")
+    public void pruneIdle() {
+        if (!nodeRegistry.isEnabled()) {
+            return;
+        }
+        runExclusive("cluster-lease-prune", () -> {
+            long before = System.currentTimeMillis() - idleRetentionMs;
+            Integer removed = requiresNew.execute(status -> leaseRepository.deleteExpiredBefore(before));
+            log.debug("清理租约记录 {} 条", removed);
+        });
+    }
+
+    // 本节点持有的租约数
+    public int heldCount() {
+        return held.size();
+    }
+
+    // 所有节点未到期的租约数
+    public long activeCount() {
+        return leaseRepository.countByExpiresAtGreaterThan(System.currentTimeMillis());
+    }
+
+    @PreDestroy
+    public void releaseAll() {
+        held.forEach((owner, name) -> release(name, owner));
+    }
+}
@@ -0,0 +1,130 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.model.ClusterNode;
+import com.cloudstorage.repository.ClusterNodeRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 集群模式（cluster.enabled=true）：多个节点共享数据库和存储卷，位于同一负载均衡之后。
+ * 本类负责节点身份和节点注册表（心跳），租约见 ClusterLeaseService，跨节点缓存失效见 ClusterEventBus。
+ * 未开启时只提供节点 ID，不访问数据库
+ */
+@Slf4j
+@Service
+public class ClusterNodeRegistry {
+
+    private final ClusterNodeRepository nodeRepository;
+    private final TransactionTemplate requiresNew;
+    private final boolean enabled;
+    private final String nodeId;
+    private final String advertisedUrl;
+    private final long heartbeatIntervalMs;
+
+    public ClusterNodeRegistry(ClusterNodeRepository nodeRepository,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${cluster.enabled:false}") boolean enabled,
+                               @Value("${cluster.node-id:}") String nodeId,
+                               @Value("${cluster.advertised-url:}") String advertisedUrl,
+                               @Value("${cluster.heartbeat-interval-ms:5000}") long heartbeatIntervalMs,
+                               @Value("${server.port:8080}") int port) {
+        this.nodeRepository = nodeRepository;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.enabled = enabled;
+        String host = hostName();
+        // 默认 主机名:端口，同一台机器上的多个实例也不会重复
+        this.nodeId = nodeId.isBlank() ? host + ":" + port : nodeId;
+        this.advertisedUrl = advertisedUrl.isBlank() ? "http://" + host + ":" + port : advertisedUrl;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @PostConstruct
+    public void register() {
+        if (!enabled) {
+            return;
+        }
+        heartbeat();
+        log.info("集群节点已注册: {} ({})", nodeId, advertisedUrl);
+    }
+
+    @Scheduled(fixedDelayString = "${cluster.heartbeat-interval-ms:5000}")
+    public void heartbeat() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        requiresNew.executeWithoutResult(status -> {
+            if (nodeRepository.heartbeat(nodeId, advertisedUrl, now) == 0) {
+                ClusterNode node = new ClusterNode();
+                node.setNodeId(nodeId);
+                node.setAdvertisedUrl(advertisedUrl);
+                node.setStartedAt(now);
+                node.setHeartbeatAt(now);
+                nodeRepository.save(node);
+            }
+            // 离线超过一天的节点从注册表中移除
+            nodeRepository.deleteStale(now.minusDays(1));
+        });
+    }
+
+    @PreDestroy
+    public void deregister() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            requiresNew.executeWithoutResult(status -> nodeRepository.deleteById(nodeId));
+        } catch (RuntimeException e) {
+            log.warn("注销集群节点失败: {}", e.getMessage());
+        }
+    }
+
+    // 所有节点，超过三个心跳周期未更新的标记为离线
+    public List<Map<String, Object>> nodes() {
+        LocalDateTime aliveAfter = LocalDateTime.now().minusNanos(heartbeatIntervalMs * 3 * 1_000_000);
+        List<Map<String, Object>> nodes = new ArrayList<>();
+        for (ClusterNode node : nodeRepository.findAll()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("nodeId", node.getNodeId());
+            item.put("advertisedUrl", node.getAdvertisedUrl());
+            item.put("startedAt", node.getStartedAt());
+            item.put("heartbeatAt", node.getHeartbeatAt());
+            item.put("alive", node.getHeartbeatAt().isAfter(aliveAfter));
+            item.put("self", node.getNodeId().equals(nodeId));
+            nodes.add(item);
+        }
+        return nodes;
+    }
+}
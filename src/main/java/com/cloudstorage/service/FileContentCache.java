@@ -0,0 +1,233 @@
+package com.cloudstorage.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * 热点小文件的内容缓存，键为物理路径，值为堆外的 direct ByteBuffer（不占用堆，也不增加 GC 扫描）。
+ * 加密文件缓存的是解密后的明文，命中时不需要再解密。
+ * - 按字节数限制总大小（file.cache.max-bytes），超过 file.cache.max-entry-bytes 的文件不缓存
+ * - Caffeine 的 W-TinyLFU 按访问频率决定是否接纳新条目，一次性访问的文件不会挤掉热点文件
+ * - 由 FileService 中的上传、重命名、移动、删除精确失效；文件夹按路径前缀失效，在有序的键索引中按范围查找，不扫描整个缓存
+ * - 未命中时在 Caffeine 的原子计算中读取，同一个键的失效会等待读取完成，旧内容不会在失效之后放回缓存
+ * 堆外内存计入 -XX:MaxDirectMemorySize（默认与最大堆相同），被淘汰的缓冲区在下次 GC 时释放
+ */
+@Slf4j
+@Component
+public class FileContentCache {
+
+    private final Cache<String, ByteBuffer> cache;
+    // 缓存中的键（有序），用于按前缀失效文件夹；淘汰时由 evictionListener 在同一个原子操作中移除
+    private final NavigableSet<String> keys = new ConcurrentSkipListSet<>();
+    private final boolean enabled;
+    private final long maxEntryBytes;
+    private final FileEncryptionService fileEncryptionService;
+    private final ClusterEventBus clusterEventBus;
+
+    public FileContentCache(FileEncryptionService fileEncryptionService,
+                            ClusterEventBus clusterEventBus,
+                            @Value("${file.cache.enabled:true}") boolean enabled,
+                            @Value("${file.cache.max-bytes:268435456}") long maxBytes,
+                            @Value("${file.cache.max-entry-bytes:1048576}") long maxEntryBytes,
+                            MeterRegistry meterRegistry) {
+        this.fileEncryptionService = fileEncryptionService;
+        this.clusterEventBus = clusterEventBus;
+        this.enabled = enabled && maxBytes > 0;
+        this.maxEntryBytes = Math.min(maxEntryBytes, Integer.MAX_VALUE);
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(Math.max(maxBytes, 0))
+                .weigher((String path, ByteBuffer content) -> content.capacity())
+                .evictionListener((String path, ByteBuffer content, RemovalCause cause) -> keys.remove(path))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "fileContent");
+        // 集群模式下其他节点修改的文件（存储卷共享，路径相同）
+        clusterEventBus.subscribe(ClusterEventBus.CONTENT, this::evictKey);
+    }
+
+    /**
+     * 文件内容（只读、独立位置的视图），未命中时读入缓存。
+     * 未启用、文件过大或读取失败时返回 null，由调用方直接读取磁盘
+     */
+    public ByteBuffer get(Path path, Long userId, boolean encrypted) {
+        if (!enabled) {
+            return null;
+        }
+        // 返回 null 时不缓存
+        ByteBuffer content = cache.get(key(path), key -> {
+            ByteBuffer loaded = encrypted ? loadDecrypted(path, userId) : load(path);
+            if (loaded != null) {
+                keys.add(key);
+            }
+            return loaded;
+        });
+        return content != null ? content.asReadOnlyBuffer() : null;
+    }
+
+    private ByteBuffer load(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > maxEntryBytes) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    // 读取期间文件被截断，不缓存
+                    return null;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        } catch (IOException e) {
+            log.debug("读取文件到缓存失败: {}, {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private ByteBuffer loadDecrypted(Path path, Long userId) {
+        try {
+            if (fileEncryptionService.contentLength(path, true) > maxEntryBytes) {
+                return null;
+            }
+            byte[] plain;
+            try (InputStream in = fileEncryptionService.open(path, userId, true)) {
+                plain = in.readAllBytes();
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(plain.length);
+            buffer.put(plain).flip();
+            return buffer;
+        } catch (IOException e) {
+            log.debug("解密文件到缓存失败: {}, {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 失效一个文件或整个文件夹（路径前缀）。
+     * 事务中修改时，提交后再失效一次，防止并发读取把旧内容重新放回缓存；集群模式下提交后通知其他节点
+     */
+    public void evict(Path path) {
+        String key = key(path);
+        clusterEventBus.publish(ClusterEventBus.CONTENT, key);
+        if (!enabled) {
+            return;
+        }
+        evictKey(key);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evictKey(key);
+                }
+            });
+        }
+    }
+
+    // 先移除索引再失效：并发读取在两步之间放入的条目仍留在索引中，最多多一次无效的失效
+    private void evictKey(String key) {
+        keys.remove(key);
+        cache.invalidate(key);
+        String prefix = key.endsWith("/") ? key : key + "/";
+        for (String cached : keys.subSet(prefix, prefix + Character.MAX_VALUE)) {
+            keys.remove(cached);
+            cache.invalidate(cached);
+        }
+    }
+
+    private String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * 以缓存内容作为下载响应体，Range 请求通过 skip 直接定位，不访问磁盘
+     */
+    public static class ByteBufferResource extends AbstractResource {
+
+        private final ByteBuffer content;
+        private final String description;
+
+        public ByteBufferResource(ByteBuffer content, String description) {
+            this.content = content;
+            this.description = description;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return content.remaining();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteBufferInputStream(content.duplicate());
+        }
+
+        @Override
+        public String getDescription() {
+            return "Cached content [" + description + "]";
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
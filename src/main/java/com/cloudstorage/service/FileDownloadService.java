@@ -0,0 +1,222 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.model.File;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.StringJoiner;
+
+/**
+ * 构造文件下载响应：
+ * - 默认由 JVM 按用户下载带宽限速输出文件内容
+ * - 开启 download.x-accel.enabled 后只返回 X-Accel-Redirect 头，由 nginx 的 internal location 通过 sendfile 输出
+ * - 否则热点小文件直接从 FileContentCache 的内存中输出，不访问磁盘
+ * - 加密文件总是由 JVM 按需解密输出
+ * - 打包存储的小文件按偏移读入内存后输出（不经过 nginx 和内容缓存）
+ * - 集群模式下在 X-Storage-Node 头中返回接收上传的节点
+ */
+@Service
+@RequiredArgsConstructor
+public class FileDownloadService {
+
+    private final RateLimitService rateLimitService;
+    private final FileContentCache fileContentCache;
+    private final FileEncryptionService fileEncryptionService;
+    private final PackStorageService packStorageService;
+
+    @Value("${file.upload-dir:./uploads}")
+    private String uploadDir;
+
+    @Value("${download.x-accel.enabled:false}")
+    private boolean xAccelEnabled;
+
+    // nginx 中映射到 file.upload-dir 的 internal location
+    @Value("${download.x-accel.location:/protected-files/}")
+    private String xAccelLocation;
+
+    public static final String STORAGE_NODE_HEADER = "X-Storage-Node";
+
+    public ResponseEntity<Resource> download(File file, String username) {
+        Long encryptedFor = Boolean.TRUE.equals(file.getEncrypted()) ? file.getUser().getId() : null;
+        ResponseEntity<Resource> response = packStorageService.isPacked(file)
+                ? downloadPacked(() -> packStorageService.read(file), file.getFileName(), username)
+                : download(Paths.get(file.getFilePath()), file.getFileName(), username, encryptedFor);
+        if (file.getStorageNode() == null) {
+            return response;
+        }
+        // 集群模式：接收上传的节点，负载均衡可以据此把后续下载路由到该节点（页缓存和内容缓存已预热）
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(STORAGE_NODE_HEADER, file.getStorageNode())
+                .body(response.getBody());
+    }
+
+    /**
+     * @param encryptedFor 加密文件所属用户的ID（用于派生密钥），未加密时为 null
+     */
+    public ResponseEntity<Resource> download(Path filePath, String fileName, String username, Long encryptedFor) {
+        boolean encrypted = encryptedFor != null;
+        // nginx 只能输出磁盘上的原始内容，加密文件由 JVM 解密输出
+        boolean accel = xAccelEnabled && !encrypted;
+        ByteBuffer cached = accel ? null : fileContentCache.get(filePath, encryptedFor, encrypted);
+        if (cached == null && !Files.isRegularFile(filePath)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        HttpHeaders headers = attachmentHeaders(fileName);
+
+        if (accel) {
+            headers.set("X-Accel-Redirect", xAccelLocation + encodePath(storagePath(filePath)));
+            // 由 nginx 执行用户的下载带宽限制
+            long rate = rateLimitService.downloadBytesPerSecond(username);
+            if (rate > 0) {
+                headers.set("X-Accel-Limit-Rate", String.valueOf(rate));
+            }
+            return new ResponseEntity<>(headers, HttpStatus.OK);
+        }
+        if (cached != null) {
+            return new ResponseEntity<>(inMemory(cached, fileName, username), headers, HttpStatus.OK);
+        }
+        if (encrypted) {
+            return new ResponseEntity<>(new DecryptedResource(filePath, username, encryptedFor), headers, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(rateLimitService.throttledResource(username, filePath), headers, HttpStatus.OK);
+    }
+
+    private ResponseEntity<Resource> downloadPacked(PackedContent content, String fileName, String username) {
+        byte[] bytes;
+        try {
+            bytes = content.read();
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+        return new ResponseEntity<>(inMemory(ByteBuffer.wrap(bytes), fileName, username),
+                attachmentHeaders(fileName), HttpStatus.OK);
+    }
+
+    @FunctionalInterface
+    private interface PackedContent {
+        byte[] read() throws IOException;
+    }
+
+    private Resource inMemory(ByteBuffer content, String fileName, String username) {
+        return new FileContentCache.ByteBufferResource(content, fileName) {
+            @Override
+            public InputStream getInputStream() {
+                return rateLimitService.throttleDownload(username, super.getInputStream());
+            }
+        };
+    }
+
+    private HttpHeaders attachmentHeaders(String fileName) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setContentDisposition(ContentDisposition.attachment()
+                .filename(fileName, StandardCharsets.UTF_8)
+                .build());
+        return headers;
+    }
+
+    /**
+     * 签名下载链接中记录的存储位置：普通文件为相对于存储根目录的路径，打包存储的文件为打包位置
+     */
+    public String storageLocator(File file) {
+        return packStorageService.isPacked(file) ? packStorageService.locator(file) : storagePath(Paths.get(file.getFilePath()));
+    }
+
+    // 按 storageLocator 返回的位置下载
+    public ResponseEntity<Resource> downloadStored(String locator, String fileName, String username, Long encryptedFor) {
+        if (packStorageService.isLocator(locator)) {
+            return downloadPacked(() -> packStorageService.read(locator, encryptedFor), fileName, username);
+        }
+        return download(resolveStoragePath(locator), fileName, username, encryptedFor);
+    }
+
+    /**
+     * 加密文件的下载响应体：长度为明文长度（只读取头部），Range 请求通过 skip 定位到所在的块后只解密需要的块
+     */
+    private class DecryptedResource extends AbstractResource {
+
+        private final Path path;
+        private final String username;
+        private final Long userId;
+
+        DecryptedResource(Path path, String username, Long userId) {
+            this.path = path;
+            this.username = username;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean exists() {
+            return Files.isRegularFile(path);
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return fileEncryptionService.contentLength(path, true);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return rateLimitService.throttleDownload(username, fileEncryptionService.open(path, userId, true));
+        }
+
+        @Override
+        public String getDescription() {
+            return "Encrypted file [" + path + "]";
+        }
+    }
+
+    /**
+     * 文件相对于存储根目录的路径（使用 / 分隔）
+     */
+    public String storagePath(Path filePath) {
+        Path relative = uploadRoot().relativize(filePath.toAbsolutePath().normalize());
+        StringJoiner joiner = new StringJoiner("/");
+        relative.forEach(segment -> joiner.add(segment.toString()));
+        return joiner.toString();
+    }
+
+    /**
+     * 把存储相对路径解析为实际路径，拒绝越出存储根目录的路径
+     */
+    public Path resolveStoragePath(String storagePath) {
+        Path root = uploadRoot();
+        Path resolved = root.resolve(storagePath).normalize();
+        if (!resolved.startsWith(root)) {
+            throw new IllegalArgumentException("非法的存储路径");
+        }
+        return resolved;
+    }
+
+    private Path uploadRoot() {
+        return Paths.get(uploadDir).toAbsolutePath().normalize();
+    }
+
+    private String encodePath(String path) {
+        StringJoiner joiner = new StringJoiner("/");
+        for (String segment : path.split("/")) {
+            joiner.add(UriUtils.encodePathSegment(segment, StandardCharsets.UTF_8));
+        }
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,116 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.util.ChunkedAesGcm;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+/**
+ * 静态加密：开启 encryption.enabled 后，上传的文件按 ChunkedAesGcm 格式分块加密后写入磁盘。
+ * - 每个用户的密钥由主密钥（encryption.master-key，Base64，至少 32 字节）经 HMAC-SHA256 派生，不落盘
+ * - 文件是否加密记录在 File.encrypted 上，开启前上传的文件保持明文，可以混合存在
+ * - 下载和预览的 Range 请求只解密覆盖到的块
+ * 更换主密钥后已加密的文件无法读取，需要先用旧密钥解密迁移
+ */
+@Service
+public class FileEncryptionService {
+
+    private static final String KDF_ALGORITHM = "HmacSHA256";
+
+    @Value("${encryption.enabled:false}")
+    private boolean enabled;
+
+    @Value("${encryption.master-key:}")
+    private String masterKey;
+
+    // 明文分块大小，写入文件头部，修改后只影响新上传的文件
+    @Value("${encryption.chunk-size:65536}")
+    private int chunkSize;
+
+    private SecretKeySpec masterKeySpec;
+
+    @PostConstruct
+    public void init() {
+        if (chunkSize <= 0 || chunkSize > ChunkedAesGcm.MAX_CHUNK_SIZE) {
+            throw new IllegalStateException("encryption.chunk-size 超出范围: " + chunkSize);
+        }
+        if (masterKey == null || masterKey.isBlank()) {
+            if (enabled) {
+                throw new IllegalStateException("开启 encryption.enabled 时必须配置 encryption.master-key");
+            }
+            return;
+        }
+        byte[] key = Base64.getDecoder().decode(masterKey.trim());
+        if (key.length < 32) {
+            throw new IllegalStateException("encryption.master-key 至少需要 32 字节");
+        }
+        masterKeySpec = new SecretKeySpec(key, KDF_ALGORITHM);
+    }
+
+    // 新上传的文件是否加密
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public OutputStream encrypt(OutputStream out, Long userId) throws IOException {
+        return new ChunkedAesGcm.EncryptingOutputStream(out, userKey(userId), chunkSize);
+    }
+
+    /**
+     * 打开文件内容（明文）。encrypted 为 false 时直接读取磁盘文件
+     */
+    public InputStream open(Path path, Long userId, boolean encrypted) throws IOException {
+        if (!encrypted) {
+            return Files.newInputStream(path);
+        }
+        return new ChunkedAesGcm.DecryptingInputStream(FileChannel.open(path, StandardOpenOption.READ), userKey(userId));
+    }
+
+    // 打开已读入内存的存储内容（打包存储的小文件）
+    public InputStream open(byte[] stored, Long userId, boolean encrypted) throws IOException {
+        if (!encrypted) {
+            return new ByteArrayInputStream(stored);
+        }
+        return new ChunkedAesGcm.DecryptingInputStream(new SeekableInMemoryByteChannel(stored), userKey(userId));
+    }
+
+    // 明文长度，加密文件只读取头部
+    public long contentLength(Path path, boolean encrypted) throws IOException {
+        if (!encrypted) {
+            return Files.size(path);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return ChunkedAesGcm.plainLength(channel);
+        }
+    }
+
+    private SecretKey userKey(Long userId) throws IOException {
+        if (masterKeySpec == null) {
+            throw new IOException("未配置 encryption.master-key，无法读写加密文件");
+        }
+        try {
+            Mac mac = Mac.getInstance(KDF_ALGORITHM);
+            mac.init(masterKeySpec);
+            byte[] key = mac.doFinal(("cloud-storage/file-key/" + userId).getBytes(StandardCharsets.UTF_8));
+            return new SecretKeySpec(key, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.dto.FileDTO;
+import com.cloudstorage.model.User;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * 流式输出文件列表：从数据库逐行读取，经 JsonGenerator 直接写入响应，
+ * 不构建 List<FileDTO>，也不创建托管实体，导出百万级文件时内存占用保持不变。
+ */
+@Service
+@RequiredArgsConstructor
+public class FileExportService {
+
+    public static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    public enum Format {
+        // 与普通接口相同的 {success, message, data: [...]} 结构
+        JSON,
+        // 每行一个 FileDTO
+        NDJSON
+    }
+
+    private final FileService fileService;
+    private final ObjectMapper objectMapper;
+
+    public MediaType contentType(Format format) {
+        return format == Format.NDJSON ? NDJSON : MediaType.APPLICATION_JSON;
+    }
+
+    // 导出账户下的全部文件（不含回收站）
+    public StreamingResponseBody exportAccount(User user, Format format) {
+        return out -> write(out, format, "导出成功", sink -> fileService.forEachUserFile(user, sink));
+    }
+
+    // 流式输出单个文件夹的内容
+    public StreamingResponseBody streamFolder(User user, Long parentId, Format format) {
+        return out -> write(out, format, "获取文件列表成功", sink -> fileService.forEachFileInFolder(user, parentId, sink));
+    }
+
+    private void write(OutputStream out, Format format, String message,
+                       Consumer<Consumer<FileDTO>> source) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            if (format == Format.NDJSON) {
+                generator.setRootValueSeparator(new SerializedString("\n"));
+            } else {
+                generator.writeStartObject();
+                generator.writeBooleanField("success", true);
+                generator.writeStringField("message", message);
+                generator.writeArrayFieldStart("data");
+            }
+            try {
+                source.accept(file -> {
+                    try {
+                        generator.writeObject(file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                // 客户端断开连接等写入错误
+                throw e.getCause();
+            }
+            if (format == Format.NDJSON) {
+                // 最后一行也以换行结尾
+                if (generator.getOutputContext().getEntryCount() > 0) {
+                    generator.writeRaw('\n');
+                }
+            } else {
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        }
+    }
+}
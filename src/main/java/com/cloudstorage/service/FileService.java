@@ -1,34 +1,103 @@
 package com.cloudstorage.service;
 
+import com.cloudstorage.dto.FileDTO;
+import com.cloudstorage.dto.FileTree;
+import com.cloudstorage.dto.FileTreeNode;
 import com.cloudstorage.model.File;
+import com.cloudstorage.model.FolderStats;
 import com.cloudstorage.model.User;
+import com.cloudstorage.model.UserStorage;
+import com.cloudstorage.repository.FileIntegrityRepository;
 import com.cloudstorage.repository.FileRepository;
+import com.cloudstorage.util.Checksums;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class FileService {
 
     private final FileRepository fileRepository;
+    private final FileIntegrityRepository fileIntegrityRepository;
+    private final FolderListingCache folderListingCache;
+    private final EntityManager entityManager;
+    private final RateLimitService rateLimitService;
+    private final MeterRegistry meterRegistry;
+    private final StorageUsageService storageUsageService;
+    private final StorageAnalyticsService storageAnalyticsService;
+    private final FileContentCache fileContentCache;
+    private final FileEncryptionService fileEncryptionService;
+    private final ClusterLeaseService clusterLeaseService;
+    private final ClusterNodeRegistry clusterNodeRegistry;
+    private final PackStorageService packStorageService;
+    private final TransactionTemplate transactionTemplate;
     
     @Value("${file.upload-dir:./uploads}")
     private String uploadDir;
+    
+    // 与 hibernate.jdbc.batch_size 保持一致，递归操作按此大小分批刷新
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int batchSize;
+    
+    // 复制时优先使用硬链接
+    @Value("${file.copy.hard-links:true}")
+    private boolean copyHardLinks;
+    
+    // 子树查询的深度和返回项数上限
+    @Value("${file.tree.max-depth:10}")
+    private int treeMaxDepth;
+    
+    @Value("${file.tree.max-nodes:5000}")
+    private int treeMaxNodes;
 
     @PostConstruct
     public void init() {
         try {
             Files.createDirectories(Paths.get(uploadDir));
+            Files.createDirectories(tempDir());
             System.out.println("✅ 文件上传目录已初始化: " + uploadDir);
         } catch (IOException e) {
             throw new RuntimeException("Could not initialize folder for upload!");
@@ -39,6 +108,11 @@ public class FileService {
         return uploadFile(file, user, null);
     }
     
+    /**
+     * 内容先在事务之外写入（小文件追加到打包文件，其他写入临时文件），之后才在一个短事务中
+     * 持有目录树租约、解析父文件夹、检查同名、预占配额并保存记录。
+     * 限速的传输期间不占用数据库连接，也不阻塞同一用户的重命名、移动等目录操作
+     */
     public File uploadFile(MultipartFile file, User user, Long parentId) throws IOException {
         // 获取原始文件名（可能包含路径）
         String originalFilename = file.getOriginalFilename();
@@ -46,8 +120,70 @@ public class FileService {
             throw new IOException("文件名不能为空");
         }
         
+        // 明显超出配额时在传输之前失败（不预占，保存记录时再准确检查）；覆盖上传只计算大小差值
+        storageUsageService.checkAvailable(user.getId(), file.getSize() - existingSize(user, parentId, originalFilename));
+        
+        // 校验和按明文边写入边计算，供后台完整性校验使用；开启静态加密时边写入边分块加密
+        MessageDigest digest = Checksums.newDigest();
+        boolean encrypt = fileEncryptionService.isEnabled();
+        InputStream content = new DigestInputStream(
+                rateLimitService.throttleUpload(user.getUsername(), file.getInputStream()), digest);
+        File staged = new File();
+        Path tempFile = null;
+        try {
+            if (packStorageService.accepts(file.getSize())) {
+                // 小文件追加到打包文件，不创建临时文件和目录项
+                packStorageService.store(staged, content, encrypt ? user.getId() : null);
+            } else {
+                // 先写入临时文件，保存记录时再原子替换目标文件，失败时不会留下写了一半的文件
+                tempFile = writeToTempFile(content, encrypt ? user.getId() : null);
+            }
+            String checksum = Checksums.toHex(digest);
+            Path stagedFile = tempFile;
+            return transactionTemplate.execute(status -> {
+                try {
+                    return saveUpload(file, user, parentId, staged, stagedFile, checksum, encrypt);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // 记录已提交或已放弃；成功时临时文件已移走，失败时写入打包文件的数据成为垃圾
+            packStorageService.release(staged);
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+    
+    // 覆盖上传时被替换的文件大小（只读查询，路径中的文件夹还不存在时为 0）
+    private long existingSize(User user, Long parentId, String originalFilename) {
+        String[] pathParts = originalFilename.replace("\\", "/").split("/");
+        Long currentParentId = parentId;
+        for (int i = 0; i < pathParts.length - 1; i++) {
+            Optional<File> folder = fileRepository.findByUserAndParentIdAndFileNameAndDeletedAtIsNull(user, currentParentId, pathParts[i]);
+            if (!folder.isPresent() || !folder.get().getIsFolder()) {
+                return 0;
+            }
+            currentParentId = folder.get().getId();
+        }
+        return fileRepository.findByUserAndParentIdAndFileNameAndDeletedAtIsNull(user, currentParentId, pathParts[pathParts.length - 1])
+                .map(File::getFileSize)
+                .orElse(0L);
+    }
+    
+    // 上传的元数据阶段（在短事务中）：内容已写入 staged（打包位置）或 tempFile
+    private File saveUpload(MultipartFile file, User user, Long parentId, File staged, Path tempFile,
+                            String checksum, boolean encrypt) throws IOException {
+        // 父文件夹的路径在下面读取并写入记录，与重命名、移动一样持有目录树租约，上级不会同时被改名或移走
+        clusterLeaseService.lockTree(user.getId());
+        // 传输之前读到的实体可能已过期（open-in-view 下整个请求共用一个持久化上下文），清空后重新读取
+        entityManager.clear();
+        
         // 处理文件路径，统一使用/作为分隔符
-        String fileName = originalFilename.replace("\\", "/");
+        String fileName = file.getOriginalFilename().replace("\\", "/");
         
         // 分解路径：提取文件夹路径和纯文件名
         String[] pathParts = fileName.split("/");
@@ -59,8 +195,9 @@ public class FileService {
             // 逐层创建文件夹
             for (int i = 0; i < pathParts.length - 1; i++) {
                 String folderName = pathParts[i];
-                // 检查文件夹是否已存在
-                Optional<File> existingFolder = fileRepository.findByUserAndParentIdAndFileName(user, currentParentId, folderName);
+                // 检查文件夹是否已存在（集群模式下先占用名称，其他节点不会同时创建同名文件夹）
+                clusterLeaseService.lockName(user.getId(), currentParentId, folderName);
+                Optional<File> existingFolder = fileRepository.findByUserAndParentIdAndFileNameAndDeletedAtIsNull(user, currentParentId, folderName);
                 if (existingFolder.isPresent() && existingFolder.get().getIsFolder()) {
                     currentParentId = existingFolder.get().getId();
                 } else {
@@ -77,7 +214,7 @@ public class FileService {
         // 如果有父文件夹，获取父文件夹路径
         String relativePath = "/";
         if (currentParentId != null) {
-            Optional<File> parentFolder = fileRepository.findByIdAndUser(currentParentId, user);
+            Optional<File> parentFolder = findOwnedFile(currentParentId, user);
             if (parentFolder.isPresent() && parentFolder.get().getIsFolder()) {
                 relativePath = parentFolder.get().getPath() + "/";
                 userDir += relativePath.substring(1); // 移除开头的/
@@ -88,124 +225,459 @@ public class FileService {
         String filePath = userDir + pureFileName;
         Path targetPath = Paths.get(filePath);
         
-        // 创建所有必要的父目录
-        Files.createDirectories(targetPath.getParent());
-        
-        // 如果文件已存在，先删除
-        if (Files.exists(targetPath)) {
-            Files.delete(targetPath);
-        }
+        // 检查数据库中是否已存在同名文件（使用纯文件名），名称占用持有到事务结束
+        clusterLeaseService.lockName(user.getId(), currentParentId, pureFileName);
+        Optional<File> existingFile = fileRepository.findByUserAndParentIdAndFileNameAndDeletedAtIsNull(user, currentParentId, pureFileName);
         
-        Files.copy(file.getInputStream(), targetPath);
+        // 在本事务中预占配额，回滚时随事务撤销；覆盖上传只计算大小差值
+        long bytesDelta = file.getSize() - existingFile.map(File::getFileSize).orElse(0L);
+        long filesDelta = existingFile.isPresent() ? 0 : 1;
+        storageUsageService.reserveInTransaction(user.getId(), bytesDelta, filesDelta);
         
-        // 检查数据库中是否已存在同名文件（使用纯文件名）
-        Optional<File> existingFile = fileRepository.findByUserAndParentIdAndFileName(user, currentParentId, pureFileName);
+        File fileEntity = existingFile.orElseGet(File::new);
+        if (tempFile == null) {
+            // 覆盖的旧版本是普通文件时提交后删除
+            if (existingFile.isPresent() && !packStorageService.isPacked(fileEntity)) {
+                deleteAfterCommit(targetPath);
+            }
+            packStorageService.assign(fileEntity, staged);
+        } else {
+            // 创建所有必要的父目录
+            Files.createDirectories(targetPath.getParent());
+            Files.move(tempFile, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            packStorageService.clear(fileEntity);
+        }
+        fileContentCache.evict(targetPath);
         
-        File fileEntity;
         if (existingFile.isPresent()) {
             // 如果文件已存在，更新元数据
-            fileEntity = existingFile.get();
+            storageAnalyticsService.recordRemoved(user.getId(), fileEntity.getFileType(), fileEntity.getFileSize());
             fileEntity.setFileType(file.getContentType());
             fileEntity.setFileSize(file.getSize());
             fileEntity.setFilePath(filePath);
+            fileEntity.setChecksum(checksum);
+            fileEntity.setEncrypted(encrypt);
+            fileEntity.setStorageNode(storageNode());
+            // 内容已替换，之前的校验结果不再有效
+            fileIntegrityRepository.findById(fileEntity.getId()).ifPresent(fileIntegrityRepository::delete);
         } else {
             // 如果文件不存在，创建新记录
-            fileEntity = new File();
             fileEntity.setFileName(pureFileName); // 使用纯文件名
             fileEntity.setFileType(file.getContentType());
             fileEntity.setFileSize(file.getSize());
             fileEntity.setFilePath(filePath);
+            fileEntity.setChecksum(checksum);
+            fileEntity.setEncrypted(encrypt);
             fileEntity.setUser(user);
+            fileEntity.setStorageNode(storageNode());
             fileEntity.setIsFolder(false);
             fileEntity.setParentId(currentParentId); // 使用最终的父文件夹ID
             fileEntity.setPath(relativePath + pureFileName);
         }
         
-        return fileRepository.save(fileEntity);
+        File saved = fileRepository.save(fileEntity);
+        storageUsageService.adjustFolders(folderChain(currentParentId), bytesDelta, filesDelta);
+        storageAnalyticsService.recordAdded(user.getId(), saved.getFileType(), saved.getFileSize());
+        folderListingCache.evict(user.getId(), currentParentId);
+        return saved;
+    }
+    
+    private void deleteAfterCommit(Path path) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    // 记录已指向打包位置，残留的文件不影响读取
+                }
+            }
+        });
+    }
+    
+    // 集群模式下记录接收上传的节点，下载时作为就近访问的提示
+    private String storageNode() {
+        return clusterNodeRegistry.isEnabled() ? clusterNodeRegistry.getNodeId() : null;
+    }
+    
+    // 文件夹及其所有上级的ID（逐级按主键查询，命中二级缓存），用于增量更新文件夹汇总
+    List<Long> folderChain(Long folderId) {
+        List<Long> ids = new ArrayList<>();
+        Long current = folderId;
+        while (current != null) {
+            ids.add(current);
+            current = fileRepository.findById(current).map(File::getParentId).orElse(null);
+        }
+        return ids;
+    }
+    
+    // 一项计入上级文件夹汇总的字节数和文件数：文件为自身大小，文件夹为其子树汇总
+    private long[] statsOf(File item) {
+        if (!item.getIsFolder()) {
+            return new long[] {item.getFileSize() != null ? item.getFileSize() : 0, 1};
+        }
+        FolderStats stats = storageUsageService.folderStats(item.getId(), item.getUser().getId());
+        return new long[] {stats.getTotalBytes(), stats.getFileCount()};
+    }
+    
+    // 文件夹的汇总（总字节数、文件数）和用户的已用空间，都是一次主键查询
+    @Transactional(readOnly = true)
+    public FolderStats getFolderStats(Long id, User user) throws IOException {
+        File file = findOwnedFile(id, user).orElseThrow(() -> new IOException("文件不存在"));
+        long[] stats = statsOf(file);
+        return new FolderStats(file.getId(), stats[0], stats[1]);
+    }
+    
+    @Transactional(readOnly = true)
+    public UserStorage getStorageUsage(User user) {
+        return storageUsageService.usage(user.getId());
+    }
+
+    // 上传临时目录，与用户目录位于同一文件系统，保证可以原子移动
+    Path tempDir() {
+        return Paths.get(uploadDir, ".tmp");
+    }
+    
+    // encryptForUserId 不为 null 时使用该用户的密钥加密写入
+    private Path writeToTempFile(InputStream in, Long encryptForUserId) throws IOException {
+        Path tempFile = Files.createTempFile(tempDir(), "upload-", ".part");
+        try (InputStream input = in) {
+            if (encryptForUserId == null) {
+                Files.copy(input, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (OutputStream out = fileEncryptionService.encrypt(Files.newOutputStream(tempFile), encryptForUserId)) {
+                    input.transferTo(out);
+                }
+            }
+            return tempFile;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
     }
 
-    public List<File> getUserFiles(User user) {
-        return fileRepository.findByUserOrderByUploadedAtDesc(user);
+    @Transactional(readOnly = true)
+    public List<FileDTO> getUserFiles(User user) {
+        return fileRepository.findListingByUser(user.getId()).stream()
+                .filter(visibleOutsideTrash(user))
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * 只有被删除的那一项带有删除标记，这里排除位于已删除文件夹下的后代。
+     * 内存中只保留文件夹的层级信息（id、parentId、deletedAt）
+     */
+    private Predicate<FileDTO> visibleOutsideTrash(User user) {
+        Map<Long, FileRepository.FolderNode> folders = new HashMap<>();
+        for (FileRepository.FolderNode folder : fileRepository.findByUserIdAndIsFolderTrue(user.getId())) {
+            folders.put(folder.getId(), folder);
+        }
+        Map<Long, Boolean> trashedFolders = new HashMap<>();
+        return file -> file.getDeletedAt() == null
+                && (file.getParentId() == null || !isTrashedFolder(file.getParentId(), folders, trashedFolders));
+    }
+    
+    private boolean isTrashedFolder(Long id, Map<Long, FileRepository.FolderNode> folders, Map<Long, Boolean> memo) {
+        Boolean known = memo.get(id);
+        if (known != null) {
+            return known;
+        }
+        FileRepository.FolderNode folder = folders.get(id);
+        boolean trashed = folder == null || folder.getDeletedAt() != null
+                || (folder.getParentId() != null && isTrashedFolder(folder.getParentId(), folders, memo));
+        memo.put(id, trashed);
+        return trashed;
+    }
+    
+    // 按主键顺序逐行读取用户的全部文件（不含回收站），投影查询不创建托管实体
+    @Transactional(readOnly = true)
+    public void forEachUserFile(User user, Consumer<FileDTO> consumer) {
+        Predicate<FileDTO> visible = visibleOutsideTrash(user);
+        try (Stream<FileDTO> files = fileRepository.streamListingByUser(user.getId())) {
+            files.filter(visible).forEach(consumer);
+        }
+    }
+    
+    // 逐行读取文件夹内容，顺序与 getFilesInFolder 相同
+    @Transactional(readOnly = true)
+    public void forEachFileInFolder(User user, Long parentId, Consumer<FileDTO> consumer) {
+        try (Stream<FileDTO> files = parentId == null
+                ? fileRepository.streamRootListing(user.getId())
+                : fileRepository.streamFolderListing(user.getId(), parentId)) {
+            files.forEach(consumer);
+        }
+    }
+    
+    /**
+     * 文件自身或任一上级文件夹在回收站中。逐级按主键查询（命中二级缓存），
+     * 供后台任务判断一条记录的物理路径缺失是否因为位于回收站中
+     */
+    @Transactional(readOnly = true)
+    public boolean isInTrash(File file) {
+        File current = file;
+        while (current != null) {
+            if (current.getDeletedAt() != null) {
+                return true;
+            }
+            current = current.getParentId() != null ? fileRepository.findById(current.getParentId()).orElse(null) : null;
+        }
+        return false;
     }
 
+    @Transactional(readOnly = true)
     public Optional<File> getFileById(Long id, User user) {
-        return fileRepository.findByIdAndUser(id, user);
+        return findOwnedFile(id, user);
+    }
+    
+    // 按主键查找（命中二级缓存），再校验文件归属。回收站中的项目及位于回收站中的文件夹下的项目不可见
+    Optional<File> findOwnedFile(Long id, User user) {
+        return findOwnedFileIncludingTrash(id, user).filter(file -> !isInTrash(file));
+    }
+    
+    private Optional<File> findOwnedFileIncludingTrash(Long id, User user) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        return fileRepository.findById(id)
+                .filter(file -> file.getUser().getId().equals(user.getId()));
+    }
+    
+    // 回收站目录，与用户目录位于同一文件系统，移入回收站只是一次重命名
+    Path trashDir(User user) {
+        return Paths.get(uploadDir, ".trash", String.valueOf(user.getId()));
     }
 
+    // 删除文件或文件夹：只移入回收站，耗时与子树大小无关。物理删除由 TrashPurger 在后台完成
+    @Transactional(rollbackFor = IOException.class)
     public void deleteFile(Long id, User user) throws IOException {
-        Optional<File> file = fileRepository.findByIdAndUser(id, user);
+        clusterLeaseService.lockTree(user.getId());
+        Optional<File> file = findOwnedFile(id, user);
         if (file.isPresent()) {
             File fileEntity = file.get();
             
-            if (fileEntity.getIsFolder()) {
-                // 如果是文件夹，递归删除所有子文件和子文件夹
-                deleteFolderRecursively(fileEntity, user);
-            } else {
-                // 如果是文件，直接删除
-                Files.deleteIfExists(Paths.get(fileEntity.getFilePath()));
-                fileRepository.delete(fileEntity);
+            // 从上级文件夹的汇总中减去（用户已用空间在彻底删除时才释放）
+            long[] stats = statsOf(fileEntity);
+            storageUsageService.adjustFolders(folderChain(fileEntity.getParentId()), -stats[0], -stats[1]);
+            
+            Path oldPath = Paths.get(fileEntity.getFilePath());
+            Path trashPath = trashDir(user).resolve(String.valueOf(fileEntity.getId()));
+            Files.createDirectories(trashPath.getParent());
+            // 打包存储的文件没有对应的物理文件；物理文件已丢失时只标记删除
+            if (!packStorageService.isPacked(fileEntity) && Files.exists(oldPath)) {
+                Files.move(oldPath, trashPath, StandardCopyOption.ATOMIC_MOVE);
             }
+            fileContentCache.evict(oldPath);
+            
+            // 后代的 filePath 保持原值，恢复到原位置后即重新有效
+            fileEntity.setFilePath(trashPath.toString());
+            fileEntity.setDeletedAt(LocalDateTime.now());
+            fileRepository.save(fileEntity);
+            folderListingCache.evict(user.getId(), fileEntity.getParentId());
         }
     }
     
-    private void deleteFolderRecursively(File folder, User user) throws IOException {
-        // 获取文件夹下的所有子文件和子文件夹
-        List<File> children = fileRepository.findByUserAndParentIdOrderByIsFolderDescUploadedAtDesc(user, folder.getId());
+    // 回收站中的项目，最近删除的在前
+    @Transactional(readOnly = true)
+    public List<FileDTO> getTrash(User user) {
+        return fileRepository.findTrashListing(user.getId());
+    }
+    
+    // 从回收站恢复到原位置
+    @Transactional(rollbackFor = IOException.class)
+    public File restoreFile(Long id, User user) throws IOException {
+        clusterLeaseService.lockTree(user.getId());
+        File file = findOwnedFileIncludingTrash(id, user)
+                .filter(item -> item.getDeletedAt() != null)
+                .orElseThrow(() -> new IOException("回收站中不存在该文件"));
         
-        // 递归删除所有子项
-        for (File child : children) {
-            if (child.getIsFolder()) {
-                deleteFolderRecursively(child, user);
+        String userDir = uploadDir + "/" + user.getId() + "/";
+        String relativePath = "/";
+        if (file.getParentId() != null) {
+            Optional<File> parent = findOwnedFile(file.getParentId(), user);
+            if (!parent.isPresent() || isInTrash(parent.get())) {
+                throw new IOException("原文件夹已被删除，请先恢复原文件夹");
+            }
+            relativePath = parent.get().getPath() + "/";
+            userDir += relativePath.substring(1);
+        }
+        clusterLeaseService.lockName(user.getId(), file.getParentId(), file.getFileName());
+        if (fileRepository.existsByUserAndParentIdAndFileNameAndDeletedAtIsNull(user, file.getParentId(), file.getFileName())) {
+            throw new IOException("原位置已存在同名文件");
+        }
+        
+        Path trashPath = Paths.get(file.getFilePath());
+        String restoredPath = userDir + file.getFileName();
+        Path target = Paths.get(restoredPath);
+        if (Files.exists(trashPath)) {
+            Files.createDirectories(target.getParent());
+            Files.move(trashPath, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        
+        file.setFilePath(restoredPath);
+        file.setPath(relativePath + file.getFileName());
+        file.setDeletedAt(null);
+        File saved = fileRepository.save(file);
+        long[] stats = statsOf(file);
+        storageUsageService.adjustFolders(folderChain(file.getParentId()), stats[0], stats[1]);
+        folderListingCache.evict(user.getId(), file.getParentId());
+        return saved;
+    }
+    
+    // 立即彻底删除回收站中的项目
+    @Transactional(rollbackFor = IOException.class)
+    public void purgeFromTrash(Long id, User user) throws IOException {
+        File file = findOwnedFileIncludingTrash(id, user)
+                .filter(item -> item.getDeletedAt() != null)
+                .orElseThrow(() -> new IOException("回收站中不存在该文件"));
+        purge(file);
+    }
+    
+    /**
+     * 彻底删除回收站中的一项及其整个子树：先分批删除数据库记录，最后删除回收站中的物理文件。
+     * 物理删除失败时事务回滚，下次清理会重试（删除是幂等的）
+     */
+    @Transactional(rollbackFor = IOException.class)
+    public int purge(File root) throws IOException {
+        User user = root.getUser();
+        clusterLeaseService.lockTree(user.getId());
+        // 按层级一次性取出整个子树（父在前、子在后）
+        List<File> subtree = root.getIsFolder() ? collectSubtree(root, user) : new ArrayList<>();
+        subtree.add(0, root);
+        
+        // 子树中单独删除过的项目也在回收站中，物理位置需要分别清理
+        List<Path> trashPaths = new ArrayList<>();
+        List<Long> folderIds = new ArrayList<>();
+        long freedBytes = 0;
+        long freedFiles = 0;
+        for (File item : subtree) {
+            if (item.getDeletedAt() != null) {
+                trashPaths.add(Paths.get(item.getFilePath()));
+            }
+            if (item.getIsFolder()) {
+                folderIds.add(item.getId());
+                folderListingCache.evict(user.getId(), item.getId());
             } else {
-                Files.deleteIfExists(Paths.get(child.getFilePath()));
-                fileRepository.delete(child);
+                freedBytes += item.getFileSize() != null ? item.getFileSize() : 0;
+                freedFiles++;
+                storageAnalyticsService.recordRemoved(user.getId(), item.getFileType(), item.getFileSize());
             }
         }
+        // 上级文件夹的汇总在移入回收站时已经减去，这里只释放用户已用空间
+        storageUsageService.adjustUser(user.getId(), -freedBytes, -freedFiles);
+        storageUsageService.removeFolders(folderIds);
         
-        // 删除文件夹本身
-        Path folderPath = Paths.get(folder.getFilePath());
-        if (Files.exists(folderPath)) {
-            Files.delete(folderPath);
+        // 分批删除数据库记录，每批一次 JDBC 批量提交
+        for (int from = 0; from < subtree.size(); from += batchSize) {
+            List<File> batch = subtree.subList(from, Math.min(from + batchSize, subtree.size()));
+            fileRepository.deleteAll(batch);
+            fileIntegrityRepository.deleteAllByIdInBatch(batch.stream().map(File::getId).collect(Collectors.toList()));
+            entityManager.flush();
         }
-        fileRepository.delete(folder);
+        
+        for (Path path : trashPaths) {
+            deleteTree(path);
+        }
+        return subtree.size();
+    }
+    
+    void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    // 按层级查询文件夹下的所有后代（不含自身），每层一次查询，结果中父节点总在子节点之前
+    private List<File> collectSubtree(File folder, User user) {
+        List<File> result = new ArrayList<>();
+        List<Long> level = Collections.singletonList(folder.getId());
+        while (!level.isEmpty()) {
+            List<Long> nextLevel = new ArrayList<>();
+            for (int from = 0; from < level.size(); from += batchSize) {
+                List<Long> parentIds = level.subList(from, Math.min(from + batchSize, level.size()));
+                for (File child : fileRepository.findByUserAndParentIdIn(user, parentIds)) {
+                    result.add(child);
+                    if (child.getIsFolder()) {
+                        nextLevel.add(child.getId());
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        return result;
     }
 
+    @Transactional(readOnly = true)
     public Path getFilePath(Long id, User user) {
-        Optional<File> file = fileRepository.findByIdAndUser(id, user);
+        Optional<File> file = findOwnedFile(id, user);
         return file.map(value -> Paths.get(value.getFilePath())).orElse(null);
     }
     
     // 重命名文件或文件夹
+    @Transactional(rollbackFor = IOException.class)
     public File renameFile(Long id, String newName, User user) throws IOException {
-        Optional<File> fileOpt = fileRepository.findByIdAndUser(id, user);
+        clusterLeaseService.lockTree(user.getId());
+        Optional<File> fileOpt = findOwnedFile(id, user);
         if (!fileOpt.isPresent()) {
             throw new IOException("文件不存在");
         }
         
         File file = fileOpt.get();
+        clusterLeaseService.lockName(user.getId(), file.getParentId(), newName);
+        // 打包存储的文件不移动物理文件，不能依赖文件系统发现重名
+        if (!newName.equals(file.getFileName())
+                && fileRepository.existsByUserAndParentIdAndFileNameAndDeletedAtIsNull(user, file.getParentId(), newName)) {
+            throw new IOException("已存在同名文件");
+        }
         String oldPath = file.getFilePath();
         Path oldFilePath = Paths.get(oldPath);
         
         // 构建新路径
         Path newFilePath = oldFilePath.getParent().resolve(newName);
         
-        // 重命名物理文件/文件夹
-        Files.move(oldFilePath, newFilePath);
+        // 重命名物理文件/文件夹（打包存储的文件只修改记录）
+        if (!packStorageService.isPacked(file)) {
+            Files.move(oldFilePath, newFilePath);
+        }
+        fileContentCache.evict(oldFilePath);
         
         // 更新数据库
         file.setFileName(newName);
         file.setFilePath(newFilePath.toString());
         
-        // 更新path
-        String oldFileName = file.getPath().substring(file.getPath().lastIndexOf('/') + 1);
-        file.setPath(file.getPath().replace(oldFileName, newName));
+        // 更新path（只替换最后一段）
+        file.setPath(file.getPath().substring(0, file.getPath().lastIndexOf('/') + 1) + newName);
+        
+        // 文件夹重命名后，子项的路径也随之改变
+        if (file.getIsFolder()) {
+            updateChildrenPaths(file, user);
+        }
         
-        return fileRepository.save(file);
+        File saved = fileRepository.save(file);
+        folderListingCache.evict(user.getId(), file.getParentId());
+        return saved;
     }
     
     // 移动文件或文件夹到另一个文件夹
+    @Transactional(rollbackFor = IOException.class)
     public File moveFile(Long fileId, Long targetFolderId, User user) throws IOException {
-        Optional<File> fileOpt = fileRepository.findByIdAndUser(fileId, user);
+        clusterLeaseService.lockTree(user.getId());
+        Optional<File> fileOpt = findOwnedFile(fileId, user);
         if (!fileOpt.isPresent()) {
             throw new IOException("文件不存在");
         }
@@ -215,7 +687,7 @@ public class FileService {
         // 验证目标文件夹
         String newRelativePath = "/";
         if (targetFolderId != null) {
-            Optional<File> targetFolderOpt = fileRepository.findByIdAndUser(targetFolderId, user);
+            Optional<File> targetFolderOpt = findOwnedFile(targetFolderId, user);
             if (!targetFolderOpt.isPresent() || !targetFolderOpt.get().getIsFolder()) {
                 throw new IOException("目标文件夹不存在");
             }
@@ -229,6 +701,16 @@ public class FileService {
             }
         }
         
+        clusterLeaseService.lockName(user.getId(), targetFolderId, file.getFileName());
+        if (!Objects.equals(file.getParentId(), targetFolderId)
+                && fileRepository.existsByUserAndParentIdAndFileNameAndDeletedAtIsNull(user, targetFolderId, file.getFileName())) {
+            throw new IOException("目标文件夹中已存在同名文件");
+        }
+        
+        // 从原位置的上级汇总中减去，移动完成后加到新位置的上级
+        long[] stats = statsOf(file);
+        storageUsageService.adjustFolders(folderChain(file.getParentId()), -stats[0], -stats[1]);
+        
         // 移动物理文件/文件夹
         String oldPhysicalPath = file.getFilePath();
         String userDir = uploadDir + "/" + user.getId() + "/";
@@ -240,10 +722,14 @@ public class FileService {
         // 确保目标目录存在
         Files.createDirectories(newPath.getParent());
         
-        // 移动文件/文件夹
-        Files.move(oldPath, newPath);
+        // 移动文件/文件夹（打包存储的文件只修改记录）
+        if (!packStorageService.isPacked(file)) {
+            Files.move(oldPath, newPath);
+        }
+        fileContentCache.evict(oldPath);
         
         // 更新数据库
+        Long oldParentId = file.getParentId();
         file.setParentId(targetFolderId);
         file.setPath(newRelativePath + file.getFileName());
         file.setFilePath(newPhysicalPath);
@@ -253,53 +739,246 @@ public class FileService {
             updateChildrenPaths(file, user);
         }
         
-        return fileRepository.save(file);
+        File saved = fileRepository.save(file);
+        storageUsageService.adjustFolders(folderChain(targetFolderId), stats[0], stats[1]);
+        folderListingCache.evict(user.getId(), oldParentId);
+        folderListingCache.evict(user.getId(), targetFolderId);
+        return saved;
+    }
+    
+    // 复制文件或文件夹到另一个文件夹，重名时自动改名
+    @Transactional(rollbackFor = IOException.class)
+    public File copyFile(Long fileId, Long targetFolderId, User user) throws IOException {
+        clusterLeaseService.lockTree(user.getId());
+        File source = findOwnedFile(fileId, user).orElseThrow(() -> new IOException("文件不存在"));
+        
+        String userDir = uploadDir + "/" + user.getId() + "/";
+        String relativePath = "/";
+        if (targetFolderId != null) {
+            Optional<File> targetFolderOpt = findOwnedFile(targetFolderId, user);
+            if (!targetFolderOpt.isPresent() || !targetFolderOpt.get().getIsFolder()) {
+                throw new IOException("目标文件夹不存在");
+            }
+            relativePath = targetFolderOpt.get().getPath() + "/";
+            userDir += relativePath.substring(1);
+        }
+        if (source.getIsFolder() && targetFolderId != null
+                && (fileId.equals(targetFolderId) || isDescendant(targetFolderId, fileId, user))) {
+            throw new IOException("不能将文件夹复制到它自己或它的子文件夹中");
+        }
+        
+        String name = uniqueName(user, targetFolderId, source.getFileName());
+        File root = copyOf(source, name, targetFolderId, relativePath + name, userDir + name);
+        // 先取出整个子树，避免遍历时读到本次新建的记录
+        List<File> subtree = source.getIsFolder() ? collectSubtree(source, user) : Collections.emptyList();
+        
+        Path rootPath = Paths.get(root.getFilePath());
+        if (Files.exists(rootPath, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("目标位置已存在同名文件");
+        }
+        // 复制前按源的汇总预占配额（回收站中的后代不复制，也不计入汇总）
+        long[] stats = statsOf(source);
+        storageUsageService.reserve(user, stats[0], stats[1]);
+        
+        Files.createDirectories(rootPath.getParent());
+        List<File> copied = new ArrayList<>();
+        try {
+            copyContent(source, root);
+            // 主键由池化序列分配，save 时不会立即插入，按批刷新以使用 JDBC 批量插入
+            fileRepository.save(root);
+            copied.add(root);
+            
+            Map<Long, File> copies = new HashMap<>();
+            copies.put(source.getId(), root);
+            int pending = 1;
+            for (File child : subtree) {
+                // 回收站中的项目不复制，其后代随之跳过
+                File parent = child.getDeletedAt() == null ? copies.get(child.getParentId()) : null;
+                if (parent == null) {
+                    continue;
+                }
+                File copy = copyOf(child, child.getFileName(), parent.getId(),
+                        parent.getPath() + "/" + child.getFileName(), parent.getFilePath() + "/" + child.getFileName());
+                copyContent(child, copy);
+                fileRepository.save(copy);
+                copied.add(copy);
+                copies.put(child.getId(), copy);
+                if (++pending % batchSize == 0) {
+                    entityManager.flush();
+                }
+            }
+            entityManager.flush();
+        } catch (IOException | RuntimeException e) {
+            // 数据库回滚后不留下复制了一半的文件
+            deleteTree(rootPath);
+            throw e;
+        }
+        
+        // 子项总在父项之后，倒序遍历即可自底向上得到每个新文件夹的汇总
+        Map<Long, FolderStats> folderStats = new HashMap<>();
+        for (int i = copied.size() - 1; i >= 0; i--) {
+            File copy = copied.get(i);
+            long bytes = copy.getFileSize() != null ? copy.getFileSize() : 0;
+            long files = 1;
+            if (copy.getIsFolder()) {
+                FolderStats own = folderStats.computeIfAbsent(copy.getId(), id -> new FolderStats(id, 0, 0));
+                bytes = own.getTotalBytes();
+                files = own.getFileCount();
+            }
+            FolderStats parent = copy == root ? null
+                    : folderStats.computeIfAbsent(copy.getParentId(), id -> new FolderStats(id, 0, 0));
+            if (parent != null) {
+                parent.setTotalBytes(parent.getTotalBytes() + bytes);
+                parent.setFileCount(parent.getFileCount() + files);
+            }
+        }
+        storageUsageService.initFolders(folderStats.values());
+        storageUsageService.adjustFolders(folderChain(targetFolderId), stats[0], stats[1]);
+        for (File copy : copied) {
+            if (!copy.getIsFolder()) {
+                storageAnalyticsService.recordAdded(user.getId(), copy.getFileType(), copy.getFileSize());
+            }
+        }
+        
+        folderListingCache.evict(user.getId(), targetFolderId);
+        return root;
+    }
+    
+    private File copyOf(File source, String fileName, Long parentId, String path, String filePath) {
+        File copy = new File();
+        copy.setFileName(fileName);
+        copy.setFileType(source.getFileType());
+        copy.setFileSize(source.getFileSize());
+        copy.setChecksum(source.getChecksum());
+        // 同一用户的密钥，复制密文即可
+        copy.setEncrypted(source.getEncrypted());
+        copy.setFilePath(filePath);
+        copy.setUser(source.getUser());
+        copy.setIsFolder(source.getIsFolder());
+        copy.setParentId(parentId);
+        copy.setPath(path);
+        return copy;
+    }
+    
+    /**
+     * 复制物理内容。文件优先建立硬链接（不复制数据，耗时与大小无关），
+     * 文件系统不支持或跨设备时退回 FileChannel.transferTo（可由内核完成拷贝）。
+     * 上传覆盖总是写入临时文件后原子替换目录项，不会原地修改共享的数据，因此硬链接的副本互不影响。
+     */
+    private void copyContent(File source, File copy) throws IOException {
+        Path target = Paths.get(copy.getFilePath());
+        if (source.getIsFolder()) {
+            Files.createDirectories(target);
+            return;
+        }
+        if (packStorageService.isPacked(source)) {
+            packStorageService.copy(source, copy);
+            meterRegistry.counter("files.copied", "method", "pack").increment();
+            return;
+        }
+        Path sourcePath = Paths.get(source.getFilePath());
+        if (copyHardLinks) {
+            try {
+                Files.createLink(target, sourcePath);
+                meterRegistry.counter("files.copied", "method", "link").increment();
+                return;
+            } catch (FileAlreadyExistsException | NoSuchFileException e) {
+                throw e;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // 不支持硬链接（或跨文件系统），退回数据拷贝
+            }
+        }
+        try (FileChannel in = FileChannel.open(sourcePath, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        meterRegistry.counter("files.copied", "method", "transfer").increment();
+    }
+    
+    // 目标文件夹中已有同名项目时，生成 "name (1).ext" 形式的新名字
+    String uniqueName(User user, Long parentId, String fileName) throws IOException {
+        if (isNameFree(user, parentId, fileName)) {
+            return fileName;
+        }
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        for (int i = 1; ; i++) {
+            String candidate = base + " (" + i + ")" + extension;
+            if (isNameFree(user, parentId, candidate)) {
+                return candidate;
+            }
+        }
+    }
+    
+    // 集群模式下先占用名称再检查，选中的名称到事务结束前不会被其他节点使用
+    private boolean isNameFree(User user, Long parentId, String fileName) throws IOException {
+        clusterLeaseService.lockName(user.getId(), parentId, fileName);
+        return !fileRepository.existsByUserAndParentIdAndFileNameAndDeletedAtIsNull(user, parentId, fileName);
     }
     
     // 检查是否为子文件夹
     private boolean isDescendant(Long potentialDescendantId, Long ancestorId, User user) {
-        Optional<File> file = fileRepository.findByIdAndUser(potentialDescendantId, user);
+        Optional<File> file = findOwnedFile(potentialDescendantId, user);
         while (file.isPresent() && file.get().getParentId() != null) {
             if (file.get().getParentId().equals(ancestorId)) {
                 return true;
             }
-            file = fileRepository.findByIdAndUser(file.get().getParentId(), user);
+            file = findOwnedFile(file.get().getParentId(), user);
         }
         return false;
     }
     
-    // 递归更新子文件的路径
-    private void updateChildrenPaths(File folder, User user) throws IOException {
-        List<File> children = fileRepository.findByUserAndParentIdOrderByIsFolderDescUploadedAtDesc(user, folder.getId());
+    /**
+     * 更新子树中所有后代的路径。物理文件已随文件夹整体移动，这里只需更新元数据。
+     * 回收站中的后代物理上位于 .trash 下，保留其 filePath，只改写逻辑路径；
+     * 它们的后代按其原位置改写 filePath，恢复到新位置后即重新有效
+     */
+    void updateChildrenPaths(File folder, User user) {
+        // 文件夹ID → {原位置的物理路径, 逻辑路径}
+        Map<Long, String[]> folders = new HashMap<>();
+        folders.put(folder.getId(), new String[] {folder.getFilePath(), folder.getPath()});
+        folderListingCache.evict(user.getId(), folder.getId());
         
-        for (File child : children) {
-            String oldPath = child.getFilePath();
-            String newPath = folder.getFilePath() + "/" + child.getFileName();
-            
-            // 移动物理文件
-            Files.move(Paths.get(oldPath), Paths.get(newPath));
-            
-            // 更新数据库
-            child.setFilePath(newPath);
-            child.setPath(folder.getPath() + "/" + child.getFileName());
-            fileRepository.save(child);
-            
-            // 如果是文件夹，递归更新
+        int pending = 0;
+        for (File child : collectSubtree(folder, user)) {
+            String[] parent = folders.get(child.getParentId());
+            String filePath = parent[0] + "/" + child.getFileName();
+            child.setPath(parent[1] + "/" + child.getFileName());
+            if (child.getDeletedAt() == null) {
+                child.setFilePath(filePath);
+            }
             if (child.getIsFolder()) {
-                updateChildrenPaths(child, user);
+                folders.put(child.getId(), new String[] {filePath, child.getPath()});
+                folderListingCache.evict(user.getId(), child.getId());
+            }
+            // 实体处于托管状态，脏检查会生成 UPDATE，按批刷新
+            if (++pending % batchSize == 0) {
+                entityManager.flush();
             }
         }
+        entityManager.flush();
     }
     
     // 创建文件夹
+    @Transactional(rollbackFor = IOException.class)
     public File createFolder(String folderName, User user, Long parentId) throws IOException {
+        clusterLeaseService.lockName(user.getId(), parentId, folderName);
+        if (fileRepository.existsByUserAndParentIdAndFileNameAndDeletedAtIsNull(user, parentId, folderName)) {
+            throw new IOException("同名文件或文件夹已存在");
+        }
+        
         // Create user-specific directory
         String userDir = uploadDir + "/" + user.getId() + "/";
         
         // 如果有父文件夹，获取父文件夹路径
         String relativePath = "/";
         if (parentId != null) {
-            Optional<File> parentFolder = fileRepository.findByIdAndUser(parentId, user);
+            Optional<File> parentFolder = findOwnedFile(parentId, user);
             if (parentFolder.isPresent() && parentFolder.get().getIsFolder()) {
                 relativePath = parentFolder.get().getPath() + "/";
                 userDir += relativePath.substring(1); // 移除开头的/
@@ -321,30 +1000,90 @@ public class FileService {
         folderEntity.setParentId(parentId);
         folderEntity.setPath(relativePath + folderName);
         
-        return fileRepository.save(folderEntity);
+        File saved = fileRepository.save(folderEntity);
+        storageUsageService.initFolder(saved.getId(), 0, 0);
+        folderListingCache.evict(user.getId(), parentId);
+        return saved;
     }
     
     // 获取指定文件夹下的文件和子文件夹
-    public List<File> getFilesInFolder(User user, Long parentId) {
-        if (parentId == null) {
-            // 获取根目录下的文件
-            return fileRepository.findByUserAndParentIdIsNullOrderByIsFolderDescUploadedAtDesc(user);
-        } else {
-            return fileRepository.findByUserAndParentIdOrderByIsFolderDescUploadedAtDesc(user, parentId);
+    @Transactional(readOnly = true)
+    public List<FileDTO> getFilesInFolder(User user, Long parentId) {
+        return folderListingCache.get(user.getId(), parentId, () -> {
+            if (parentId == null) {
+                // 获取根目录下的文件
+                return fileRepository.findRootListing(user.getId());
+            } else {
+                return fileRepository.findFolderListing(user.getId(), parentId);
+            }
+        });
+    }
+    
+    /**
+     * 以 rootId（null 为根目录）为根、最多 depth 层的子树，一次递归查询取出。
+     * 结果按层级排序，上级总在下级之前出现，一次遍历即可挂到各自的父节点上
+     */
+    @Transactional(readOnly = true)
+    public FileTree getTree(User user, Long rootId, int depth, boolean foldersOnly) throws IOException {
+        if (rootId != null && !findOwnedFile(rootId, user).filter(File::getIsFolder).isPresent()) {
+            throw new IOException("文件夹不存在");
         }
+        depth = Math.max(1, Math.min(depth, treeMaxDepth));
+        List<FileRepository.TreeRow> rows = rootId == null
+                ? fileRepository.findRootTree(user.getId(), depth, foldersOnly, treeMaxNodes + 1)
+                : fileRepository.findFolderTree(user.getId(), rootId, depth, foldersOnly, treeMaxNodes + 1);
+        boolean truncated = rows.size() > treeMaxNodes;
+        
+        List<FileTreeNode> children = new ArrayList<>();
+        Map<Long, FileTreeNode> nodes = new HashMap<>();
+        for (FileRepository.TreeRow row : rows.subList(0, Math.min(rows.size(), treeMaxNodes))) {
+            FileTreeNode node = new FileTreeNode(new FileDTO(row.getId(), row.getFileName(), row.getFileType(),
+                    row.getFileSize(), row.getUploadedAt(), row.getIsFolder(), row.getParentId(), row.getPath(), null));
+            if (node.getChildren() != null) {
+                nodes.put(row.getId(), node);
+            }
+            if (row.getDepth() == 1) {
+                children.add(node);
+            } else {
+                nodes.get(row.getParentId()).getChildren().add(node);
+            }
+        }
+        return new FileTree(rootId, depth, truncated, children);
     }
     
     // 读取文本文件内容
+    @Transactional(readOnly = true)
     public String readTextFileContent(Long id, User user) throws IOException {
-        Optional<File> file = fileRepository.findByIdAndUser(id, user);
+        Optional<File> file = findOwnedFile(id, user);
         if (file.isPresent() && !file.get().getIsFolder()) {
+            if (packStorageService.isPacked(file.get())) {
+                // 打包存储的文件不超过打包阈值，直接读入内存
+                if (file.get().getFileSize() > 1024 * 1024) {
+                    throw new IOException("文件过大，无法在线预览");
+                }
+                return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(packStorageService.read(file.get()))).toString();
+            }
             Path filePath = Paths.get(file.get().getFilePath());
+            boolean encrypted = Boolean.TRUE.equals(file.get().getEncrypted());
+            // 热点文件直接从内容缓存中解码，不访问磁盘
+            ByteBuffer cached = fileContentCache.get(filePath, user.getId(), encrypted);
+            if (cached != null) {
+                if (cached.remaining() > 1024 * 1024) {
+                    throw new IOException("文件过大，无法在线预览");
+                }
+                return StandardCharsets.UTF_8.newDecoder().decode(cached).toString();
+            }
             if (Files.exists(filePath)) {
                 // 限制文件大小，避免读取过大文件
-                if (Files.size(filePath) > 1024 * 1024) { // 1MB
+                if (fileEncryptionService.contentLength(filePath, encrypted) > 1024 * 1024) { // 1MB
                     throw new IOException("文件过大，无法在线预览");
                 }
-                return Files.readString(filePath);
+                if (!encrypted) {
+                    return Files.readString(filePath);
+                }
+                try (InputStream in = fileEncryptionService.open(filePath, user.getId(), true)) {
+                    return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(in.readAllBytes())).toString();
+                }
             }
         }
         throw new IOException("文件不存在或无法读取");
@@ -0,0 +1,76 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.dto.FileDTO;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 文件夹列表缓存，键为 (userId, parentId)，parentId 为 null 表示根目录。值为投影查询得到的 FileDTO 列表。
+ * 由 FileService 中的修改操作精确失效（集群模式下同时通知其他节点），统计信息通过 /actuator/metrics/cache.gets 查看。
+ */
+@Component
+public class FolderListingCache {
+
+    public static final String CACHE_NAME = "folderListings";
+
+    private final CacheManager cacheManager;
+    private final ClusterEventBus clusterEventBus;
+
+    public FolderListingCache(CacheManager cacheManager, ClusterEventBus clusterEventBus) {
+        this.cacheManager = cacheManager;
+        this.clusterEventBus = clusterEventBus;
+        // 其他节点发出的键为 userId:parentId
+        clusterEventBus.subscribe(ClusterEventBus.LISTING, key -> {
+            int separator = key.indexOf(':');
+            String parentId = key.substring(separator + 1);
+            cache().evict(new SimpleKey(Long.valueOf(key.substring(0, separator)),
+                    "null".equals(parentId) ? null : Long.valueOf(parentId)));
+        });
+    }
+
+    /**
+     * 未命中时在 Caffeine 的原子计算中加载并放入缓存，同一个键的失效会等待加载完成，
+     * 提交前读到的旧列表不会在提交后的失效之后放回缓存
+     */
+    public List<FileDTO> get(Long userId, Long parentId, Supplier<List<FileDTO>> loader) {
+        try {
+            return cache().get(new SimpleKey(userId, parentId), () -> Collections.unmodifiableList(loader.get()));
+        } catch (Cache.ValueRetrievalException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public void evict(Long userId, Long parentId) {
+        SimpleKey key = new SimpleKey(userId, parentId);
+        cache().evict(key);
+        clusterEventBus.publish(ClusterEventBus.LISTING, userId + ":" + parentId);
+        // 事务中修改时，提交后再失效一次，防止并发读取把旧数据重新放回缓存
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache().evict(key);
+                }
+            });
+        }
+    }
+
+    private Cache cache() {
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        if (cache == null) {
+            throw new IllegalStateException("Cache not configured: " + CACHE_NAME);
+        }
+        return cache;
+    }
+}
@@ -0,0 +1,252 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.model.File;
+import com.cloudstorage.model.FileIntegrity;
+import com.cloudstorage.model.IntegrityStatus;
+import com.cloudstorage.model.MaintenanceCursor;
+import com.cloudstorage.repository.FileIntegrityRepository;
+import com.cloudstorage.repository.FileRepository;
+import com.cloudstorage.repository.MaintenanceCursorRepository;
+import com.cloudstorage.util.Checksums;
+import com.cloudstorage.util.ChunkedAesGcm;
+import com.cloudstorage.util.ThrottledInputStream;
+import com.cloudstorage.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 后台完整性校验：按文件ID顺序持续扫描，重新计算磁盘上文件的校验和并与上传时记录的比对。
+ * - 多个工作线程并行读取，所有线程共享一个字节速率上限，避免与用户流量争抢 I/O
+ * - 扫描进度保存在 maintenance_cursors 表中，重启后继续
+ * - 结果写入 file_integrity 表，通过 /api/admin/integrity 和 integrity.* 指标查看
+ */
+@Slf4j
+@Service
+public class IntegrityScrubber {
+
+    static final String CURSOR_NAME = "integrity-scrub";
+
+    private final FileRepository fileRepository;
+    private final FileIntegrityRepository fileIntegrityRepository;
+    private final MaintenanceCursorRepository cursorRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final FileService fileService;
+    private final FileEncryptionService fileEncryptionService;
+    private final PackStorageService packStorageService;
+    private final ClusterLeaseService clusterLeaseService;
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final ExecutorService workers;
+    private final TokenBucket ioBudget;
+
+    private final Counter verifiedCounter;
+    private final Counter bytesCounter;
+    private final AtomicLong corruptCount = new AtomicLong();
+    private final AtomicLong missingCount = new AtomicLong();
+
+    public IntegrityScrubber(FileRepository fileRepository,
+                             FileIntegrityRepository fileIntegrityRepository,
+                             MaintenanceCursorRepository cursorRepository,
+                             TransactionTemplate transactionTemplate,
+                             FileService fileService,
+                             FileEncryptionService fileEncryptionService,
+                             PackStorageService packStorageService,
+                             ClusterLeaseService clusterLeaseService,
+                             MeterRegistry meterRegistry,
+                             @Value("${integrity.scrub.enabled:true}") boolean enabled,
+                             @Value("${integrity.scrub.batch-size:100}") int batchSize,
+                             @Value("${integrity.scrub.workers:2}") int workers,
+                             @Value("${integrity.scrub.max-bytes-per-second:20971520}") long maxBytesPerSecond) {
+        this.fileRepository = fileRepository;
+        this.fileIntegrityRepository = fileIntegrityRepository;
+        this.cursorRepository = cursorRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.fileService = fileService;
+        this.fileEncryptionService = fileEncryptionService;
+        this.packStorageService = packStorageService;
+        this.clusterLeaseService = clusterLeaseService;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "integrity-scrub");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.ioBudget = new TokenBucket(maxBytesPerSecond, maxBytesPerSecond);
+
+        this.verifiedCounter = meterRegistry.counter("integrity.scrub.verified");
+        this.bytesCounter = meterRegistry.counter("integrity.scrub.bytes");
+        Gauge.builder("integrity.files", corruptCount, AtomicLong::get)
+                .tag("status", "corrupt").register(meterRegistry);
+        Gauge.builder("integrity.files", missingCount, AtomicLong::get)
+                .tag("status", "missing").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    // 每次处理一批文件，处理完立即保存游标
+    @Scheduled(fixedDelayString = "${integrity.scrub.interval-ms:10000}", initialDelayString = "${integrity.scrub.initial-delay-ms:60000}")
+    public void scrubNextBatch() {
+        if (enabled) {
+            // 游标是共享的，集群模式下同一时间只有一个节点推进
+            clusterLeaseService.runExclusive(CURSOR_NAME, this::scrubBatch);
+        }
+    }
+
+    private void scrubBatch() {
+        MaintenanceCursor cursor = cursorRepository.findById(CURSOR_NAME).orElseGet(() -> {
+            MaintenanceCursor created = new MaintenanceCursor();
+            created.setName(CURSOR_NAME);
+            return created;
+        });
+
+        List<File> batch = fileRepository.findByIdGreaterThanAndIsFolderFalseOrderByIdAsc(
+                cursor.getPosition(), PageRequest.of(0, batchSize));
+        if (batch.isEmpty()) {
+            // 一轮扫描完成，从头开始
+            cursor.setPosition(0L);
+            cursor.setPasses(cursor.getPasses() + 1);
+            cursorRepository.save(cursor);
+            refreshCounts();
+            return;
+        }
+
+        List<Future<FileIntegrity>> results = new ArrayList<>(batch.size());
+        for (File file : batch) {
+            results.add(workers.submit(() -> verify(file)));
+        }
+        List<FileIntegrity> checked = new ArrayList<>(batch.size());
+        for (Future<FileIntegrity> result : results) {
+            try {
+                checked.add(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.warn("完整性校验失败: {}", e.getCause().getMessage());
+            }
+        }
+
+        cursor.setPosition(batch.get(batch.size() - 1).getId());
+        transactionTemplate.executeWithoutResult(status -> {
+            saveResults(batch, checked);
+            cursorRepository.save(cursor);
+        });
+        refreshCounts();
+    }
+
+    /**
+     * 校验单个文件并返回结果（不保存）
+     */
+    public FileIntegrity verify(File file) throws IOException {
+        FileIntegrity integrity = new FileIntegrity();
+        integrity.setFileId(file.getId());
+        integrity.setVerifiedAt(LocalDateTime.now());
+
+        Path path = Paths.get(file.getFilePath());
+        MessageDigest digest = Checksums.newDigest();
+        // 加密文件解密后按明文计算校验和，同时校验每一块的认证标签
+        boolean encrypted = Boolean.TRUE.equals(file.getEncrypted());
+        // 打包存储的文件从打包文件中按偏移读取
+        try (InputStream in = new ThrottledInputStream(packStorageService.isPacked(file) ? packStorageService.open(file)
+                : fileEncryptionService.open(path, file.getUser().getId(), encrypted), ioBudget)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+                bytesCounter.increment(n);
+            }
+        } catch (NoSuchFileException e) {
+            integrity.setStatus(IntegrityStatus.MISSING);
+            verifiedCounter.increment();
+            return integrity;
+        } catch (ChunkedAesGcm.CorruptChunkException | EOFException e) {
+            integrity.setStatus(IntegrityStatus.CORRUPT);
+            verifiedCounter.increment();
+            return integrity;
+        }
+        integrity.setActualChecksum(Checksums.toHex(digest));
+        integrity.setStatus(file.getChecksum() == null || file.getChecksum().equals(integrity.getActualChecksum())
+                ? IntegrityStatus.OK : IntegrityStatus.CORRUPT);
+        verifiedCounter.increment();
+        return integrity;
+    }
+
+    private void saveResults(List<File> batch, List<FileIntegrity> checked) {
+        Map<Long, File> scanned = batch.stream().collect(Collectors.toMap(File::getId, Function.identity()));
+        for (FileIntegrity integrity : checked) {
+            File snapshot = scanned.get(integrity.getFileId());
+            File file = fileRepository.findById(integrity.getFileId()).orElse(null);
+            // 校验期间文件被删除、重新上传或移动，本次结果作废，下一轮再校验
+            if (file == null || !Objects.equals(file.getChecksum(), snapshot.getChecksum())
+                    || !Objects.equals(file.getFilePath(), snapshot.getFilePath())) {
+                continue;
+            }
+            // 位于已删除文件夹下的文件物理位置已随文件夹移入回收站
+            if (integrity.getStatus() == IntegrityStatus.MISSING && fileService.isInTrash(file)) {
+                continue;
+            }
+            if (file.getChecksum() == null && integrity.getActualChecksum() != null) {
+                // 早期上传的文件没有校验和，以首次校验结果为准
+                file.setChecksum(integrity.getActualChecksum());
+            }
+            if (integrity.getStatus() != IntegrityStatus.OK) {
+                log.warn("文件完整性异常: id={}, path={}, status={}", file.getId(), file.getFilePath(), integrity.getStatus());
+            }
+            fileIntegrityRepository.save(integrity);
+        }
+    }
+
+    public List<FileIntegrity> findIssues(IntegrityStatus status, int limit) {
+        return fileIntegrityRepository.findByStatusOrderByVerifiedAtDesc(status, PageRequest.of(0, limit));
+    }
+
+    public Map<String, Object> summary() {
+        MaintenanceCursor cursor = cursorRepository.findById(CURSOR_NAME).orElse(null);
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("corrupt", fileIntegrityRepository.countByStatus(IntegrityStatus.CORRUPT));
+        summary.put("missing", fileIntegrityRepository.countByStatus(IntegrityStatus.MISSING));
+        summary.put("cursor", cursor != null ? cursor.getPosition() : 0L);
+        summary.put("completedPasses", cursor != null ? cursor.getPasses() : 0L);
+        return summary;
+    }
+
+    private void refreshCounts() {
+        corruptCount.set(fileIntegrityRepository.countByStatus(IntegrityStatus.CORRUPT));
+        missingCount.set(fileIntegrityRepository.countByStatus(IntegrityStatus.MISSING));
+    }
+}
@@ -0,0 +1,655 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.model.File;
+import com.cloudstorage.model.FilePack;
+import com.cloudstorage.repository.FilePackRepository;
+import com.cloudstorage.repository.FileRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 小文件打包存储：不超过 file.pack.threshold-bytes 的文件追加写入 file.upload-dir/.packs 下的大文件，
+ * File 上记录所在打包文件的ID、偏移和长度，不再为每个小文件占用一个 inode 和目录项。
+ * - 每个节点只向自己打开的一个打包文件追加（写满 file.pack.max-bytes 后换新），写入是一次定位写，不单独 fsync（与普通上传一致）
+ * - 读取使用缓存的只读 FileChannel 按偏移定位读，小文件整体读入内存；加密文件存储密文，读取后在内存中解密
+ * - 条目从不共享：复制时重新追加一份，删除时只删除记录，打包文件中的数据成为垃圾
+ * - 压缩任务把垃圾比例超过 file.pack.compaction.min-garbage-ratio 的打包文件中仍被引用的连续区间复制到新的打包文件，
+ *   按区间整体更新偏移，旧文件标记为退役，超过宽限期后删除（正在按旧位置读取的请求、签名链接不受影响）
+ * - 本节点写入条目的事务结束前，该打包文件不压缩；删除退役文件前确认没有记录仍引用它（之后才提交的事务），
+ *   有则再次复制并重新开始宽限期
+ * 指标：pack.appended（条目数、字节数）、pack.reads、pack.compaction.*
+ */
+@Slf4j
+@Service
+public class PackStorageService {
+
+    private static final String LOCATOR_PREFIX = "pack:";
+
+    private final FileRepository fileRepository;
+    private final FilePackRepository filePackRepository;
+    private final FileEncryptionService fileEncryptionService;
+    private final ClusterNodeRegistry clusterNodeRegistry;
+    private final ClusterLeaseService clusterLeaseService;
+    private final ClusterEventBus clusterEventBus;
+    private final TransactionTemplate requiresNew;
+
+    private final Path packDir;
+    private final boolean enabled;
+    private final long thresholdBytes;
+    private final long maxBytes;
+    private final double minGarbageRatio;
+    private final long minAgeMinutes;
+    private final long retiredGraceMinutes;
+
+    // 上传、复制和解压使用的打包文件；压缩任务使用自己的，复制出的数据不与新上传的混在一起
+    private final PackWriter writer = new PackWriter(true);
+    private final PackWriter compactionWriter = new PackWriter(false);
+    private final Map<Long, FileChannel> readers = new ConcurrentHashMap<>();
+    // 打包文件ID → 本节点写入了条目、尚未结束的事务数
+    private final Map<Long, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter appendedCounter;
+    private final Counter appendedBytesCounter;
+    private final Counter readCounter;
+    private final Counter compactedCounter;
+    private final Counter relocatedBytesCounter;
+    private final Counter reclaimedBytesCounter;
+
+    public PackStorageService(FileRepository fileRepository,
+                              FilePackRepository filePackRepository,
+                              FileEncryptionService fileEncryptionService,
+                              ClusterNodeRegistry clusterNodeRegistry,
+                              ClusterLeaseService clusterLeaseService,
+                              ClusterEventBus clusterEventBus,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry,
+                              @Value("${file.upload-dir:./uploads}") String uploadDir,
+                              @Value("${file.pack.enabled:true}") boolean enabled,
+                              @Value("${file.pack.threshold-bytes:65536}") long thresholdBytes,
+                              @Value("${file.pack.max-bytes:268435456}") long maxBytes,
+                              @Value("${file.pack.compaction.min-garbage-ratio:0.5}") double minGarbageRatio,
+                              @Value("${file.pack.compaction.min-age-minutes:10}") long minAgeMinutes,
+                              @Value("${file.pack.compaction.retired-grace-minutes:60}") long retiredGraceMinutes) {
+        this.fileRepository = fileRepository;
+        this.filePackRepository = filePackRepository;
+        this.fileEncryptionService = fileEncryptionService;
+        this.clusterNodeRegistry = clusterNodeRegistry;
+        this.clusterLeaseService = clusterLeaseService;
+        this.clusterEventBus = clusterEventBus;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.packDir = Paths.get(uploadDir, ".packs");
+        this.enabled = enabled;
+        this.thresholdBytes = thresholdBytes;
+        this.maxBytes = Math.max(maxBytes, thresholdBytes);
+        this.minGarbageRatio = minGarbageRatio;
+        this.minAgeMinutes = minAgeMinutes;
+        this.retiredGraceMinutes = retiredGraceMinutes;
+
+        this.appendedCounter = meterRegistry.counter("pack.appended");
+        this.appendedBytesCounter = meterRegistry.counter("pack.appended.bytes");
+        this.readCounter = meterRegistry.counter("pack.reads");
+        this.compactedCounter = meterRegistry.counter("pack.compaction.packs");
+        this.relocatedBytesCounter = meterRegistry.counter("pack.compaction.relocated.bytes");
+        this.reclaimedBytesCounter = meterRegistry.counter("pack.compaction.reclaimed.bytes");
+    }
+
+    /**
+     * 封存本节点上次运行时打开的打包文件：末尾可能有未提交事务写入的数据，不再追加，由压缩回收
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(packDir);
+        List<FilePack> open = requiresNew.execute(status ->
+                filePackRepository.findByNodeAndSealedAtIsNull(clusterNodeRegistry.getNodeId()));
+        for (FilePack pack : open) {
+            Path path = path(pack.getId());
+            seal(pack.getId(), Files.exists(path) ? Files.size(path) : 0);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.close();
+        compactionWriter.close();
+        readers.values().forEach(this::closeQuietly);
+        readers.clear();
+    }
+
+    // 新写入的文件是否打包存储
+    public boolean accepts(long size) {
+        return enabled && size >= 0 && size <= thresholdBytes;
+    }
+
+    public boolean isPacked(File file) {
+        return file.getPackId() != null;
+    }
+
+    /**
+     * 读取全部内容（调用方保证不超过阈值），encryptFor 不为 null 时使用该用户的密钥加密，
+     * 追加到打包文件并在 file 上记录位置。所在事务回滚时写入的数据成为垃圾。
+     * 在事务之外写入（上传先写内容、后保存记录）时，保存记录的事务结束后调用方需要调用 release
+     */
+    public void store(File file, InputStream content, Long encryptFor) throws IOException {
+        byte[] stored;
+        try (InputStream in = content) {
+            if (encryptFor == null) {
+                stored = in.readAllBytes();
+            } else {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                try (OutputStream out = fileEncryptionService.encrypt(buffer, encryptFor)) {
+                    in.transferTo(out);
+                }
+                stored = buffer.toByteArray();
+            }
+        }
+        place(file, stored);
+    }
+
+    // 复制存储内容（密文原样复制，同一用户的密钥），副本有自己的条目
+    public void copy(File source, File copy) throws IOException {
+        place(copy, readStored(source));
+    }
+
+    // 内容改为普通文件存储（覆盖上传了大文件），原条目成为垃圾
+    public void clear(File file) {
+        file.setPackId(null);
+        file.setPackOffset(null);
+        file.setPackLength(null);
+    }
+
+    // 暂存条目的位置写到要保存的记录上
+    public void assign(File file, File staged) {
+        file.setPackId(staged.getPackId());
+        file.setPackOffset(staged.getPackOffset());
+        file.setPackLength(staged.getPackLength());
+    }
+
+    /**
+     * 在事务之外写入的条目：记录已提交或已放弃，该打包文件可以压缩了。没有写入打包文件时不做任何事
+     */
+    public void release(File staged) {
+        if (staged.getPackId() != null) {
+            release(staged.getPackId());
+        }
+    }
+
+    private void place(File file, byte[] stored) throws IOException {
+        long[] location = writer.append(ByteBuffer.wrap(stored));
+        file.setPackId(location[0]);
+        file.setPackOffset(location[1]);
+        file.setPackLength((long) stored.length);
+        appendedCounter.increment();
+        appendedBytesCounter.increment(stored.length);
+        // 写入时已计数，事务结束（提交或回滚）后释放；不在事务中时由调用方 release
+        long packId = location[0];
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                release(packId);
+            }
+        });
+    }
+
+    private void release(long packId) {
+        inFlight.computeIfPresent(packId, (id, count) -> count.decrementAndGet() > 0 ? count : null);
+    }
+
+    private boolean hasInFlight(long packId) {
+        return inFlight.containsKey(packId);
+    }
+
+    // 明文内容
+    public InputStream open(File file) throws IOException {
+        return fileEncryptionService.open(readStored(file), file.getUser().getId(), Boolean.TRUE.equals(file.getEncrypted()));
+    }
+
+    public byte[] read(File file) throws IOException {
+        try (InputStream in = open(file)) {
+            return in.readAllBytes();
+        }
+    }
+
+    // 存储的内容（加密文件为密文）
+    private byte[] readStored(File file) throws IOException {
+        try {
+            return read(file.getPackId(), file.getPackOffset(), file.getPackLength());
+        } catch (NoSuchFileException | ClosedChannelException e) {
+            // 实体是压缩前的旧位置（二级缓存或长事务），旧打包文件已删除，按主键重新查询
+            FileRepository.PackEntryNode current = fileRepository.findPackLocation(file.getId())
+                    .filter(location -> location.getPackId() != null)
+                    .orElseThrow(() -> new NoSuchFileException("打包文件中不存在该文件: " + file.getId()));
+            return read(current.getPackId(), current.getPackOffset(), current.getPackLength());
+        }
+    }
+
+    /**
+     * 签名下载链接中使用的位置（pack:文件ID:打包文件ID:偏移:长度），校验时不需要查询数据库；
+     * 链接有效期远短于退役宽限期，期间被压缩的文件仍可从旧位置读取
+     */
+    public String locator(File file) {
+        return LOCATOR_PREFIX + file.getId() + ":" + file.getPackId() + ":" + file.getPackOffset() + ":" + file.getPackLength();
+    }
+
+    public boolean isLocator(String storagePath) {
+        return storagePath.startsWith(LOCATOR_PREFIX);
+    }
+
+    // 按位置读取明文内容，encryptedFor 为加密文件所属用户的ID
+    public byte[] read(String locator, Long encryptedFor) throws IOException {
+        String[] parts = locator.substring(LOCATOR_PREFIX.length()).split(":");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("非法的存储路径");
+        }
+        byte[] stored;
+        try {
+            stored = read(Long.valueOf(parts[1]), Long.valueOf(parts[2]), Long.valueOf(parts[3]));
+        } catch (NoSuchFileException | ClosedChannelException e) {
+            FileRepository.PackEntryNode current = fileRepository.findPackLocation(Long.valueOf(parts[0]))
+                    .filter(location -> location.getPackId() != null)
+                    .orElseThrow(() -> new NoSuchFileException("打包文件中不存在该文件: " + parts[0]));
+            stored = read(current.getPackId(), current.getPackOffset(), current.getPackLength());
+        }
+        try (InputStream in = fileEncryptionService.open(stored, encryptedFor, encryptedFor != null)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private byte[] read(long packId, long offset, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(length));
+        FileChannel channel = reader(packId);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("打包文件长度不足: " + packId);
+            }
+        }
+        readCounter.increment();
+        return buffer.array();
+    }
+
+    private FileChannel reader(long packId) throws IOException {
+        try {
+            return readers.computeIfAbsent(packId, id -> {
+                try {
+                    return FileChannel.open(path(id), StandardOpenOption.READ);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 打包文件是否完整包含该文件的条目（对账使用）
+     */
+    public boolean isPresent(File file) {
+        try {
+            return Files.size(path(file.getPackId())) >= file.getPackOffset() + file.getPackLength();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Path path(long packId) {
+        return packDir.resolve(packId + ".pack");
+    }
+
+    private void seal(long packId, long size) {
+        requiresNew.executeWithoutResult(status -> filePackRepository.seal(packId, size, LocalDateTime.now()));
+    }
+
+    private void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    /**
+     * 本节点打开的一个打包文件。写入在对象锁内按当前位置定位写；写满时在锁外创建新的打包文件记录并封存旧的，
+     * 持有锁期间不访问数据库，写入线程不会因等待连接而互相阻塞
+     */
+    private class PackWriter {
+
+        // 是否记录未结束的写入事务（压缩复制在自己的事务中立即更新位置，不需要）
+        private final boolean tracked;
+        private long packId;
+        private FileChannel channel;
+        private long position;
+
+        PackWriter(boolean tracked) {
+            this.tracked = tracked;
+        }
+
+        long[] append(ByteBuffer data) throws IOException {
+            long length = data.remaining();
+            return write(length, (target, offset) -> {
+                ByteBuffer source = data.duplicate();
+                while (source.hasRemaining()) {
+                    target.write(source, offset + (length - source.remaining()));
+                }
+            });
+        }
+
+        // 把另一个打包文件中的一段整体复制过来（压缩），由内核完成拷贝
+        long[] transfer(FileChannel source, long start, long length) throws IOException {
+            return write(length, (target, offset) -> {
+                long copied = 0;
+                while (copied < length) {
+                    long n = source.transferTo(start + copied, length - copied, target.position(offset + copied));
+                    if (n <= 0) {
+                        throw new EOFException("打包文件长度不足");
+                    }
+                    copied += n;
+                }
+            });
+        }
+
+        private long[] write(long length, PackWrite action) throws IOException {
+            while (true) {
+                FileChannel full;
+                synchronized (this) {
+                    if (channel != null && (position == 0 || position + length <= maxBytes)) {
+                        long offset = position;
+                        action.write(channel, offset);
+                        position = offset + length;
+                        if (tracked) {
+                            // 在锁内计数：换新封存的打包文件不会漏掉刚写入的条目
+                            inFlight.computeIfAbsent(packId, id -> new AtomicInteger()).incrementAndGet();
+                        }
+                        return new long[] {packId, offset};
+                    }
+                    full = channel;
+                }
+                FilePack created = new FilePack();
+                created.setNode(clusterNodeRegistry.getNodeId());
+                FilePack pack = requiresNew.execute(status -> filePackRepository.save(created));
+                FileChannel opened = FileChannel.open(path(pack.getId()),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                long sealedId = 0;
+                long sealedSize = 0;
+                boolean swapped = false;
+                synchronized (this) {
+                    if (channel == full) {
+                        sealedId = packId;
+                        sealedSize = position;
+                        packId = pack.getId();
+                        channel = opened;
+                        position = 0;
+                        swapped = true;
+                    }
+                }
+                if (!swapped) {
+                    // 其他线程已经换了新的打包文件
+                    closeQuietly(opened);
+                    Files.deleteIfExists(path(pack.getId()));
+                    requiresNew.executeWithoutResult(status -> filePackRepository.deleteById(pack.getId()));
+                } else if (full != null) {
+                    full.force(false);
+                    full.close();
+                    seal(sealedId, sealedSize);
+                }
+            }
+        }
+
+        synchronized void force() throws IOException {
+            if (channel != null) {
+                channel.force(false);
+            }
+        }
+
+        void close() {
+            FileChannel current;
+            long id;
+            long size;
+            synchronized (this) {
+                current = channel;
+                id = packId;
+                size = position;
+                channel = null;
+            }
+            if (current == null) {
+                return;
+            }
+            try {
+                current.force(false);
+                current.close();
+                seal(id, size);
+            } catch (IOException | RuntimeException e) {
+                // 下次启动时按文件长度封存
+                log.warn("封存打包文件失败: id={}, {}", id, e.getMessage());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface PackWrite {
+        void write(FileChannel target, long offset) throws IOException;
+    }
+
+    @Scheduled(fixedDelayString = "${file.pack.compaction.interval-ms:600000}",
+            initialDelayString = "${file.pack.compaction.initial-delay-ms:120000}")
+    public void scheduledCompaction() {
+        // 其他节点删除的打包文件，本节点缓存的只读通道仍占用磁盘空间
+        readers.entrySet().removeIf(entry -> {
+            if (Files.exists(path(entry.getKey()))) {
+                return false;
+            }
+            closeQuietly(entry.getValue());
+            return true;
+        });
+        // 集群模式下由一个节点执行
+        clusterLeaseService.runExclusive("pack-compaction", this::compact);
+    }
+
+    /**
+     * 立即执行一轮压缩（管理接口），其他节点正在执行时返回 null
+     */
+    public Map<String, Object> compactNow() {
+        AtomicReference<Map<String, Object>> result = new AtomicReference<>();
+        clusterLeaseService.runExclusive("pack-compaction", () -> result.set(compact()));
+        return result.get();
+    }
+
+    private synchronized Map<String, Object> compact() {
+        int deleted = deleteRetired();
+        // 封存后等待 min-age 再压缩：本节点未结束的写入事务单独跳过，min-age 用于其他节点写入的打包文件
+        List<FilePack> candidates = filePackRepository.findBySealedAtBeforeAndRetiredAtIsNullOrderByIdAsc(
+                LocalDateTime.now().minusMinutes(minAgeMinutes));
+        Map<Long, FileRepository.PackUsage> usage = usage();
+        int compacted = 0;
+        long relocated = 0;
+        long reclaimed = 0;
+        for (FilePack pack : candidates) {
+            if (hasInFlight(pack.getId())) {
+                continue;
+            }
+            FileRepository.PackUsage used = usage.get(pack.getId());
+            long live = used != null ? used.getLiveBytes() : 0;
+            if (pack.getSizeBytes() > 0 && (pack.getSizeBytes() - live) < pack.getSizeBytes() * minGarbageRatio) {
+                continue;
+            }
+            try {
+                compactPack(pack);
+                compacted++;
+                relocated += live;
+                reclaimed += pack.getSizeBytes() - live;
+            } catch (IOException | RuntimeException e) {
+                log.warn("压缩打包文件失败: id={}, {}", pack.getId(), e.getMessage());
+            }
+        }
+        compactedCounter.increment(compacted);
+        relocatedBytesCounter.increment(relocated);
+        reclaimedBytesCounter.increment(reclaimed);
+        if (compacted > 0 || deleted > 0) {
+            log.info("打包文件压缩完成: 压缩 {} 个，复制 {} 字节，回收 {} 字节，删除退役文件 {} 个",
+                    compacted, relocated, reclaimed, deleted);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("compactedPacks", compacted);
+        result.put("relocatedBytes", relocated);
+        result.put("reclaimedBytes", reclaimed);
+        result.put("deletedRetiredPacks", deleted);
+        return result;
+    }
+
+    /**
+     * 把仍被引用的条目按偏移合并为连续区间，逐段复制到压缩用的打包文件并落盘，
+     * 再在一个事务中按区间更新偏移（每段一条 UPDATE）并把旧文件标记为退役
+     */
+    private void compactPack(FilePack pack) throws IOException {
+        List<FileRepository.PackEntryNode> entries = fileRepository.findPackEntries(pack.getId());
+        List<long[]> runs = new ArrayList<>();
+        for (FileRepository.PackEntryNode entry : entries) {
+            long start = entry.getPackOffset();
+            long end = start + entry.getPackLength();
+            long[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && last[1] == start) {
+                last[1] = end;
+            } else {
+                runs.add(new long[] {start, end});
+            }
+        }
+        List<long[]> moves = new ArrayList<>(runs.size());
+        if (!runs.isEmpty()) {
+            try (FileChannel source = FileChannel.open(path(pack.getId()), StandardOpenOption.READ)) {
+                for (long[] run : runs) {
+                    long[] location = compactionWriter.transfer(source, run[0], run[1] - run[0]);
+                    moves.add(new long[] {run[0], run[1], location[0], location[1] - run[0]});
+                }
+            }
+            compactionWriter.force();
+        }
+        requiresNew.executeWithoutResult(status -> {
+            for (long[] move : moves) {
+                fileRepository.relocatePackRange(pack.getId(), move[0], move[1], move[2], move[3]);
+            }
+            filePackRepository.retire(pack.getId(), LocalDateTime.now());
+            clusterEventBus.publishEntities(File.class,
+                    entries.stream().map(FileRepository.PackEntryNode::getId).collect(Collectors.toList()));
+        });
+    }
+
+    /**
+     * 删除超过宽限期的退役打包文件。压缩后才提交的事务写入的记录仍指向旧文件，
+     * 这时把这些条目再复制一次（重新标记退役，宽限期重新开始），本轮不删除
+     */
+    private int deleteRetired() {
+        List<FilePack> retired = filePackRepository.findByRetiredAtBefore(
+                LocalDateTime.now().minusMinutes(retiredGraceMinutes));
+        int deleted = 0;
+        for (FilePack pack : retired) {
+            if (hasInFlight(pack.getId())) {
+                continue;
+            }
+            if (!fileRepository.findPackEntries(pack.getId()).isEmpty()) {
+                log.warn("退役打包文件仍被引用，重新复制: id={}", pack.getId());
+                try {
+                    compactPack(pack);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("复制退役打包文件失败: id={}, {}", pack.getId(), e.getMessage());
+                }
+                continue;
+            }
+            FileChannel channel = readers.remove(pack.getId());
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+            try {
+                Files.deleteIfExists(path(pack.getId()));
+                requiresNew.executeWithoutResult(status -> filePackRepository.deleteById(pack.getId()));
+                deleted++;
+            } catch (IOException | RuntimeException e) {
+                log.warn("删除退役打包文件失败: id={}, {}", pack.getId(), e.getMessage());
+            }
+        }
+        return deleted;
+    }
+
+    private Map<Long, FileRepository.PackUsage> usage() {
+        return fileRepository.findPackUsage().stream()
+                .collect(Collectors.toMap(FileRepository.PackUsage::getPackId, Function.identity()));
+    }
+
+    // 打包文件概况：文件数、总大小、仍被引用的条目和字节数
+    public Map<String, Object> stats() {
+        Map<Long, FileRepository.PackUsage> usage = usage();
+        long open = 0;
+        long sealed = 0;
+        long retired = 0;
+        long totalBytes = 0;
+        for (FilePack pack : filePackRepository.findAll()) {
+            if (pack.getRetiredAt() != null) {
+                retired++;
+                continue;
+            }
+            if (pack.getSealedAt() == null) {
+                open++;
+                try {
+                    totalBytes += Files.size(path(pack.getId()));
+                } catch (IOException e) {
+                    // 其他节点刚创建或已丢失
+                }
+            } else {
+                sealed++;
+                totalBytes += pack.getSizeBytes();
+            }
+        }
+        long liveEntries = usage.values().stream().mapToLong(FileRepository.PackUsage::getEntries).sum();
+        long liveBytes = usage.values().stream().mapToLong(FileRepository.PackUsage::getLiveBytes).sum();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", enabled);
+        result.put("thresholdBytes", thresholdBytes);
+        result.put("maxBytes", maxBytes);
+        result.put("openPacks", open);
+        result.put("sealedPacks", sealed);
+        result.put("retiredPacks", retired);
+        result.put("totalBytes", totalBytes);
+        result.put("liveEntries", liveEntries);
+        result.put("liveBytes", liveBytes);
+        result.put("garbageRatio", totalBytes > 0 ? Math.round((1 - (double) liveBytes / totalBytes) * 1000) / 1000.0 : 0);
+        return result;
+    }
+}
@@ -0,0 +1,11 @@
+package com.cloudstorage.service;
+
+/**
+ * 超出用户存储配额，对应 413
+ */
+public class QuotaExceededException extends RuntimeException {
+
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,100 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.config.RateLimitProperties;
+import com.cloudstorage.model.User;
+import com.cloudstorage.repository.UserRepository;
+import com.cloudstorage.util.ThrottledInputStream;
+import com.cloudstorage.util.TokenBucket;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * 每个用户的令牌桶限流：请求速率、上传带宽、下载带宽。
+ * 带宽限制在流拷贝过程中按读取的字节数执行，而不是直接拒绝请求。
+ */
+@Service
+@RequiredArgsConstructor
+public class RateLimitService {
+
+    private final RateLimitProperties properties;
+    private final UserRepository userRepository;
+
+    // 闲置一段时间的用户桶会被回收，等级变更在回收后生效
+    private final LoadingCache<String, UserBuckets> buckets = Caffeine.newBuilder()
+            .expireAfterAccess(Duration.ofMinutes(10))
+            .maximumSize(100_000)
+            .build(this::createBuckets);
+
+    /**
+     * 尝试为一次请求获取令牌
+     * @return 0 表示放行，否则为建议的重试等待纳秒数
+     */
+    public long tryAcquireRequest(String username) {
+        if (!properties.isEnabled()) {
+            return 0;
+        }
+        TokenBucket bucket = buckets.get(username).requests;
+        return bucket != null ? bucket.tryAcquire(1) : 0;
+    }
+
+    public InputStream throttleUpload(String username, InputStream in) {
+        TokenBucket bucket = properties.isEnabled() ? buckets.get(username).upload : null;
+        return bucket != null ? new ThrottledInputStream(in, bucket) : in;
+    }
+
+    public InputStream throttleDownload(String username, InputStream in) {
+        TokenBucket bucket = properties.isEnabled() ? buckets.get(username).download : null;
+        return bucket != null ? new ThrottledInputStream(in, bucket) : in;
+    }
+
+    // 用户的下载带宽（字节/秒），0 表示不限制
+    public long downloadBytesPerSecond(String username) {
+        if (!properties.isEnabled()) {
+            return 0;
+        }
+        String tierName = userRepository.findByUsername(username).map(User::getTier).orElse(null);
+        return properties.tier(tierName).getDownloadBytesPerSecond();
+    }
+
+    // 下载使用的 Resource，读取时按用户下载带宽限速（Range 请求同样适用）
+    public Resource throttledResource(String username, Path path) {
+        return new FileSystemResource(path) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return throttleDownload(username, super.getInputStream());
+            }
+        };
+    }
+
+    private UserBuckets createBuckets(String username) {
+        String tierName = userRepository.findByUsername(username).map(User::getTier).orElse(null);
+        RateLimitProperties.Tier tier = properties.tier(tierName);
+        UserBuckets userBuckets = new UserBuckets();
+        if (tier.getRequestsPerSecond() > 0) {
+            long burst = Math.max(tier.getRequestBurst(), tier.getRequestsPerSecond());
+            userBuckets.requests = new TokenBucket(burst, tier.getRequestsPerSecond());
+        }
+        if (tier.getUploadBytesPerSecond() > 0) {
+            userBuckets.upload = new TokenBucket(tier.getUploadBytesPerSecond(), tier.getUploadBytesPerSecond());
+        }
+        if (tier.getDownloadBytesPerSecond() > 0) {
+            userBuckets.download = new TokenBucket(tier.getDownloadBytesPerSecond(), tier.getDownloadBytesPerSecond());
+        }
+        return userBuckets;
+    }
+
+    private static class UserBuckets {
+        private TokenBucket requests;
+        private TokenBucket upload;
+        private TokenBucket download;
+    }
+}
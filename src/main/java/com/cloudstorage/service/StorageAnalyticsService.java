@@ -0,0 +1,282 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.dto.RollupEntryDTO;
+import com.cloudstorage.model.RollupDimension;
+import com.cloudstorage.model.StorageRollup;
+import com.cloudstorage.model.StorageRollupId;
+import com.cloudstorage.model.User;
+import com.cloudstorage.repository.FileRepository;
+import com.cloudstorage.repository.StorageRollupRepository;
+import com.cloudstorage.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 存储分析汇总（storage_rollups）：按文件类型、大小区间和日期统计每个用户的字节数和文件数。
+ * - FileService 的修改操作把增量记在当前事务上，提交后合并到内存中的待写入表，定期批量写入（同一键的多次修改合并为一次 UPDATE）
+ * - 读取只查询汇总表，全局数据在汇总表上分组，不扫描 files 表；未刷新的增量最多延迟 analytics.flush-interval-ms
+ * - 进程崩溃会丢失未写入的增量，重建任务定期按 files 表重新计算类型和大小区间（每日增长无法重建，保留原值）
+ */
+@Slf4j
+@Service
+public class StorageAnalyticsService {
+
+    private static final int CHUNK_SIZE = 500;
+    private static final int MAX_BUCKET_LENGTH = 128;
+    private static final String UNKNOWN_TYPE = "unknown";
+
+    // 大小区间的上界（不含）及名称，最后一个区间没有上界
+    private static final long[] SIZE_BOUNDS = {4L << 10, 64L << 10, 1L << 20, 16L << 20, 256L << 20, 1L << 30};
+    private static final List<String> SIZE_BUCKETS = Arrays.asList(
+            "<4KB", "4KB-64KB", "64KB-1MB", "1MB-16MB", "16MB-256MB", "256MB-1GB", ">=1GB");
+
+    private final StorageRollupRepository rollupRepository;
+    private final FileRepository fileRepository;
+    private final UserRepository userRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate requiresNew;
+    private final ClusterLeaseService clusterLeaseService;
+
+    @Value("${analytics.daily-retention-days:400}")
+    private int dailyRetentionDays;
+
+    // 已提交、尚未写入数据库的增量：{bytes, files}。数组只在 compute 中修改，取出时整体 remove
+    private final Map<StorageRollupId, long[]> pending = new ConcurrentHashMap<>();
+
+    public StorageAnalyticsService(StorageRollupRepository rollupRepository,
+                                   FileRepository fileRepository,
+                                   UserRepository userRepository,
+                                   EntityManager entityManager,
+                                   PlatformTransactionManager transactionManager,
+                                   ClusterLeaseService clusterLeaseService,
+                                   MeterRegistry meterRegistry) {
+        this.rollupRepository = rollupRepository;
+        this.fileRepository = fileRepository;
+        this.userRepository = userRepository;
+        this.entityManager = entityManager;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.clusterLeaseService = clusterLeaseService;
+        meterRegistry.gaugeMapSize("analytics.rollups.pending", Tags.empty(), pending);
+    }
+
+    public void recordAdded(Long userId, String fileType, Long size) {
+        record(userId, fileType, size, 1);
+    }
+
+    public void recordRemoved(Long userId, String fileType, Long size) {
+        record(userId, fileType, size, -1);
+    }
+
+    private void record(Long userId, String fileType, Long size, int sign) {
+        long bytes = size != null ? size : 0;
+        Map<StorageRollupId, long[]> deltas = transactionDeltas();
+        add(deltas, new StorageRollupId(userId, RollupDimension.TYPE, typeBucket(fileType)), sign * bytes, sign);
+        add(deltas, new StorageRollupId(userId, RollupDimension.SIZE, sizeBucket(bytes)), sign * bytes, sign);
+        add(deltas, new StorageRollupId(userId, RollupDimension.DAY, LocalDate.now().toString()), sign * bytes, sign);
+    }
+
+    // 当前事务的增量，提交后才合并到待写入表，回滚时丢弃；不在事务中时直接记入待写入表
+    private Map<StorageRollupId, long[]> transactionDeltas() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return pending;
+        }
+        @SuppressWarnings("unchecked")
+        Map<StorageRollupId, long[]> deltas = (Map<StorageRollupId, long[]>) TransactionSynchronizationManager.getResource(this);
+        if (deltas == null) {
+            Map<StorageRollupId, long[]> created = new HashMap<>();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(StorageAnalyticsService.this);
+                    if (status == STATUS_COMMITTED) {
+                        created.forEach((id, delta) -> add(pending, id, delta[0], delta[1]));
+                    }
+                }
+            });
+            deltas = created;
+        }
+        return deltas;
+    }
+
+    private static void add(Map<StorageRollupId, long[]> deltas, StorageRollupId id, long bytes, long files) {
+        deltas.compute(id, (key, delta) -> {
+            long[] sum = delta != null ? delta : new long[2];
+            sum[0] += bytes;
+            sum[1] += files;
+            return sum;
+        });
+    }
+
+    private static String typeBucket(String fileType) {
+        if (fileType == null || fileType.isBlank()) {
+            return UNKNOWN_TYPE;
+        }
+        String type = fileType.trim().toLowerCase();
+        return type.length() > MAX_BUCKET_LENGTH ? type.substring(0, MAX_BUCKET_LENGTH) : type;
+    }
+
+    private static String sizeBucket(long size) {
+        for (int i = 0; i < SIZE_BOUNDS.length; i++) {
+            if (size < SIZE_BOUNDS[i]) {
+                return SIZE_BUCKETS.get(i);
+            }
+        }
+        return SIZE_BUCKETS.get(SIZE_BOUNDS.length);
+    }
+
+    /**
+     * 把待写入的增量写入汇总表：先原子累加，记录不存在时再插入。
+     * 按键排序后写入，多个节点同时刷新时加锁顺序一致；写入失败（如其他节点同时插入同一行）时放回，下次重试
+     */
+    @Scheduled(fixedDelayString = "${analytics.flush-interval-ms:10000}", initialDelayString = "${analytics.flush-interval-ms:10000}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<StorageRollupId, long[]> batch = new HashMap<>();
+        for (StorageRollupId id : new ArrayList<>(pending.keySet())) {
+            long[] delta = pending.remove(id);
+            if (delta != null && (delta[0] != 0 || delta[1] != 0)) {
+                batch.put(id, delta);
+            }
+        }
+        List<StorageRollupId> ids = batch.keySet().stream()
+                .sorted(Comparator.comparing(StorageRollupId::getUserId)
+                        .thenComparing(StorageRollupId::getDimension)
+                        .thenComparing(StorageRollupId::getBucket))
+                .collect(Collectors.toList());
+        try {
+            for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+                List<StorageRollupId> chunk = ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()));
+                requiresNew.executeWithoutResult(status -> {
+                    for (StorageRollupId id : chunk) {
+                        long[] delta = batch.get(id);
+                        if (rollupRepository.increment(id.getUserId(), id.getDimension(), id.getBucket(), delta[0], delta[1]) == 0) {
+                            entityManager.persist(new StorageRollup(id, delta[0], delta[1]));
+                        }
+                    }
+                });
+                chunk.forEach(batch::remove);
+            }
+        } catch (RuntimeException e) {
+            log.warn("写入存储分析汇总失败，稍后重试: {}", e.getMessage());
+            batch.forEach((id, delta) -> add(pending, id, delta[0], delta[1]));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * 分析数据：按类型（字节数降序）、大小区间、最近 days 天的每日净增长；
+     * 不指定用户时返回全局数据和增长最多的用户
+     */
+    public Map<String, Object> report(Long userId, int days, int topUsers) {
+        String since = LocalDate.now().minusDays(Math.max(days, 1) - 1L).toString();
+        List<RollupEntryDTO> byType = entries(userId, RollupDimension.TYPE, "");
+        byType.sort(Comparator.comparing(RollupEntryDTO::getBytes).reversed());
+        List<RollupEntryDTO> bySize = entries(userId, RollupDimension.SIZE, "");
+        bySize.sort(Comparator.comparingInt(entry -> SIZE_BUCKETS.indexOf(entry.getKey())));
+
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("userId", userId);
+        data.put("byType", byType);
+        data.put("sizeHistogram", bySize);
+        data.put("dailyGrowth", entries(userId, RollupDimension.DAY, since));
+        if (userId == null) {
+            data.put("topGrowth", rollupRepository.findTopGrowth(since, PageRequest.of(0, Math.max(topUsers, 1))));
+        }
+        return data;
+    }
+
+    private List<RollupEntryDTO> entries(Long userId, RollupDimension dimension, String from) {
+        List<RollupEntryDTO> entries = userId != null
+                ? rollupRepository.findByUser(userId, dimension, from)
+                : rollupRepository.findGlobal(dimension, from);
+        // 增量相互抵消后留下的空行不返回
+        return entries.stream()
+                .filter(entry -> entry.getBytes() != 0 || entry.getFiles() != 0)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * 按 files 表重新计算一个用户的类型和大小区间汇总（一次流式读取该用户的文件）。
+     * 先写入待写入的增量，重新计算期间不再刷新，避免同一增量被计算两次
+     */
+    public synchronized void rebuild(Long userId) {
+        flush();
+        requiresNew.executeWithoutResult(status -> {
+            Map<StorageRollupId, long[]> sums = new HashMap<>();
+            try (Stream<FileRepository.FileTypeNode> files = fileRepository.streamTypesByUser(userId)) {
+                files.forEach(file -> {
+                    long size = file.getFileSize() != null ? file.getFileSize() : 0;
+                    add(sums, new StorageRollupId(userId, RollupDimension.TYPE, typeBucket(file.getFileType())), size, 1);
+                    add(sums, new StorageRollupId(userId, RollupDimension.SIZE, sizeBucket(size)), size, 1);
+                });
+            }
+            rollupRepository.deleteByUser(userId, EnumSet.of(RollupDimension.TYPE, RollupDimension.SIZE));
+            int inserted = 0;
+            for (Map.Entry<StorageRollupId, long[]> entry : sums.entrySet()) {
+                entityManager.persist(new StorageRollup(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+                if (++inserted % CHUNK_SIZE == 0) {
+                    entityManager.flush();
+                }
+            }
+        });
+    }
+
+    // 重建任务：逐个用户重建，并清理超过保留期的每日增长记录
+    @Scheduled(cron = "${analytics.rebuild.cron:0 0 5 * * SUN}")
+    public void scheduledRebuild() {
+        // 集群模式下由一个节点执行；增量的定期写入（flush）每个节点各自执行
+        clusterLeaseService.runExclusive("analytics-rebuild", this::rebuildAll);
+    }
+
+    public void rebuildAll() {
+        int page = 0;
+        Page<User> users;
+        do {
+            users = userRepository.findAll(PageRequest.of(page++, CHUNK_SIZE));
+            for (User user : users) {
+                try {
+                    rebuild(user.getId());
+                } catch (RuntimeException e) {
+                    log.warn("重建存储分析汇总失败: userId={}, {}", user.getId(), e.getMessage());
+                }
+            }
+        } while (users.hasNext());
+        String cutoff = LocalDate.now().minusDays(dailyRetentionDays).toString();
+        Integer removed = requiresNew.execute(status -> rollupRepository.deleteDaysBefore(cutoff));
+        log.info("存储分析汇总重建完成，清理每日记录 {} 条", removed);
+    }
+}
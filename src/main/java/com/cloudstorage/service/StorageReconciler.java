@@ -0,0 +1,397 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.model.File;
+import com.cloudstorage.model.FileIntegrity;
+import com.cloudstorage.model.IntegrityStatus;
+import com.cloudstorage.model.MaintenanceCursor;
+import com.cloudstorage.repository.FileIntegrityRepository;
+import com.cloudstorage.repository.FileRepository;
+import com.cloudstorage.repository.MaintenanceCursorRepository;
+import com.cloudstorage.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 磁盘与数据库的增量对账：
+ * - 磁盘 → 数据库：按用户目录顺序遍历 file.upload-dir（不含 .tmp、.trash 等内部目录），每批路径查询一次数据库，
+ *   没有对应记录的文件（孤儿文件）移入 .quarantine 隔离区，超过保留期后删除以回收空间。
+ *   重命名、移动时文件先移到新位置再提交数据库，修改时间保持不变，因此不能按修改时间判断；
+ *   孤儿文件第一次出现时只记下来，连续两轮都是孤儿、且距第一次发现超过 grace-minutes 才隔离
+ * - 数据库 → 磁盘：按主键分页扫描 files 表，磁盘上不存在的记录在 file_integrity 中标记为 MISSING
+ * 两边都只按批处理，不会把整棵目录树或整张表加载到内存；进度保存在 maintenance_cursors 表中。
+ */
+@Slf4j
+@Service
+public class StorageReconciler {
+
+    static final String DISK_CURSOR = "reconcile-disk";
+    static final String DB_CURSOR = "reconcile-db";
+    static final String QUARANTINE_DIR = ".quarantine";
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final FileRepository fileRepository;
+    private final FileIntegrityRepository fileIntegrityRepository;
+    private final MaintenanceCursorRepository cursorRepository;
+    private final FileService fileService;
+    private final PackStorageService packStorageService;
+    private final ClusterLeaseService clusterLeaseService;
+
+    private final boolean enabled;
+    private final String uploadDir;
+    private final Path uploadRoot;
+    private final int batchSize;
+    private final int maxFilesPerRun;
+    private final Duration gracePeriod;
+    private final int quarantineRetentionDays;
+    private final TokenBucket ioBudget;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    // 上一轮和本轮发现的疑似孤儿文件，键为路径。只在内存中保存，重启或换节点执行后重新观察一轮
+    private final Map<Path, Suspect> suspects = new HashMap<>();
+    private volatile Map<String, Object> lastReport = new LinkedHashMap<>();
+
+    private final Counter orphanCounter;
+    private final Counter danglingCounter;
+    private final Counter reclaimedBytes;
+
+    public StorageReconciler(FileRepository fileRepository,
+                             FileIntegrityRepository fileIntegrityRepository,
+                             MaintenanceCursorRepository cursorRepository,
+                             FileService fileService,
+                             PackStorageService packStorageService,
+                             ClusterLeaseService clusterLeaseService,
+                             MeterRegistry meterRegistry,
+                             @Value("${file.upload-dir:./uploads}") String uploadDir,
+                             @Value("${reconcile.enabled:true}") boolean enabled,
+                             @Value("${reconcile.batch-size:500}") int batchSize,
+                             @Value("${reconcile.max-files-per-run:100000}") int maxFilesPerRun,
+                             @Value("${reconcile.max-files-per-second:2000}") long maxFilesPerSecond,
+                             @Value("${reconcile.grace-minutes:60}") long graceMinutes,
+                             @Value("${reconcile.quarantine-retention-days:7}") int quarantineRetentionDays) {
+        this.fileRepository = fileRepository;
+        this.fileIntegrityRepository = fileIntegrityRepository;
+        this.cursorRepository = cursorRepository;
+        this.fileService = fileService;
+        this.packStorageService = packStorageService;
+        this.clusterLeaseService = clusterLeaseService;
+        this.uploadDir = uploadDir;
+        this.uploadRoot = Paths.get(uploadDir);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.maxFilesPerRun = maxFilesPerRun;
+        this.gracePeriod = Duration.ofMinutes(graceMinutes);
+        this.quarantineRetentionDays = quarantineRetentionDays;
+        this.ioBudget = new TokenBucket(maxFilesPerSecond, maxFilesPerSecond);
+
+        this.orphanCounter = meterRegistry.counter("reconcile.orphans.quarantined");
+        this.danglingCounter = meterRegistry.counter("reconcile.rows.dangling");
+        this.reclaimedBytes = meterRegistry.counter("reconcile.reclaimed.bytes");
+    }
+
+    @Scheduled(fixedDelayString = "${reconcile.interval-ms:3600000}", initialDelayString = "${reconcile.initial-delay-ms:300000}")
+    public void scheduledRun() {
+        if (enabled) {
+            clusterLeaseService.runExclusive("reconcile", this::run);
+        }
+    }
+
+    /**
+     * 执行一轮对账，已有一轮在执行时直接返回上一次的结果
+     */
+    public Map<String, Object> run() {
+        if (!running.compareAndSet(false, true)) {
+            return lastReport;
+        }
+        try {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("startedAt", LocalDateTime.now());
+            report.put("orphansQuarantined", reconcileDisk());
+            report.put("danglingRows", reconcileDatabase());
+            report.put("quarantineBytesReclaimed", purgeQuarantine());
+            report.put("finishedAt", LocalDateTime.now());
+            lastReport = report;
+            log.info("存储对账完成: {}", report);
+            return report;
+        } catch (IOException e) {
+            log.error("存储对账失败: {}", e.getMessage(), e);
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("error", e.getMessage());
+            lastReport = report;
+            return report;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public Map<String, Object> lastReport() {
+        return lastReport;
+    }
+
+    // 磁盘 → 数据库。用户目录按ID顺序处理，每轮最多处理 maxFilesPerRun 个文件，下轮从游标处继续
+    private int reconcileDisk() throws IOException {
+        MaintenanceCursor cursor = loadCursor(DISK_CURSOR);
+        TreeSet<Long> userDirs = new TreeSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(uploadRoot)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                // 跳过 .tmp、.quarantine 等内部目录
+                if (Files.isDirectory(entry) && name.chars().allMatch(Character::isDigit)) {
+                    userDirs.add(Long.parseLong(name));
+                }
+            }
+        }
+
+        OrphanCollector collector = new OrphanCollector(cursor.getPasses());
+        Long userId = userDirs.higher(cursor.getPosition());
+        while (userId != null && collector.visited < maxFilesPerRun) {
+            Files.walkFileTree(uploadRoot.resolve(String.valueOf(userId)), collector);
+            collector.flush();
+            cursor.setPosition(userId);
+            userId = userDirs.higher(userId);
+        }
+        if (userId == null) {
+            // 本轮没有再次出现的疑似孤儿已被删除、移走或补上了记录
+            suspects.values().removeIf(suspect -> suspect.pass < cursor.getPasses());
+            cursor.setPosition(0L);
+            cursor.setPasses(cursor.getPasses() + 1);
+        }
+        cursorRepository.save(cursor);
+        return collector.quarantined;
+    }
+
+    // 数据库 → 磁盘。按主键分页，磁盘上不存在的记录标记为 MISSING
+    private int reconcileDatabase() {
+        MaintenanceCursor cursor = loadCursor(DB_CURSOR);
+        int checked = 0;
+        int dangling = 0;
+        while (checked < maxFilesPerRun) {
+            List<File> batch = fileRepository.findByIdGreaterThanOrderByIdAsc(
+                    cursor.getPosition(), PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                cursor.setPosition(0L);
+                cursor.setPasses(cursor.getPasses() + 1);
+                break;
+            }
+            for (File file : batch) {
+                throttle();
+                Path path = Paths.get(file.getFilePath());
+                // 打包存储的文件检查所在打包文件是否完整包含该条目
+                boolean present = file.getIsFolder() ? Files.isDirectory(path)
+                        : packStorageService.isPacked(file) ? packStorageService.isPresent(file) : Files.isRegularFile(path);
+                // 位于已删除文件夹下的项目物理位置已随文件夹移入回收站
+                if (!present && !fileService.isInTrash(file) && markMissing(file)) {
+                    dangling++;
+                }
+            }
+            checked += batch.size();
+            cursor.setPosition(batch.get(batch.size() - 1).getId());
+            cursorRepository.save(cursor);
+        }
+        cursorRepository.save(cursor);
+        danglingCounter.increment(dangling);
+        return dangling;
+    }
+
+    private boolean markMissing(File file) {
+        FileIntegrity existing = fileIntegrityRepository.findById(file.getId()).orElse(null);
+        if (existing != null && existing.getStatus() == IntegrityStatus.MISSING) {
+            return false;
+        }
+        FileIntegrity integrity = existing != null ? existing : new FileIntegrity();
+        integrity.setFileId(file.getId());
+        integrity.setStatus(IntegrityStatus.MISSING);
+        integrity.setActualChecksum(null);
+        integrity.setVerifiedAt(LocalDateTime.now());
+        fileIntegrityRepository.save(integrity);
+        log.warn("数据库记录对应的文件不存在: id={}, path={}", file.getId(), file.getFilePath());
+        return true;
+    }
+
+    // 删除超过保留期的隔离目录（按日期分目录）
+    private long purgeQuarantine() throws IOException {
+        Path quarantine = uploadRoot.resolve(QUARANTINE_DIR);
+        if (!Files.isDirectory(quarantine)) {
+            return 0;
+        }
+        LocalDate expiry = LocalDate.now().minusDays(quarantineRetentionDays);
+        long reclaimed = 0;
+        try (DirectoryStream<Path> days = Files.newDirectoryStream(quarantine)) {
+            for (Path day : days) {
+                try {
+                    if (LocalDate.parse(day.getFileName().toString(), DAY).isBefore(expiry)) {
+                        reclaimed += deleteTree(day);
+                    }
+                } catch (DateTimeParseException e) {
+                    // 不是隔离区生成的目录，忽略
+                }
+            }
+        }
+        reclaimedBytes.increment(reclaimed);
+        return reclaimed;
+    }
+
+    private long deleteTree(Path root) throws IOException {
+        long[] bytes = {0};
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                bytes[0] += attrs.size();
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return bytes[0];
+    }
+
+    private MaintenanceCursor loadCursor(String name) {
+        return cursorRepository.findById(name).orElseGet(() -> {
+            MaintenanceCursor cursor = new MaintenanceCursor();
+            cursor.setName(name);
+            return cursor;
+        });
+    }
+
+    private void throttle() {
+        try {
+            ioBudget.acquire(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 疑似孤儿文件：第一次发现时所在的轮次和时间，fileKey 不同说明路径上已经换成了另一个文件
+    private static class Suspect {
+        final long pass;
+        final Instant seenAt;
+        final Object fileKey;
+
+        Suspect(long pass, Instant seenAt, Object fileKey) {
+            this.pass = pass;
+            this.seenAt = seenAt;
+            this.fileKey = fileKey;
+        }
+    }
+
+    /**
+     * 遍历用户目录，攒够一批路径后查询一次数据库。没有记录的文件先记为疑似孤儿，
+     * 前一轮已经记录过的才移入隔离区
+     */
+    private class OrphanCollector extends SimpleFileVisitor<Path> {
+
+        private final Map<Path, Object> pending = new LinkedHashMap<>();
+        private final long pass;
+        private final Instant cutoff = Instant.now().minus(gracePeriod);
+        private int visited;
+        private int quarantined;
+
+        OrphanCollector(long pass) {
+            this.pass = pass;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            throttle();
+            visited++;
+            if (attrs.isRegularFile()) {
+                pending.put(file, attrs.fileKey());
+                if (pending.size() >= batchSize) {
+                    flush();
+                }
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+            log.warn("无法访问文件: {} ({})", file, e.getMessage());
+            return FileVisitResult.CONTINUE;
+        }
+
+        void flush() throws IOException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            Set<String> paths = new HashSet<>();
+            for (Path path : pending.keySet()) {
+                paths.addAll(storedForms(path));
+            }
+            Set<String> known = new HashSet<>(fileRepository.findExistingFilePaths(paths));
+            for (Map.Entry<Path, Object> entry : pending.entrySet()) {
+                Path path = entry.getKey();
+                if (storedForms(path).stream().anyMatch(known::contains)) {
+                    suspects.remove(path);
+                    continue;
+                }
+                Suspect suspect = suspects.get(path);
+                if (suspect == null || !Objects.equals(suspect.fileKey, entry.getValue())) {
+                    // 第一次发现（或换成了另一个文件），下一轮仍没有记录时再处理；数量受每轮处理上限约束
+                    if (suspect != null || suspects.size() < maxFilesPerRun) {
+                        suspects.put(path, new Suspect(pass, Instant.now(), entry.getValue()));
+                    }
+                } else if (suspect.pass < pass && suspect.seenAt.isBefore(cutoff)) {
+                    quarantine(path);
+                    suspects.remove(path);
+                    quarantined++;
+                }
+            }
+            pending.clear();
+        }
+
+        // FileService 上传时按字符串拼接 uploadDir，重命名时使用 Path.toString()，两种写法都要匹配
+        private List<String> storedForms(Path file) {
+            String relative = uploadRoot.relativize(file).toString().replace(java.io.File.separatorChar, '/');
+            List<String> forms = new ArrayList<>(2);
+            forms.add(file.toString());
+            forms.add(uploadDir + "/" + relative);
+            return forms;
+        }
+
+        private void quarantine(Path file) throws IOException {
+            Path target = uploadRoot.resolve(QUARANTINE_DIR)
+                    .resolve(LocalDate.now().format(DAY))
+                    .resolve(uploadRoot.relativize(file));
+            Files.createDirectories(target.getParent());
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            orphanCounter.increment();
+            log.warn("孤儿文件已移入隔离区: {} -> {}", file, target);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.model.FolderStats;
+import com.cloudstorage.model.User;
+import com.cloudstorage.model.UserStorage;
+import com.cloudstorage.repository.FileRepository;
+import com.cloudstorage.repository.FolderStatsRepository;
+import com.cloudstorage.repository.UserRepository;
+import com.cloudstorage.repository.UserStorageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 文件夹汇总（folder_stats）和用户已用空间/配额（user_storage）。
+ * - 由 FileService 的各个修改操作增量维护，都是按主键的原子 UPDATE，读取是一次主键查询
+ * - 配额预占在独立的短事务中执行，外层事务（上传）回滚时自动归还，避免在写入文件期间持有行锁
+ * - 记录缺失（功能上线前的数据）时按用户重新计算；修复任务定期重新计算所有用户
+ */
+@Slf4j
+@Service
+public class StorageUsageService {
+
+    private static final int CHUNK_SIZE = 500;
+    private static final String QUOTA_EXCEEDED = "存储空间不足，请清理回收站或删除不需要的文件";
+
+    private final FolderStatsRepository folderStatsRepository;
+    private final UserStorageRepository userStorageRepository;
+    private final FileRepository fileRepository;
+    private final UserRepository userRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate requiresNew;
+    private final ClusterLeaseService clusterLeaseService;
+    private final long defaultQuotaBytes;
+
+    public StorageUsageService(FolderStatsRepository folderStatsRepository,
+                               UserStorageRepository userStorageRepository,
+                               FileRepository fileRepository,
+                               UserRepository userRepository,
+                               EntityManager entityManager,
+                               PlatformTransactionManager transactionManager,
+                               ClusterLeaseService clusterLeaseService,
+                               @Value("${storage.quota.default-bytes:10737418240}") long defaultQuotaBytes) {
+        this.folderStatsRepository = folderStatsRepository;
+        this.userStorageRepository = userStorageRepository;
+        this.fileRepository = fileRepository;
+        this.userRepository = userRepository;
+        this.entityManager = entityManager;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.clusterLeaseService = clusterLeaseService;
+        // 0 表示不限制
+        this.defaultQuotaBytes = defaultQuotaBytes > 0 ? defaultQuotaBytes : Long.MAX_VALUE;
+    }
+
+    /**
+     * 预占配额（bytes 可以为负数，如覆盖上传了更小的文件）。
+     * 超出配额时抛出 QuotaExceededException；当前事务回滚时归还预占的空间
+     */
+    public void reserve(User user, long bytes, long files) {
+        Long userId = user.getId();
+        Boolean reserved = requiresNew.execute(status ->
+                userStorageRepository.reserve(userId, bytes, files, defaultQuotaBytes) > 0);
+        if (!Boolean.TRUE.equals(reserved) && !userStorageRepository.existsById(userId)) {
+            recompute(userId);
+            reserved = requiresNew.execute(status ->
+                    userStorageRepository.reserve(userId, bytes, files, defaultQuotaBytes) > 0);
+        }
+        if (!Boolean.TRUE.equals(reserved)) {
+            throw new QuotaExceededException(QUOTA_EXCEEDED);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        requiresNew.executeWithoutResult(s -> userStorageRepository.adjust(userId, -bytes, -files));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 在当前事务中预占配额（上传保存记录的短事务使用）：user_storage 的行锁持有到事务结束，回滚时随事务撤销，
+     * 不需要再占用一个连接。记录需要已经存在（先调用 checkAvailable 或 usage）
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void reserveInTransaction(Long userId, long bytes, long files) {
+        if (userStorageRepository.reserve(userId, bytes, files, defaultQuotaBytes) == 0) {
+            throw new QuotaExceededException(QUOTA_EXCEEDED);
+        }
+    }
+
+    // 传输内容之前的检查（不预占），超出剩余空间时抛出 QuotaExceededException；user_storage 记录不存在时创建
+    public void checkAvailable(Long userId, long bytes) {
+        if (bytes > remainingBytes(userId)) {
+            throw new QuotaExceededException(QUOTA_EXCEEDED);
+        }
+    }
+
+    // 调整已用空间，不检查配额（彻底删除时释放空间）
+    @Transactional
+    public void adjustUser(Long userId, long bytes, long files) {
+        if (bytes != 0 || files != 0) {
+            userStorageRepository.adjust(userId, bytes, files);
+        }
+    }
+
+    // 调整一组文件夹的汇总，通常是某个文件夹及其所有上级
+    @Transactional
+    public void adjustFolders(List<Long> folderIds, long bytes, long files) {
+        if (folderIds.isEmpty() || (bytes == 0 && files == 0)) {
+            return;
+        }
+        for (int from = 0; from < folderIds.size(); from += CHUNK_SIZE) {
+            folderStatsRepository.adjust(folderIds.subList(from, Math.min(from + CHUNK_SIZE, folderIds.size())), bytes, files);
+        }
+    }
+
+    // 新建文件夹的汇总。主键由调用方指定，使用 persist 而不是 save，避免 merge 前的查询
+    @Transactional
+    public void initFolder(Long folderId, long bytes, long files) {
+        entityManager.persist(new FolderStats(folderId, bytes, files));
+    }
+    
+    // 复制出的文件夹的汇总，按批刷新
+    @Transactional
+    public void initFolders(Collection<FolderStats> stats) {
+        int pending = 0;
+        for (FolderStats folderStats : stats) {
+            entityManager.persist(folderStats);
+            if (++pending % CHUNK_SIZE == 0) {
+                entityManager.flush();
+            }
+        }
+    }
+
+    @Transactional
+    public void removeFolders(Collection<Long> folderIds) {
+        if (!folderIds.isEmpty()) {
+            folderStatsRepository.deleteAllByIdInBatch(folderIds);
+        }
+    }
+
+    public FolderStats folderStats(Long folderId, Long userId) {
+        return folderStatsRepository.findById(folderId).orElseGet(() -> {
+            recompute(userId);
+            return folderStatsRepository.findById(folderId).orElse(new FolderStats(folderId, 0, 0));
+        });
+    }
+
+    // 一组文件夹的汇总（批量操作使用），按块一次查询；有记录缺失时重新计算该用户后再查一次
+    public Map<Long, FolderStats> folderStats(Collection<Long> folderIds, Long userId) {
+        List<Long> ids = new ArrayList<>(folderIds);
+        Map<Long, FolderStats> result = findFolderStats(ids);
+        if (result.size() < ids.size()) {
+            recompute(userId);
+            result = findFolderStats(ids);
+            for (Long id : ids) {
+                result.putIfAbsent(id, new FolderStats(id, 0, 0));
+            }
+        }
+        return result;
+    }
+
+    private Map<Long, FolderStats> findFolderStats(List<Long> ids) {
+        Map<Long, FolderStats> result = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+            for (FolderStats stats : folderStatsRepository.findAllById(ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size())))) {
+                result.put(stats.getFolderId(), stats);
+            }
+        }
+        return result;
+    }
+
+    public UserStorage usage(Long userId) {
+        return userStorageRepository.findById(userId).orElseGet(() -> {
+            recompute(userId);
+            return userStorageRepository.findById(userId).orElseThrow(IllegalStateException::new);
+        });
+    }
+
+    public long quotaBytes(UserStorage storage) {
+        return storage.getQuotaBytes() != null ? storage.getQuotaBytes() : defaultQuotaBytes;
+    }
+
+    public long remainingBytes(Long userId) {
+        UserStorage storage = usage(userId);
+        return Math.max(0, quotaBytes(storage) - storage.getUsedBytes());
+    }
+
+    @Transactional
+    public UserStorage setQuota(Long userId, Long quotaBytes) {
+        UserStorage storage = usage(userId);
+        storage.setQuotaBytes(quotaBytes);
+        return userStorageRepository.save(storage);
+    }
+
+    /**
+     * 重新计算一个用户的已用空间和所有文件夹的汇总（独立事务）。
+     * 先确保 user_storage 记录存在，再锁定它计算，同一用户的重新计算和配额预占串行执行
+     */
+    public void recompute(Long userId) {
+        createIfAbsent(userId);
+        requiresNew.executeWithoutResult(status -> recomputeLocked(userId));
+    }
+
+    // 内存中只保留文件夹的层级和累计值，文件按流读取
+    private void recomputeLocked(Long userId) {
+        UserStorage storage = userStorageRepository.lockById(userId).orElseThrow(IllegalStateException::new);
+
+        Map<Long, FileRepository.FolderNode> folders = fileRepository.findByUserIdAndIsFolderTrue(userId).stream()
+                .collect(Collectors.toMap(FileRepository.FolderNode::getId, Function.identity()));
+        Map<Long, long[]> sums = new HashMap<>();
+        for (Long folderId : folders.keySet()) {
+            sums.put(folderId, new long[2]);
+        }
+        long[] total = new long[2];
+        try (Stream<FileRepository.FileSizeNode> files = fileRepository.streamSizesByUser(userId)) {
+            files.forEach(file -> {
+                long size = file.getFileSize() != null ? file.getFileSize() : 0;
+                total[0] += size;
+                total[1]++;
+                if (file.getDeletedAt() == null) {
+                    addToAncestors(file.getParentId(), size, folders, sums);
+                }
+            });
+        }
+
+        List<Long> folderIds = new ArrayList<>(sums.keySet());
+        for (int from = 0; from < folderIds.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = folderIds.subList(from, Math.min(from + CHUNK_SIZE, folderIds.size()));
+            Map<Long, FolderStats> existing = folderStatsRepository.findAllById(chunk).stream()
+                    .collect(Collectors.toMap(FolderStats::getFolderId, Function.identity()));
+            for (Long folderId : chunk) {
+                long[] sum = sums.get(folderId);
+                FolderStats stats = existing.get(folderId);
+                if (stats == null) {
+                    entityManager.persist(new FolderStats(folderId, sum[0], sum[1]));
+                } else {
+                    // 托管实体，脏检查生成 UPDATE
+                    stats.setTotalBytes(sum[0]);
+                    stats.setFileCount(sum[1]);
+                }
+            }
+            entityManager.flush();
+        }
+
+        storage.setUsedBytes(total[0]);
+        storage.setFileCount(total[1]);
+        userStorageRepository.save(storage);
+    }
+
+    /**
+     * 插入用户的 user_storage 记录（在独立事务中提交）。同一用户的几个首次上传并发走到这里时，
+     * 主键冲突的一方直接使用已插入的记录，随后由 lockById 串行化重新计算。
+     * 不能在另一个独立事务内调用：每层各占一个连接，并发时会耗尽连接池
+     */
+    private void createIfAbsent(Long userId) {
+        if (userStorageRepository.existsById(userId)) {
+            return;
+        }
+        try {
+            requiresNew.executeWithoutResult(status -> {
+                UserStorage created = new UserStorage();
+                created.setUserId(userId);
+                // persist 而不是 save：save 是 merge，记录刚被其他事务插入时会覆盖它的配额
+                entityManager.persist(created);
+                entityManager.flush();
+            });
+        } catch (DataIntegrityViolationException | PersistenceException e) {
+            log.debug("user_storage 记录已由其他事务创建: userId={}", userId);
+        }
+    }
+
+    // 累加到所有上级文件夹；遇到回收站中的文件夹时累加到它为止（恢复时整体加回上级）
+    private void addToAncestors(Long folderId, long size, Map<Long, FileRepository.FolderNode> folders, Map<Long, long[]> sums) {
+        while (folderId != null) {
+            FileRepository.FolderNode folder = folders.get(folderId);
+            if (folder == null) {
+                return;
+            }
+            long[] sum = sums.get(folderId);
+            sum[0] += size;
+            sum[1]++;
+            if (folder.getDeletedAt() != null) {
+                return;
+            }
+            folderId = folder.getParentId();
+        }
+    }
+
+    /**
+     * 修复任务：逐个用户重新计算，纠正崩溃或并发导致的偏差。
+     * 重新计算期间锁定该用户的 user_storage 记录，在低峰时段运行
+     */
+    @Scheduled(cron = "${storage.repair.cron:0 30 4 * * *}")
+    public void scheduledRepair() {
+        // 集群模式下由一个节点执行
+        clusterLeaseService.runExclusive("storage-repair", this::repairAll);
+    }
+
+    public void repairAll() {
+        int page = 0;
+        Page<User> users;
+        do {
+            users = userRepository.findAll(PageRequest.of(page++, CHUNK_SIZE));
+            for (User user : users) {
+                try {
+                    recompute(user.getId());
+                } catch (RuntimeException e) {
+                    log.warn("重新计算存储用量失败: userId={}, {}", user.getId(), e.getMessage());
+                }
+            }
+        } while (users.hasNext());
+        log.info("存储用量修复完成");
+    }
+}
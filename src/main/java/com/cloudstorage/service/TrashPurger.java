@@ -0,0 +1,77 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.model.File;
+import com.cloudstorage.repository.FileRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 回收站清理：在低峰时段（trash.purge.cron）彻底删除超过保留期的项目。
+ * 每个项目的子树在各自的事务中分批删除，单次运行最多处理 max-items-per-run 个项目。
+ */
+@Slf4j
+@Service
+public class TrashPurger {
+
+    private final FileRepository fileRepository;
+    private final FileService fileService;
+    private final ClusterLeaseService clusterLeaseService;
+
+    private final boolean enabled;
+    private final int retentionDays;
+    private final int maxItemsPerRun;
+
+    private final Counter purgedCounter;
+
+    public TrashPurger(FileRepository fileRepository,
+                       FileService fileService,
+                       ClusterLeaseService clusterLeaseService,
+                       MeterRegistry meterRegistry,
+                       @Value("${trash.purge.enabled:true}") boolean enabled,
+                       @Value("${trash.retention-days:30}") int retentionDays,
+                       @Value("${trash.purge.max-items-per-run:200}") int maxItemsPerRun) {
+        this.fileRepository = fileRepository;
+        this.fileService = fileService;
+        this.clusterLeaseService = clusterLeaseService;
+        this.enabled = enabled;
+        this.retentionDays = retentionDays;
+        this.maxItemsPerRun = maxItemsPerRun;
+        this.purgedCounter = meterRegistry.counter("trash.purged.items");
+    }
+
+    @Scheduled(cron = "${trash.purge.cron:0 */10 1-5 * * *}")
+    public void purgeExpired() {
+        if (enabled) {
+            // 集群模式下同一时间只有一个节点清理
+            clusterLeaseService.runExclusive("trash-purge", this::purgeBatch);
+        }
+    }
+
+    private void purgeBatch() {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+        List<File> expired = fileRepository.findByDeletedAtBeforeOrderByDeletedAtAsc(
+                cutoff, PageRequest.of(0, maxItemsPerRun));
+        int purged = 0;
+        for (File root : expired) {
+            try {
+                purged += fileService.purge(root);
+            } catch (IOException | RuntimeException e) {
+                // 可能已随上级文件夹一起被清理，或物理删除失败，下次运行时重试
+                log.warn("清理回收站项目失败: id={}, {}", root.getId(), e.getMessage());
+            }
+        }
+        purgedCounter.increment(purged);
+        if (purged > 0) {
+            log.info("回收站清理完成: {} 个项目，共删除 {} 条记录", expired.size(), purged);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.cloudstorage.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上传准入控制：
+ * - 节点级和用户级的并发上传槽位，节点槽位满时在有界队列中短暂等待
+ * - 按 Content-Length 预留磁盘空间，预留后剩余空间不足时直接拒绝
+ * 拒绝时抛出 UploadRejectedException，由调用方返回 503 + Retry-After。
+ */
+@Slf4j
+@Service
+public class UploadAdmissionService {
+
+    private final Semaphore nodeSlots;
+    private final int maxPerUser;
+    private final int maxQueued;
+    private final long queueTimeoutMillis;
+    private final long minFreeBytes;
+    private final long retryAfterSeconds;
+    private final Path uploadRoot;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    // 值为弱引用：正在使用的信号量被 Admission 持有，不会被回收
+    private final LoadingCache<String, Semaphore> userSlots;
+
+    private final Counter rejectedNodeBusy;
+    private final Counter rejectedUserBusy;
+    private final Counter rejectedDiskFull;
+
+    public UploadAdmissionService(@Value("${upload.admission.max-concurrent:32}") int maxConcurrent,
+                                  @Value("${upload.admission.max-per-user:4}") int maxPerUser,
+                                  @Value("${upload.admission.max-queued:64}") int maxQueued,
+                                  @Value("${upload.admission.queue-timeout-seconds:10}") long queueTimeoutSeconds,
+                                  @Value("${upload.admission.min-free-bytes:1073741824}") long minFreeBytes,
+                                  @Value("${upload.admission.retry-after-seconds:5}") long retryAfterSeconds,
+                                  @Value("${file.upload-dir:./uploads}") String uploadDir,
+                                  MeterRegistry meterRegistry) {
+        this.nodeSlots = new Semaphore(maxConcurrent, true);
+        this.maxPerUser = maxPerUser;
+        this.maxQueued = maxQueued;
+        this.queueTimeoutMillis = TimeUnit.SECONDS.toMillis(queueTimeoutSeconds);
+        this.minFreeBytes = minFreeBytes;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.uploadRoot = Paths.get(uploadDir);
+        this.userSlots = Caffeine.newBuilder()
+                .weakValues()
+                .build(username -> new Semaphore(this.maxPerUser));
+
+        Gauge.builder("upload.admission.active", active, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("upload.admission.queued", queued, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("upload.admission.reserved", reservedBytes, AtomicLong::get)
+                .baseUnit("bytes").register(meterRegistry);
+        this.rejectedNodeBusy = meterRegistry.counter("upload.admission.rejected", "reason", "node_busy");
+        this.rejectedUserBusy = meterRegistry.counter("upload.admission.rejected", "reason", "user_busy");
+        this.rejectedDiskFull = meterRegistry.counter("upload.admission.rejected", "reason", "disk_full");
+    }
+
+    /**
+     * 申请一个上传槽位并预留磁盘空间，使用完毕后必须关闭返回的 Admission
+     * @param expectedBytes 预计写入的字节数（通常为 Content-Length）
+     */
+    public Admission admit(String username, long expectedBytes) {
+        Semaphore userSlot = userSlots.get(username);
+        if (!userSlot.tryAcquire()) {
+            rejectedUserBusy.increment();
+            throw new UploadRejectedException("同时上传的文件过多，请稍后再试", retryAfterSeconds);
+        }
+        boolean admitted = false;
+        long reserved = 0;
+        try {
+            acquireNodeSlot();
+            try {
+                reserved = reserveSpace(expectedBytes);
+                admitted = true;
+            } finally {
+                if (!admitted) {
+                    nodeSlots.release();
+                }
+            }
+        } finally {
+            if (!admitted) {
+                userSlot.release();
+            }
+        }
+        active.incrementAndGet();
+        return new Admission(userSlot, reserved);
+    }
+
+    private void acquireNodeSlot() {
+        if (nodeSlots.tryAcquire()) {
+            return;
+        }
+        // 槽位已满：队列未满时等待一段时间，否则立即拒绝
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejectedNodeBusy.increment();
+            throw new UploadRejectedException("服务器繁忙，请稍后再试", retryAfterSeconds);
+        }
+        try {
+            if (!nodeSlots.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                rejectedNodeBusy.increment();
+                throw new UploadRejectedException("服务器繁忙，请稍后再试", retryAfterSeconds);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UploadRejectedException("服务器繁忙，请稍后再试", retryAfterSeconds);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    // 返回实际预留的字节数
+    private long reserveSpace(long bytes) {
+        long usable;
+        try {
+            usable = Files.getFileStore(uploadRoot).getUsableSpace();
+        } catch (IOException e) {
+            log.warn("无法获取上传目录可用空间: {}", e.getMessage());
+            return 0;
+        }
+        long reserved = reservedBytes.addAndGet(bytes);
+        if (usable - reserved < minFreeBytes) {
+            reservedBytes.addAndGet(-bytes);
+            rejectedDiskFull.increment();
+            throw new UploadRejectedException("服务器存储空间不足，请稍后再试", retryAfterSeconds);
+        }
+        return bytes;
+    }
+
+    public class Admission implements AutoCloseable {
+
+        private final Semaphore userSlot;
+        private final long reservedBytes;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Admission(Semaphore userSlot, long reservedBytes) {
+            this.userSlot = userSlot;
+            this.reservedBytes = reservedBytes;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                UploadAdmissionService.this.reservedBytes.addAndGet(-reservedBytes);
+                active.decrementAndGet();
+                nodeSlots.release();
+                userSlot.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.cloudstorage.service;
+
+import lombok.Getter;
+
+/**
+ * 上传被准入控制拒绝（节点繁忙、用户并发过多或磁盘空间不足），对应 503 + Retry-After
+ */
+@Getter
+public class UploadRejectedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public UploadRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -3,18 +3,25 @@ package com.cloudstorage.service;
 import com.cloudstorage.model.User;
 import com.cloudstorage.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
 
 @Service
 @RequiredArgsConstructor
 public class UserDetailsServiceImpl implements UserDetailsService {
 
     private final UserRepository userRepository;
+    
+    // 管理员用户名列表（逗号分隔），拥有 ROLE_ADMIN，可访问 /api/admin/**
+    @Value("${admin.usernames:}")
+    private Set<String> adminUsernames;
 
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
@@ -24,7 +31,9 @@ public class UserDetailsServiceImpl implements UserDetailsService {
         return new org.springframework.security.core.userdetails.User(
                 user.getUsername(),
                 user.getPassword(),
-                new ArrayList<>()
+                adminUsernames.contains(user.getUsername())
+                        ? Collections.singletonList(new SimpleGrantedAuthority("ROLE_ADMIN"))
+                        : Collections.emptyList()
         );
     }
 }
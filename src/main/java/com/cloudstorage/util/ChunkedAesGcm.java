@@ -0,0 +1,305 @@
+package com.cloudstorage.util;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * 分块 AES-GCM 加密格式：
+ *   头部 16 字节：魔数 "CSE1"、明文分块大小（int）、随机 nonce 前缀（8 字节）
+ *   之后每个明文分块单独加密为"密文 + 16 字节认证标签"，最后一块可以不满（空文件为一个空块）
+ * 每块的 nonce 为 前缀 + 块序号（4 字节），附加认证数据为 头部 + 块序号 + 是否最后一块，
+ * 块被调换、截断或拼接都会认证失败。读取任意区间只需要解密覆盖到的块。
+ * 使用 JDK 的 AES/GCM/NoPadding，在支持 AES-NI 和 CLMUL 的 CPU 上由 HotSpot 内建函数加速
+ */
+public final class ChunkedAesGcm {
+
+    public static final int HEADER_LENGTH = 16;
+    public static final int TAG_LENGTH = 16;
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final byte[] MAGIC = {'C', 'S', 'E', '1'};
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_PREFIX_LENGTH = 8;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private ChunkedAesGcm() {
+    }
+
+    /**
+     * 认证失败：内容已损坏或被篡改
+     */
+    public static class CorruptChunkException extends IOException {
+        public CorruptChunkException(String message) {
+            super(message);
+        }
+    }
+
+    public static long encryptedLength(long plainLength, int chunkSize) {
+        long chunks = Math.max(1, (plainLength + chunkSize - 1) / chunkSize);
+        return HEADER_LENGTH + plainLength + chunks * TAG_LENGTH;
+    }
+
+    public static long plainLength(long encryptedLength, int chunkSize) {
+        long body = encryptedLength - HEADER_LENGTH;
+        long chunks = Math.max(1, (body + chunkSize + TAG_LENGTH - 1) / (chunkSize + TAG_LENGTH));
+        return body - chunks * TAG_LENGTH;
+    }
+
+    // 只读取头部得到明文长度
+    public static long plainLength(SeekableByteChannel channel) throws IOException {
+        return plainLength(channel.size(), chunkSize(readHeader(channel)));
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] readHeader(SeekableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        channel.position(0);
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0) {
+                throw new CorruptChunkException("加密文件头部不完整");
+            }
+        }
+        if (!Arrays.equals(Arrays.copyOf(header.array(), MAGIC.length), MAGIC)) {
+            throw new CorruptChunkException("不是加密文件");
+        }
+        return header.array();
+    }
+
+    private static int chunkSize(byte[] header) throws IOException {
+        int chunkSize = ByteBuffer.wrap(header, MAGIC.length, 4).getInt();
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new CorruptChunkException("加密文件头部无效");
+        }
+        return chunkSize;
+    }
+
+    private static GCMParameterSpec nonce(byte[] header, long index) {
+        byte[] nonce = new byte[12];
+        System.arraycopy(header, HEADER_LENGTH - NONCE_PREFIX_LENGTH, nonce, 0, NONCE_PREFIX_LENGTH);
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_LENGTH, 4).putInt((int) index);
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+
+    private static byte[] aad(byte[] header, long index, boolean last) {
+        return ByteBuffer.allocate(HEADER_LENGTH + 9).put(header).putLong(index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    /**
+     * 加密输出流：按块缓冲明文，缓冲区满且还有后续数据时输出一块，close 时输出最后一块
+     */
+    public static class EncryptingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final SecretKey key;
+        private final Cipher cipher = newCipher();
+        private final byte[] header = new byte[HEADER_LENGTH];
+        private final byte[] buffer;
+        private final byte[] encrypted;
+        private int count;
+        private long index;
+        private boolean closed;
+
+        public EncryptingOutputStream(OutputStream out, SecretKey key, int chunkSize) throws IOException {
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+                throw new IllegalArgumentException("chunkSize");
+            }
+            this.out = out;
+            this.key = key;
+            this.buffer = new byte[chunkSize];
+            this.encrypted = new byte[chunkSize + TAG_LENGTH];
+            byte[] prefix = new byte[NONCE_PREFIX_LENGTH];
+            RANDOM.nextBytes(prefix);
+            ByteBuffer.wrap(header).put(MAGIC).putInt(chunkSize).put(prefix);
+            out.write(header);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeChunk(false);
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void writeChunk(boolean last) throws IOException {
+            // nonce 中的块序号只有 4 字节
+            if (index > 0xFFFFFFFFL) {
+                throw new IOException("文件过大，超出加密分块数上限");
+            }
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, nonce(header, index));
+                cipher.updateAAD(aad(header, index, last));
+                int n = cipher.doFinal(buffer, 0, count, encrypted, 0);
+                out.write(encrypted, 0, n);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("加密失败", e);
+            }
+            count = 0;
+            index++;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try (OutputStream target = out) {
+                writeChunk(true);
+            }
+        }
+    }
+
+    /**
+     * 解密输入流：按需读取并解密当前位置所在的块，skip 只移动位置，不读取被跳过的块
+     */
+    public static class DecryptingInputStream extends InputStream {
+
+        private final SeekableByteChannel channel;
+        private final SecretKey key;
+        private final Cipher cipher = newCipher();
+        private final byte[] header;
+        private final int chunkSize;
+        private final long encryptedLength;
+        private final long chunkCount;
+        private final long plainLength;
+        private final byte[] encrypted;
+        private final byte[] plain;
+        private long position;
+        private long loadedChunk = -1;
+        private int loadedLength;
+
+        public DecryptingInputStream(SeekableByteChannel channel, SecretKey key) throws IOException {
+            this.channel = channel;
+            this.key = key;
+            try {
+                this.header = readHeader(channel);
+                this.chunkSize = chunkSize(header);
+                this.encryptedLength = channel.size();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            long body = encryptedLength - HEADER_LENGTH;
+            this.chunkCount = Math.max(1, (body + chunkSize + TAG_LENGTH - 1) / (chunkSize + TAG_LENGTH));
+            this.plainLength = Math.max(0, body - chunkCount * TAG_LENGTH);
+            this.encrypted = new byte[chunkSize + TAG_LENGTH];
+            this.plain = new byte[chunkSize];
+        }
+
+        public long getPlainLength() {
+            return plainLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= plainLength) {
+                // 空文件或读到末尾，仍需校验最后一块，防止截断
+                if (loadedChunk != chunkCount - 1) {
+                    load(chunkCount - 1);
+                }
+                return -1;
+            }
+            long chunk = position / chunkSize;
+            if (chunk != loadedChunk) {
+                load(chunk);
+            }
+            int offset = (int) (position - chunk * chunkSize);
+            int n = Math.min(len, loadedLength - offset);
+            System.arraycopy(plain, offset, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long target = Math.min(plainLength, position + Math.max(0, n));
+            long skipped = target - position;
+            position = target;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            long chunk = position / chunkSize;
+            return chunk == loadedChunk ? (int) (loadedLength - (position - chunk * chunkSize)) : 0;
+        }
+
+        private void load(long chunk) throws IOException {
+            long start = HEADER_LENGTH + chunk * (chunkSize + TAG_LENGTH);
+            int length = (int) Math.min(chunkSize + TAG_LENGTH, encryptedLength - start);
+            if (length < TAG_LENGTH) {
+                throw new CorruptChunkException("加密文件被截断");
+            }
+            ByteBuffer target = ByteBuffer.wrap(encrypted, 0, length);
+            channel.position(start);
+            while (target.hasRemaining()) {
+                if (channel.read(target) < 0) {
+                    throw new EOFException("加密文件被截断");
+                }
+            }
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, nonce(header, chunk));
+                cipher.updateAAD(aad(header, chunk, chunk == chunkCount - 1));
+                loadedLength = cipher.doFinal(encrypted, 0, length, plain, 0);
+            } catch (AEADBadTagException e) {
+                loadedChunk = -1;
+                throw new CorruptChunkException("文件内容认证失败，已损坏或被篡改（块 " + chunk + "）");
+            } catch (GeneralSecurityException e) {
+                loadedChunk = -1;
+                throw new IOException("解密失败", e);
+            }
+            loadedChunk = chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
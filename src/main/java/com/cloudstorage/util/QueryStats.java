@@ -0,0 +1,169 @@
+package com.cloudstorage.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 当前线程上的 SQL 统计范围：语句数、JDBC 执行耗时，以及按"形状"（去掉字面量、合并 IN 列表后的 SQL）分组的次数。
+ * 由 QueryBudgetFilter 为每个请求开启，Hibernate 的 StatementInspector 和 SessionEventListener 写入（见 QueryStatsConfig）。
+ * 范围可以嵌套，内层的语句同时计入外层。集成测试中可以直接使用：
+ * <pre>
+ * try (QueryStats stats = QueryStats.begin()) {
+ *     fileService.getTree(user, null, 5, true);
+ *     stats.assertStatements(1);
+ * }
+ * </pre>
+ */
+public final class QueryStats implements AutoCloseable {
+
+    private static final ThreadLocal<QueryStats> CURRENT = new ThreadLocal<>();
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+\\b");
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final QueryStats parent;
+    // 超过该语句数时拒绝执行（0 表示不限制）
+    private final int limit;
+    private final Map<String, Integer> shapes = new LinkedHashMap<>();
+    private int statements;
+    private long nanos;
+    private boolean closed;
+
+    private QueryStats(QueryStats parent, int limit) {
+        this.parent = parent;
+        this.limit = limit;
+    }
+
+    public static QueryStats begin() {
+        return begin(0);
+    }
+
+    /**
+     * 开启一个统计范围，limit 大于 0 时语句数超出后抛出 QueryBudgetExceededException
+     */
+    public static QueryStats begin(int limit) {
+        QueryStats stats = new QueryStats(CURRENT.get(), limit);
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    public static QueryStats current() {
+        return CURRENT.get();
+    }
+
+    // 准备一条语句（批量写入时每批一次）
+    public static void recordStatement(String sql) {
+        QueryStats current = CURRENT.get();
+        if (current == null) {
+            return;
+        }
+        String shape = shapeOf(sql);
+        for (QueryStats stats = current; stats != null; stats = stats.parent) {
+            stats.statements++;
+            stats.shapes.merge(shape, 1, Integer::sum);
+        }
+        for (QueryStats stats = current; stats != null; stats = stats.parent) {
+            if (stats.limit > 0 && stats.statements > stats.limit) {
+                throw new QueryBudgetExceededException("SQL 语句数超出预算 " + stats.limit);
+            }
+        }
+    }
+
+    public static void recordTime(long nanos) {
+        for (QueryStats stats = CURRENT.get(); stats != null; stats = stats.parent) {
+            stats.nanos += nanos;
+        }
+    }
+
+    static String shapeOf(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = IN_LIST.matcher(shape).replaceAll("(?)");
+        return WHITESPACE.matcher(shape).replaceAll(" ").trim().toLowerCase();
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public Map<String, Integer> getShapes() {
+        return shapes;
+    }
+
+    /**
+     * 重复执行至少 threshold 次的查询形状（只看 select），按次数降序，通常意味着 N+1
+     */
+    public List<Map.Entry<String, Integer>> repeatedSelects(int threshold) {
+        return shapes.entrySet().stream()
+                .filter(entry -> entry.getValue() >= threshold && entry.getKey().startsWith("select"))
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .collect(Collectors.toList());
+    }
+
+    public void assertStatements(int expected) {
+        if (statements != expected) {
+            throw new AssertionError("期望 " + expected + " 条 SQL，实际 " + statements + " 条：\n" + describe());
+        }
+    }
+
+    public void assertAtMost(int max) {
+        if (statements > max) {
+            throw new AssertionError("期望至多 " + max + " 条 SQL，实际 " + statements + " 条：\n" + describe());
+        }
+    }
+
+    public void assertNoRepeatedSelects(int threshold) {
+        List<Map.Entry<String, Integer>> repeated = repeatedSelects(threshold);
+        if (!repeated.isEmpty()) {
+            throw new AssertionError("存在重复执行 " + threshold + " 次以上的查询（N+1）：\n" + describe(repeated));
+        }
+    }
+
+    // 按次数降序列出各形状，用于日志和断言信息
+    public String describe() {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(shapes.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder()));
+        return describe(entries);
+    }
+
+    private static String describe(List<Map.Entry<String, Integer>> entries) {
+        return entries.stream()
+                .map(entry -> "  " + entry.getValue() + " x " + entry.getKey())
+                .collect(Collectors.joining("\n"));
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (CURRENT.get() == this) {
+            if (parent != null) {
+                CURRENT.set(parent);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * 请求执行的 SQL 语句数超出预算（query-budget.mode=reject）
+     */
+    public static class QueryBudgetExceededException extends RuntimeException {
+        public QueryBudgetExceededException(String message) {
+            super(message);
+        }
+    }
+}
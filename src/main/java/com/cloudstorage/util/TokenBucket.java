@@ -0,0 +1,60 @@
+package com.cloudstorage.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶。令牌按固定速率补充，最多累积 capacity 个。
+ * - tryAcquire: 令牌不足时不扣减，返回需要等待的纳秒数（用于请求限流，直接拒绝）
+ * - acquire: 允许透支，透支部分通过休眠偿还（用于带宽整形，在拷贝循环中调用）
+ */
+public class TokenBucket {
+
+    private final long capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(long capacity, long tokensPerSecond) {
+        if (capacity <= 0 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity and rate must be positive");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 尝试获取令牌
+     * @return 0 表示获取成功，否则为令牌足够前需要等待的纳秒数
+     */
+    public synchronized long tryAcquire(long permits) {
+        refill();
+        if (tokens >= permits) {
+            tokens -= permits;
+            return 0;
+        }
+        return (long) Math.ceil((permits - tokens) / tokensPerNano);
+    }
+
+    /**
+     * 获取令牌，不足时阻塞直到补足
+     */
+    public void acquire(long permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            tokens -= permits;
+            waitNanos = tokens < 0 ? (long) Math.ceil(-tokens / tokensPerNano) : 0;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
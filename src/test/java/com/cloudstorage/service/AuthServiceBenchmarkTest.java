@@ -0,0 +1,111 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.config.JwtUtil;
+import com.cloudstorage.model.User;
+import com.cloudstorage.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 登录（BCrypt 校验）与刷新令牌的吞吐量：以 CPU 核数的并发度各运行 benchmark.seconds 秒（默认 3），输出总数和每核吞吐量。
+ * 不包含用户查询（正常情况下命中查询缓存）和 HTTP 开销
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class AuthServiceBenchmarkTest {
+
+    private static final String PASSWORD = "benchmark-password";
+
+    private final PasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private AuthService authService;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        JwtUtil jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", "benchmarkSecretKeyForJWTTokenGenerationThatIsLongEnough");
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 60_000L);
+        ReflectionTestUtils.setField(jwtUtil, "refreshExpiration", 600_000L);
+        jwtUtil.init();
+
+        user = new User();
+        user.setUsername("benchmark");
+        user.setEmail("benchmark@localhost");
+        user.setPassword(passwordEncoder.encode(PASSWORD));
+        when(userRepository.findByUsername(anyString())).thenReturn(Optional.empty());
+        when(userRepository.findByUsername("benchmark")).thenReturn(Optional.of(user));
+
+        authService = new AuthService(userRepository, passwordEncoder, jwtUtil, mock(ClusterEventBus.class),
+                new SimpleMeterRegistry(), 0, 64, 10_000, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        authService.shutdown();
+    }
+
+    @Test
+    void throughput() {
+        int seconds = Integer.getInteger("benchmark.seconds", 3);
+        int threads = Runtime.getRuntime().availableProcessors();
+        String hash = user.getPassword();
+        String refreshToken = authService.issue(user).getRefreshToken();
+
+        double logins = measure(seconds, threads, () -> {
+            if (!passwordEncoder.matches(PASSWORD, hash)) {
+                throw new IllegalStateException("password mismatch");
+            }
+        });
+        double refreshes = measure(seconds, threads, () -> authService.refresh(refreshToken));
+
+        System.out.printf("threads=%d logins/s=%d (%d/core) refreshes/s=%d (%d/core) speedup=%dx%n",
+                threads, Math.round(logins), Math.round(logins / threads),
+                Math.round(refreshes), Math.round(refreshes / threads), Math.round(refreshes / logins));
+        assertTrue(logins > 0 && refreshes > 0);
+    }
+
+    private double measure(int seconds, int threads, Runnable operation) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        LongAdder operations = new LongAdder();
+        AtomicBoolean stop = new AtomicBoolean();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < threads; i++) {
+                pool.execute(() -> {
+                    while (!stop.get()) {
+                        operation.run();
+                        operations.increment();
+                    }
+                });
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            stop.set(true);
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop.set(true);
+            pool.shutdownNow();
+        }
+        return operations.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
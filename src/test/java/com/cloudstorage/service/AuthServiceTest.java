@@ -0,0 +1,101 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.config.JwtUtil;
+import com.cloudstorage.dto.AuthResponse;
+import com.cloudstorage.model.User;
+import com.cloudstorage.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 登录、刷新令牌轮换和退出登录：错误密码与不存在的用户同样失败，退出登录后之前签发的刷新令牌全部失效
+ */
+class AuthServiceTest {
+
+    private static final String PASSWORD = "secret-password";
+
+    private final PasswordEncoder passwordEncoder = new BCryptPasswordEncoder(4);
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private AuthService authService;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        JwtUtil jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", "testSecretKeyForJWTTokenGenerationThatIsLongEnough");
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 60_000L);
+        ReflectionTestUtils.setField(jwtUtil, "refreshExpiration", 600_000L);
+        jwtUtil.init();
+
+        user = new User();
+        user.setUsername("alice");
+        user.setEmail("alice@localhost");
+        user.setPassword(passwordEncoder.encode(PASSWORD));
+        when(userRepository.findByUsername(anyString())).thenReturn(Optional.empty());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user));
+
+        authService = new AuthService(userRepository, passwordEncoder, jwtUtil, mock(ClusterEventBus.class),
+                new SimpleMeterRegistry(), 0, 64, 10_000, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        authService.shutdown();
+    }
+
+    @Test
+    void loginChecksPassword() {
+        AuthResponse issued = authService.login("alice", PASSWORD).join();
+        assertEquals("alice", issued.getUsername());
+
+        CompletionException wrong = assertThrows(CompletionException.class,
+                () -> authService.login("alice", "wrong").join());
+        assertInstanceOf(BadCredentialsException.class, wrong.getCause());
+        CompletionException unknown = assertThrows(CompletionException.class,
+                () -> authService.login("nobody", PASSWORD).join());
+        assertInstanceOf(BadCredentialsException.class, unknown.getCause());
+    }
+
+    @Test
+    void refreshIssuesNewTokens() {
+        String first = authService.issue(user).getRefreshToken();
+        AuthResponse refreshed = authService.refresh(first);
+
+        assertEquals("alice", refreshed.getUsername());
+        assertEquals("alice", authService.refresh(refreshed.getRefreshToken()).getUsername());
+        assertThrows(BadCredentialsException.class, () -> authService.refresh("not-a-token"));
+    }
+
+    @Test
+    void logoutRevokesEarlierRefreshTokens() {
+        when(userRepository.incrementTokenVersion(user.getId())).thenAnswer(invocation -> {
+            user.setTokenVersion(user.getTokenVersion() != null ? user.getTokenVersion() + 1 : 1);
+            return 1;
+        });
+        String first = authService.issue(user).getRefreshToken();
+        String second = authService.refresh(first).getRefreshToken();
+
+        authService.logout(second);
+
+        assertThrows(BadCredentialsException.class, () -> authService.refresh(first));
+        assertThrows(BadCredentialsException.class, () -> authService.refresh(second));
+        assertThrows(BadCredentialsException.class, () -> authService.logout(second));
+        assertEquals("alice", authService.refresh(authService.issue(user).getRefreshToken()).getUsername());
+    }
+}
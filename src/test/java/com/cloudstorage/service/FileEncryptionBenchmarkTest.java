@@ -0,0 +1,129 @@
+package com.cloudstorage.service;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 明文与加密方式写入、读取 benchmark.megabytes（默认 256）MB 数据的吞吐量（MB/s），
+ * 同时输出 JVM 是否启用了 AES-NI（UseAES）和 CLMUL（UseCLMUL，GHASH 使用）。
+ * 先以较小的数据量预热一轮，使 C2 编译并启用内建函数，结果才能反映稳定状态
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class FileEncryptionBenchmarkTest {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long USER_ID = 1L;
+
+    @TempDir
+    Path dir;
+
+    private FileEncryptionService fileEncryptionService;
+
+    @BeforeEach
+    void setUp() {
+        byte[] masterKey = new byte[32];
+        ThreadLocalRandom.current().nextBytes(masterKey);
+        fileEncryptionService = new FileEncryptionService();
+        ReflectionTestUtils.setField(fileEncryptionService, "enabled", true);
+        ReflectionTestUtils.setField(fileEncryptionService, "masterKey", Base64.getEncoder().encodeToString(masterKey));
+        ReflectionTestUtils.setField(fileEncryptionService, "chunkSize", 65536);
+        fileEncryptionService.init();
+    }
+
+    @Test
+    void throughput() throws IOException {
+        int megabytes = Integer.getInteger("benchmark.megabytes", 256);
+        byte[] data = new byte[BUFFER_SIZE];
+        ThreadLocalRandom.current().nextBytes(data);
+        long total = (long) megabytes * 1024 * 1024;
+        Path plainFile = dir.resolve("bench.plain");
+        Path encryptedFile = dir.resolve("bench.enc");
+        long warmup = Math.min(total, 64L * 1024 * 1024);
+        write(fileEncryptionService.encrypt(Files.newOutputStream(encryptedFile), USER_ID), data, warmup);
+        read(fileEncryptionService.open(encryptedFile, USER_ID, true), warmup);
+
+        double plainWrite = write(Files.newOutputStream(plainFile), data, total);
+        double encryptedWrite = write(fileEncryptionService.encrypt(Files.newOutputStream(encryptedFile), USER_ID), data, total);
+        double plainRead = read(fileEncryptionService.open(plainFile, USER_ID, false), total);
+        double encryptedRead = read(fileEncryptionService.open(encryptedFile, USER_ID, true), total);
+
+        // 不计入读取时间
+        assertArrayEquals(sha256(fileEncryptionService.open(plainFile, USER_ID, false)),
+                sha256(fileEncryptionService.open(encryptedFile, USER_ID, true)));
+        assertEquals(total, fileEncryptionService.contentLength(encryptedFile, true));
+        assertTrue(Files.size(encryptedFile) > total);
+        System.out.printf("megabytes=%d plainWrite=%.1f encryptedWrite=%.1f plainRead=%.1f encryptedRead=%.1f MB/s, UseAES=%s UseCLMUL=%s%n",
+                megabytes, plainWrite, encryptedWrite, plainRead, encryptedRead, vmOption("UseAES"), vmOption("UseCLMUL"));
+    }
+
+    private double write(OutputStream target, byte[] data, long total) throws IOException {
+        long start = System.nanoTime();
+        try (OutputStream out = new BufferedOutputStream(target, BUFFER_SIZE)) {
+            for (long written = 0; written < total; written += data.length) {
+                out.write(data, 0, (int) Math.min(data.length, total - written));
+            }
+        }
+        return throughput(total, System.nanoTime() - start);
+    }
+
+    private double read(InputStream source, long total) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long start = System.nanoTime();
+        long read = 0;
+        try (InputStream in = source) {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                read += n;
+            }
+        }
+        assertEquals(total, read);
+        return throughput(total, System.nanoTime() - start);
+    }
+
+    private byte[] sha256(InputStream source) throws IOException {
+        try (InputStream in = source) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, n);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private double throughput(long bytes, long nanos) {
+        return Math.round(bytes / 1048576.0 / (nanos / 1e9) * 10) / 10.0;
+    }
+
+    private String vmOption(String name) {
+        try {
+            return ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption(name).getValue();
+        } catch (IllegalArgumentException e) {
+            // 当前平台没有该选项
+            return "unsupported";
+        }
+    }
+}
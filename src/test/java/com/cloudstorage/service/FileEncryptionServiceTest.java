@@ -0,0 +1,90 @@
+package com.cloudstorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 分块加密的读写：跨多个块（最后一块不满）的内容按文件和按内存两种方式解密后一致，
+ * 明文长度只读头部即可得到，其他用户的密钥无法解密
+ */
+class FileEncryptionServiceTest {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final long USER_ID = 1L;
+
+    @TempDir
+    Path dir;
+
+    private FileEncryptionService fileEncryptionService;
+
+    @BeforeEach
+    void setUp() {
+        byte[] masterKey = new byte[32];
+        ThreadLocalRandom.current().nextBytes(masterKey);
+        fileEncryptionService = new FileEncryptionService();
+        ReflectionTestUtils.setField(fileEncryptionService, "enabled", true);
+        ReflectionTestUtils.setField(fileEncryptionService, "masterKey", Base64.getEncoder().encodeToString(masterKey));
+        ReflectionTestUtils.setField(fileEncryptionService, "chunkSize", CHUNK_SIZE);
+        fileEncryptionService.init();
+    }
+
+    @Test
+    void roundTripAcrossChunks() throws IOException {
+        byte[] plain = new byte[CHUNK_SIZE * 3 + CHUNK_SIZE / 2];
+        ThreadLocalRandom.current().nextBytes(plain);
+        Path encrypted = encrypt(plain);
+
+        byte[] stored = Files.readAllBytes(encrypted);
+        assertFalse(Arrays.equals(plain, Arrays.copyOf(stored, plain.length)));
+        assertEquals(plain.length, fileEncryptionService.contentLength(encrypted, true));
+        assertArrayEquals(plain, readAll(fileEncryptionService.open(encrypted, USER_ID, true)));
+        assertArrayEquals(plain, readAll(fileEncryptionService.open(stored, USER_ID, true)));
+    }
+
+    @Test
+    void emptyContent() throws IOException {
+        Path encrypted = encrypt(new byte[0]);
+
+        assertEquals(0, fileEncryptionService.contentLength(encrypted, true));
+        assertArrayEquals(new byte[0], readAll(fileEncryptionService.open(encrypted, USER_ID, true)));
+    }
+
+    @Test
+    void otherUserCannotDecrypt() throws IOException {
+        byte[] plain = new byte[CHUNK_SIZE + 1];
+        ThreadLocalRandom.current().nextBytes(plain);
+        Path encrypted = encrypt(plain);
+
+        assertThrows(IOException.class, () -> readAll(fileEncryptionService.open(encrypted, USER_ID + 1, true)));
+    }
+
+    private Path encrypt(byte[] plain) throws IOException {
+        Path target = dir.resolve("content.enc");
+        try (OutputStream out = fileEncryptionService.encrypt(Files.newOutputStream(target), USER_ID)) {
+            out.write(plain);
+        }
+        return target;
+    }
+
+    private byte[] readAll(InputStream source) throws IOException {
+        try (InputStream in = source) {
+            return in.readAllBytes();
+        }
+    }
+}
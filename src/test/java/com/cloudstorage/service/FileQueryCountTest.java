@@ -0,0 +1,122 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.dto.FileDTO;
+import com.cloudstorage.dto.FileTree;
+import com.cloudstorage.dto.FileTreeNode;
+import com.cloudstorage.model.File;
+import com.cloudstorage.model.User;
+import com.cloudstorage.repository.UserRepository;
+import com.cloudstorage.util.QueryStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 目录树和文件夹列表的 SQL 语句数：无论树有多深、多宽都是一条递归查询，列表命中缓存后不再查询
+ */
+@SpringBootTest
+@ActiveProfiles({"dev", "test"})
+class FileQueryCountTest {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void storage(DynamicPropertyRegistry registry) {
+        registry.add("file.upload-dir", () -> uploadDir.toString());
+        registry.add("spring.datasource.url", () -> "jdbc:h2:mem:file_query_count_test;DB_CLOSE_ON_EXIT=FALSE");
+    }
+
+    @Autowired
+    private FileService fileService;
+    @Autowired
+    private UserRepository userRepository;
+
+    private User user;
+    private File docs;
+
+    // docs/{a.txt, b.txt, reports/{c.txt, 2024/{d.txt}}}, photos/{}
+    @BeforeEach
+    void setUp() throws IOException {
+        User created = new User();
+        String name = "tree" + ThreadLocalRandom.current().nextInt(1_000_000);
+        created.setUsername(name);
+        created.setEmail(name + "@localhost");
+        created.setPassword("unused");
+        user = userRepository.save(created);
+
+        docs = fileService.createFolder("docs", user, null);
+        fileService.createFolder("photos", user, null);
+        File reports = fileService.createFolder("reports", user, docs.getId());
+        File year = fileService.createFolder("2024", user, reports.getId());
+        upload("a.txt", docs);
+        upload("b.txt", docs);
+        upload("c.txt", reports);
+        upload("d.txt", year);
+    }
+
+    @Test
+    void treeIsOneQuery() throws IOException {
+        FileTree tree;
+        try (QueryStats stats = QueryStats.begin()) {
+            tree = fileService.getTree(user, null, 5, false);
+            stats.assertStatements(1);
+        }
+        assertEquals(2, tree.getChildren().size());
+        FileTreeNode docsNode = tree.getChildren().stream()
+                .filter(node -> node.getFile().getId().equals(docs.getId()))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(3, docsNode.getChildren().size());
+        FileTreeNode yearNode = docsNode.getChildren().stream()
+                .filter(node -> "reports".equals(node.getFile().getFileName()))
+                .findFirst()
+                .orElseThrow()
+                .getChildren().stream()
+                .filter(node -> "2024".equals(node.getFile().getFileName()))
+                .findFirst()
+                .orElseThrow();
+        assertEquals("d.txt", yearNode.getChildren().get(0).getFile().getFileName());
+
+        try (QueryStats stats = QueryStats.begin()) {
+            // 根文件夹的归属检查命中二级缓存
+            tree = fileService.getTree(user, docs.getId(), 5, true);
+            stats.assertStatements(1);
+        }
+        assertEquals(1, tree.getChildren().size());
+        assertEquals(1, tree.getChildren().get(0).getChildren().size());
+    }
+
+    @Test
+    void listingIsOneQueryThenCached() {
+        List<FileDTO> listing;
+        try (QueryStats stats = QueryStats.begin()) {
+            listing = fileService.getFilesInFolder(user, docs.getId());
+            stats.assertStatements(1);
+        }
+        assertEquals(3, listing.size());
+        try (QueryStats stats = QueryStats.begin()) {
+            assertEquals(listing, fileService.getFilesInFolder(user, docs.getId()));
+            stats.assertStatements(0);
+        }
+    }
+
+    private void upload(String name, File parent) throws IOException {
+        fileService.uploadFile(new MockMultipartFile("file", name, "text/plain",
+                name.getBytes(StandardCharsets.UTF_8)), user, parent.getId());
+    }
+}
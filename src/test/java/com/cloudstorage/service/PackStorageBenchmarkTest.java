@@ -0,0 +1,103 @@
+package com.cloudstorage.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 小文件吞吐量：分别以独立文件和打包方式（一个文件按偏移定位写）写入 benchmark.files（默认 10000）个
+ * benchmark.size-bytes（默认 4096）字节的文件，再按顺序全部读出（相当于一次备份）并删除，输出每个阶段的文件数/秒。
+ * 读取阶段大多命中页缓存，反映的是系统调用和元数据开销的差别
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class PackStorageBenchmarkTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void throughput() throws IOException {
+        int files = Integer.getInteger("benchmark.files", 10000);
+        int sizeBytes = Integer.getInteger("benchmark.size-bytes", 4096);
+        byte[] data = new byte[sizeBytes];
+        ThreadLocalRandom.current().nextBytes(data);
+        Path fileDir = Files.createDirectory(dir.resolve("files"));
+        Path pack = dir.resolve("bench.pack");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < files; i++) {
+            Files.write(fileDir.resolve(i + ".bin"), data, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+        long fileWrite = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < files; i++) {
+            assertEquals(sizeBytes, Files.readAllBytes(fileDir.resolve(i + ".bin")).length);
+        }
+        long fileRead = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < files; i++) {
+            Files.delete(fileDir.resolve(i + ".bin"));
+        }
+        long fileDelete = System.nanoTime() - start;
+
+        long packWrite;
+        long packRead;
+        try (FileChannel channel = FileChannel.open(pack, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            start = System.nanoTime();
+            for (int i = 0; i < files; i++) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                long offset = (long) i * sizeBytes;
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, offset + buffer.position());
+                }
+            }
+            packWrite = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < files; i++) {
+                ByteBuffer buffer = ByteBuffer.allocate(sizeBytes);
+                long offset = (long) i * sizeBytes;
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        throw new IOException("读取长度不一致");
+                    }
+                }
+                if (i == files - 1) {
+                    assertArrayEquals(data, buffer.array());
+                }
+            }
+            packRead = System.nanoTime() - start;
+        }
+        assertEquals((long) files * sizeBytes, Files.size(pack));
+        start = System.nanoTime();
+        Files.delete(pack);
+        long packDelete = System.nanoTime() - start;
+        assertFalse(Files.exists(pack));
+
+        System.out.printf("files=%d sizeBytes=%d writes/s file=%d pack=%d (%.1fx), reads/s file=%d pack=%d (%.1fx), "
+                        + "deletes/s file=%d, pack delete %d ms%n",
+                files, sizeBytes, rate(files, fileWrite), rate(files, packWrite), ratio(fileWrite, packWrite),
+                rate(files, fileRead), rate(files, packRead), ratio(fileRead, packRead),
+                rate(files, fileDelete), packDelete / 1_000_000);
+    }
+
+    private long rate(int count, long nanos) {
+        return Math.round(count / (nanos / 1e9));
+    }
+
+    private double ratio(long slower, long faster) {
+        return faster > 0 ? Math.round((double) slower / faster * 10) / 10.0 : 0;
+    }
+}
@@ -0,0 +1,185 @@
+package com.cloudstorage.service;
+
+import com.cloudstorage.model.File;
+import com.cloudstorage.model.User;
+import com.cloudstorage.repository.FilePackRepository;
+import com.cloudstorage.repository.FileRepository;
+import com.cloudstorage.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 打包存储的写入、读取和压缩：上传小文件后删除部分记录制造垃圾，压缩并删除退役打包文件，
+ * 确认仍被引用的条目按区间整体搬到新位置，旧实体和签名链接中的旧位置在退役文件删除后仍可读取
+ */
+@SpringBootTest
+@ActiveProfiles({"dev", "test"})
+class PackStorageServiceTest {
+
+    private static final int ENTRY_BYTES = 10_000;
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void storage(DynamicPropertyRegistry registry) {
+        registry.add("file.upload-dir", () -> uploadDir.toString());
+        registry.add("spring.datasource.url", () -> "jdbc:h2:mem:pack_storage_test;DB_CLOSE_ON_EXIT=FALSE");
+    }
+
+    @Autowired
+    private FileService fileService;
+    @Autowired
+    private PackStorageService packStorageService;
+    @Autowired
+    private FileRepository fileRepository;
+    @Autowired
+    private FilePackRepository filePackRepository;
+    @Autowired
+    private UserRepository userRepository;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        User created = new User();
+        String name = "pack" + ThreadLocalRandom.current().nextInt(1_000_000);
+        created.setUsername(name);
+        created.setEmail(name + "@localhost");
+        created.setPassword("unused");
+        user = userRepository.save(created);
+    }
+
+    @Test
+    void compactionMovesLiveRunsAndOldLocationsStayReadable() throws IOException {
+        // 上传到第一个打包文件写满（换新时封存），之后再多上传一个
+        Map<File, byte[]> uploaded = new LinkedHashMap<>();
+        File first = upload("first", uploaded);
+        long packId = first.getPackId();
+        while (uploaded.keySet().stream().allMatch(file -> file.getPackId() == packId)) {
+            upload("f" + uploaded.size(), uploaded);
+        }
+        List<File> entries = uploaded.keySet().stream()
+                .filter(file -> file.getPackId() == packId)
+                .collect(Collectors.toList());
+        assertTrue(entries.size() >= 4, "每个打包文件至少应有 4 个条目");
+
+        // 保留第 2、3 个（连续区间）和最后一个，其余删除记录
+        File second = entries.get(1);
+        File third = entries.get(2);
+        File last = entries.get(entries.size() - 1);
+        List<File> removed = new ArrayList<>(entries);
+        removed.removeAll(List.of(second, third, last));
+        fileRepository.deleteAll(removed);
+        String locator = packStorageService.locator(second);
+
+        Map<String, Object> result = packStorageService.compactNow();
+        assertEquals(1, result.get("compactedPacks"));
+        assertTrue(filePackRepository.findById(packId).orElseThrow().getRetiredAt() != null);
+
+        File movedSecond = fileRepository.findById(second.getId()).orElseThrow();
+        File movedThird = fileRepository.findById(third.getId()).orElseThrow();
+        File movedLast = fileRepository.findById(last.getId()).orElseThrow();
+        assertNotEquals(packId, movedSecond.getPackId());
+        // 连续区间整体平移，区间之间按复制顺序紧挨着写入
+        assertEquals(movedSecond.getPackId(), movedThird.getPackId());
+        assertEquals(movedSecond.getPackId(), movedLast.getPackId());
+        assertEquals(third.getPackOffset() - second.getPackOffset(), movedThird.getPackOffset() - movedSecond.getPackOffset());
+        assertEquals(movedThird.getPackOffset() + movedThird.getPackLength(), movedLast.getPackOffset());
+        for (File file : List.of(movedSecond, movedThird, movedLast)) {
+            assertArrayEquals(contentOf(uploaded, file), packStorageService.read(file));
+        }
+
+        // 宽限期内旧位置仍然可以直接读取；宽限期结束后退役文件被删除
+        assertArrayEquals(uploaded.get(second), packStorageService.read(second));
+        assertEquals(1, packStorageService.compactNow().get("deletedRetiredPacks"));
+        assertFalse(Files.exists(packPath(packId)));
+
+        // 旧实体和签名链接中的位置：旧文件已删除，按主键查询当前位置后读取
+        assertArrayEquals(uploaded.get(second), packStorageService.read(second));
+        assertArrayEquals(uploaded.get(last), packStorageService.read(last));
+        assertArrayEquals(uploaded.get(second), packStorageService.read(locator, null));
+    }
+
+    @Test
+    void retiredPackStillReferencedIsCopiedAgainInsteadOfDeleted() throws IOException {
+        Map<File, byte[]> uploaded = new LinkedHashMap<>();
+        File first = upload("first", uploaded);
+        long packId = first.getPackId();
+        while (uploaded.keySet().stream().allMatch(file -> file.getPackId() == packId)) {
+            upload("f" + uploaded.size(), uploaded);
+        }
+        List<File> entries = uploaded.keySet().stream()
+                .filter(file -> file.getPackId() == packId)
+                .collect(Collectors.toList());
+        File kept = entries.get(0);
+        fileRepository.deleteAll(entries.subList(1, entries.size()));
+        packStorageService.compactNow();
+
+        // 压缩之后才提交的事务（例如复制）保存的记录仍指向旧位置
+        File late = new File();
+        late.setFileName("late");
+        late.setFileSize((long) ENTRY_BYTES);
+        late.setFilePath(kept.getFilePath() + "-late");
+        late.setPath("/late");
+        late.setUser(user);
+        packStorageService.assign(late, kept);
+        late = fileRepository.save(late);
+
+        // 退役文件仍被引用：重新复制该条目，本轮不删除
+        assertEquals(0, packStorageService.compactNow().get("deletedRetiredPacks"));
+        assertTrue(Files.exists(packPath(packId)));
+        File relocated = fileRepository.findById(late.getId()).orElseThrow();
+        assertNotEquals(packId, relocated.getPackId());
+        assertArrayEquals(uploaded.get(kept), packStorageService.read(relocated));
+
+        assertEquals(1, packStorageService.compactNow().get("deletedRetiredPacks"));
+        assertFalse(Files.exists(packPath(packId)));
+        assertArrayEquals(uploaded.get(kept), packStorageService.read(late));
+        assertArrayEquals(uploaded.get(kept), packStorageService.read(kept));
+    }
+
+    private File upload(String name, Map<File, byte[]> uploaded) throws IOException {
+        byte[] content = new byte[ENTRY_BYTES];
+        ThreadLocalRandom.current().nextBytes(content);
+        File file = fileService.uploadFile(new MockMultipartFile("file", name + ".bin", "application/octet-stream", content), user);
+        assertTrue(packStorageService.isPacked(file));
+        uploaded.put(file, content);
+        return file;
+    }
+
+    private byte[] contentOf(Map<File, byte[]> uploaded, File file) {
+        return uploaded.entrySet().stream()
+                .filter(entry -> entry.getKey().getId().equals(file.getId()))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private Path packPath(long packId) {
+        return uploadDir.resolve(".packs").resolve(packId + ".pack");
+    }
+}
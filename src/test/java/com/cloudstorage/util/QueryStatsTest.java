@@ -0,0 +1,76 @@
+package com.cloudstorage.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 查询形状的归一化，以及嵌套统计范围、语句预算和 N+1 检测
+ */
+class QueryStatsTest {
+
+    @Test
+    void shapeIgnoresLiteralsInListsAndWhitespace() {
+        assertEquals("select * from files where id=? and name=?",
+                QueryStats.shapeOf("SELECT * FROM files WHERE id=42 AND name='it''s'"));
+        assertEquals("select * from files where id in (?)",
+                QueryStats.shapeOf("select * from files where id in (?, ?,?)"));
+        assertEquals("select * from files where id in (?)",
+                QueryStats.shapeOf("select * from files where id in (?)"));
+        assertEquals("update files set size=? where id=?",
+                QueryStats.shapeOf("update files\n   set size=?\n where id=?"));
+        // 标识符中的数字不是字面量
+        assertEquals("select f1_0.id from files f1_0",
+                QueryStats.shapeOf("select f1_0.id from files f1_0"));
+    }
+
+    @Test
+    void nestedScopesCountIntoOuter() {
+        try (QueryStats outer = QueryStats.begin()) {
+            QueryStats.recordStatement("select 1");
+            try (QueryStats inner = QueryStats.begin()) {
+                QueryStats.recordStatement("select 2");
+                inner.assertStatements(1);
+            }
+            assertEquals(outer, QueryStats.current());
+            outer.assertStatements(2);
+            assertEquals(Map.of("select ?", 2), outer.getShapes());
+        }
+        assertNull(QueryStats.current());
+        // 没有统计范围时不记录
+        QueryStats.recordStatement("select 3");
+    }
+
+    @Test
+    void limitRejectsExtraStatements() {
+        try (QueryStats stats = QueryStats.begin(2)) {
+            QueryStats.recordStatement("select 1");
+            QueryStats.recordStatement("select 2");
+            assertThrows(QueryStats.QueryBudgetExceededException.class, () -> QueryStats.recordStatement("select 3"));
+            assertThrows(AssertionError.class, () -> stats.assertAtMost(2));
+        }
+    }
+
+    @Test
+    void repeatedSelectsOnlyCountsSelects() {
+        try (QueryStats stats = QueryStats.begin()) {
+            for (long id = 1; id <= 3; id++) {
+                QueryStats.recordStatement("select * from users where id=" + id);
+                QueryStats.recordStatement("update files set size=0 where id=" + id);
+            }
+            QueryStats.recordStatement("select count(*) from files");
+
+            List<Map.Entry<String, Integer>> repeated = stats.repeatedSelects(2);
+            assertEquals(1, repeated.size());
+            assertEquals("select * from users where id=?", repeated.get(0).getKey());
+            assertEquals(3, repeated.get(0).getValue());
+            stats.assertNoRepeatedSelects(4);
+            assertThrows(AssertionError.class, () -> stats.assertNoRepeatedSelects(3));
+        }
+    }
+}